@@ -0,0 +1,396 @@
+package evgenii.newjob.deepclone.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Generates a copier for every class annotated with {@code DeepCopyable}, which copies the fields
+ * with plain Java field accesses and method calls instead of reflection.
+ * The copier of {@code com.example.Outer.Inner} is {@code com.example.Outer_InnerCopier}, which is
+ * the name the deep copy looks the copier up by. Classes whose fields cannot be read or written
+ * from their package, neither directly nor through {@code getX}, {@code isX} and {@code setX} methods,
+ * are reported as compile errors.
+ * <p>
+ * The generated code creates the copy through the no-argument constructor, or the first non-private one whose
+ * parameters match fields, so unlike reflective copies, which allocate instances without running any constructor,
+ * its field initializers, validation and other side effects run once per copy.
+ */
+@SupportedAnnotationTypes(DeepCopyableProcessor.DEEP_COPYABLE)
+public class DeepCopyableProcessor extends AbstractProcessor {
+
+    static final String DEEP_COPYABLE = "evgenii.newjob.deepclone.annotation.DeepCopyable";
+    private static final String SHARED = "evgenii.newjob.deepclone.annotation.Shared";
+    private static final String SKIP = "evgenii.newjob.deepclone.annotation.Skip";
+    private static final String COPIER = "evgenii.newjob.deepclone.Copier";
+
+    /**
+     * Immutable final classes whose values are assigned as they are, like primitives.
+     */
+    private static final Set<String> VALUE_CLASSES = Set.of("java.lang.String", "java.lang.Boolean",
+            "java.lang.Byte", "java.lang.Character", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double");
+
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.RECORD) {
+                    error(element, "Only classes and records can be deep copyable");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                List<String> errors = new ArrayList<>();
+                String body = type.getKind() == ElementKind.RECORD ? recordBody(type, errors) : classBody(type, errors);
+                if (errors.isEmpty()) {
+                    write(type, body);
+                } else {
+                    errors.forEach(message -> error(type, message));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Field of the copied class with the expressions reading and writing it on a copy named {@code copy}.
+     */
+    private record CopiedField(VariableElement field, String read, String write, boolean skipped, boolean shared) {
+
+        String name() {
+            return field.getSimpleName().toString();
+        }
+
+        /**
+         * Checks if the field holds a primitive, String, boxed primitive or enum, which is never copied.
+         */
+        boolean isValue() {
+            TypeMirror type = field.asType();
+            if (type.getKind().isPrimitive()) {
+                return true;
+            }
+            if (type.getKind() != TypeKind.DECLARED) {
+                return false;
+            }
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return element.getKind() == ElementKind.ENUM || VALUE_CLASSES.contains(element.getQualifiedName().toString());
+        }
+
+        /**
+         * Returns the value the copy gets, with the referenced object passed through the context.
+         */
+        String copiedValue() {
+            if (skipped) {
+                return defaultValue(field.asType());
+            }
+            return isValue() || shared ? read : "context.copy(" + read + ")";
+        }
+    }
+
+    private String classBody(TypeElement type, List<String> errors) {
+        checkType(type, errors);
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            errors.add("Abstract classes cannot be deep copyable");
+        }
+        List<CopiedField> fields = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (TypeElement declaring = type; declaring != null; declaring = superclassOf(declaring)) {
+            for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                if (!names.add(name)) {
+                    errors.add("Field " + name + " of " + declaring.getQualifiedName() + " is hidden by a subclass field");
+                    continue;
+                }
+                boolean skipped = field.getModifiers().contains(Modifier.TRANSIENT) || hasAnnotation(field, SKIP);
+                fields.add(new CopiedField(field, reader(type, field), writer(type, field), skipped, hasAnnotation(field, SHARED)));
+            }
+        }
+
+        ExecutableElement constructor = selectConstructor(type, fields);
+        if (constructor == null) {
+            errors.add("No accessible no-argument constructor, nor one whose parameters are named like fields");
+            return null;
+        }
+        Set<String> constructorParameters = constructor.getParameters().stream()
+                .map(parameter -> parameter.getSimpleName().toString())
+                .collect(Collectors.toSet());
+        List<String> arguments = new ArrayList<>();
+        for (VariableElement parameter : constructor.getParameters()) {
+            CopiedField field = fields.stream()
+                    .filter(candidate -> candidate.name().equals(parameter.getSimpleName().toString()))
+                    .findFirst()
+                    .orElseThrow();
+            arguments.add(field.skipped() ? defaultValue(field.field().asType()) : field.read());
+        }
+
+        // The constructor gets the original's values, references are replaced by copies once the copy is registered
+        StringBuilder statements = new StringBuilder();
+        for (CopiedField field : fields) {
+            if (field.skipped() || constructorParameters.contains(field.name()) && (field.isValue() || field.shared())) {
+                continue;
+            }
+            if (field.read() == null || field.write() == null) {
+                errors.add("Field " + field.name() + " can neither be " + (field.read() == null ? "read" : "written")
+                        + " directly nor through an accessible method");
+                continue;
+            }
+            statements.append("        ").append(String.format(field.write(), field.copiedValue())).append(";\n");
+        }
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) == null) {
+                errors.add("Field " + constructor.getParameters().get(i).getSimpleName() + " can neither be read "
+                        + "directly nor through an accessible method");
+            }
+        }
+
+        String typeName = typeName(type);
+        return "        " + typeName + " allocated = new " + typeName + "(" + String.join(", ", arguments) + ");\n"
+                + "        " + typeName + " copy = context.register(original, allocated);\n"
+                + "        if (copy != allocated) {\n"
+                + "            return copy;\n"
+                + "        }\n"
+                + statements
+                + "        return copy;\n";
+    }
+
+    /**
+     * Records are created from their copied components, the context registers them once created.
+     */
+    private String recordBody(TypeElement type, List<String> errors) {
+        checkType(type, errors);
+        List<String> arguments = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String read = "original." + field.getSimpleName() + "()";
+            arguments.add(new CopiedField(field, read, null, hasAnnotation(field, SKIP), hasAnnotation(field, SHARED))
+                    .copiedValue());
+        }
+        return "        return new " + typeName(type) + "(" + String.join(", ", arguments) + ");\n";
+    }
+
+    private void checkType(TypeElement type, List<String> errors) {
+        for (Element element = type; element instanceof TypeElement nested; element = element.getEnclosingElement()) {
+            if (nested.getModifiers().contains(Modifier.PRIVATE)) {
+                errors.add("Private classes cannot be deep copyable");
+            }
+            if (nested.getNestingKind() == NestingKind.LOCAL || nested.getNestingKind() == NestingKind.ANONYMOUS) {
+                errors.add("Local and anonymous classes cannot be deep copyable");
+            }
+            if (nested.getNestingKind() == NestingKind.MEMBER && !nested.getModifiers().contains(Modifier.STATIC)
+                    && nested.getKind() == ElementKind.CLASS) {
+                errors.add("Inner classes cannot be deep copyable, they must be static");
+            }
+        }
+        for (String container : List.of("java.util.Collection", "java.util.Map")) {
+            TypeMirror containerType = types.erasure(elements.getTypeElement(container).asType());
+            if (types.isAssignable(types.erasure(type.asType()), containerType)) {
+                errors.add("Collections and Maps cannot be deep copyable");
+            }
+        }
+    }
+
+    /**
+     * Returns the expression reading the field of {@code original}, or {@code null} if it is not accessible.
+     */
+    private String reader(TypeElement type, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (isAccessible(type, field)) {
+            return "original." + name;
+        }
+        boolean isBoolean = field.asType().getKind() == TypeKind.BOOLEAN;
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            String methodName = method.getSimpleName().toString();
+            if ((methodName.equals("get" + capitalize(name)) || isBoolean && methodName.equals("is" + capitalize(name)))
+                    && method.getParameters().isEmpty() && isSameType(method.getReturnType(), field.asType())
+                    && !method.getModifiers().contains(Modifier.STATIC) && isAccessible(type, method)) {
+                return "original." + methodName + "()";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the format of the statement writing the field of {@code copy}, or {@code null} if it is not accessible.
+     */
+    private String writer(TypeElement type, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (isAccessible(type, field) && !field.getModifiers().contains(Modifier.FINAL)) {
+            return "copy." + name + " = %s";
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals("set" + capitalize(name)) && method.getParameters().size() == 1
+                    && isSameType(method.getParameters().get(0).asType(), field.asType())
+                    && !method.getModifiers().contains(Modifier.STATIC) && isAccessible(type, method)) {
+                return "copy." + method.getSimpleName() + "(%s)";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prefers the no-argument constructor, then the first one whose parameters all match fields by name and type.
+     */
+    private ExecutableElement selectConstructor(TypeElement type, List<CopiedField> fields) {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements()).stream()
+                .filter(constructor -> !constructor.getModifiers().contains(Modifier.PRIVATE))
+                .toList();
+        for (ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty()) {
+                return constructor;
+            }
+        }
+        for (ExecutableElement constructor : constructors) {
+            boolean matching = constructor.getParameters().stream().allMatch(parameter -> fields.stream()
+                    .anyMatch(field -> field.name().equals(parameter.getSimpleName().toString())
+                            && isSameType(field.field().asType(), parameter.asType())));
+            if (matching) {
+                return constructor;
+            }
+        }
+        return null;
+    }
+
+    private void write(TypeElement type, String body) {
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String copierName = copierName(type);
+        String typeName = typeName(type);
+        boolean generic = !type.getTypeParameters().isEmpty();
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(packageName.isEmpty() ? copierName : packageName + "." + copierName, type)
+                .openWriter()) {
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("/**\n"
+                    + " * Copier of {@link " + typeName + "} generated from its fields.\n"
+                    + " */\n"
+                    + "@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")\n"
+                    + (generic ? "@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n" : "")
+                    + "public final class " + copierName + " implements " + COPIER + "<" + typeName + "> {\n\n"
+                    + "    @Override\n"
+                    + "    public " + typeName + " copy(" + typeName + " original, " + COPIER + ".Context context) {\n"
+                    + body
+                    + "    }\n"
+                    + "}\n");
+        } catch (IOException e) {
+            error(type, "Cannot write the copier: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the name of the class relative to its package, such as {@code Outer.Inner}.
+     */
+    private static String typeName(TypeElement type) {
+        String qualifiedName = type.getQualifiedName().toString();
+        Element enclosing = type;
+        while (!(enclosing instanceof PackageElement)) {
+            enclosing = enclosing.getEnclosingElement();
+        }
+        String packageName = ((PackageElement) enclosing).getQualifiedName().toString();
+        return packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1);
+    }
+
+    private static String copierName(TypeElement type) {
+        return typeName(type).replace('.', '_') + "Copier";
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    /**
+     * Checks if a member can be accessed from the copier, which lives in the package of the copied class.
+     */
+    private boolean isAccessible(TypeElement type, Element member) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        TypeElement declaring = (TypeElement) member.getEnclosingElement();
+        if (elements.getPackageOf(declaring).equals(elements.getPackageOf(type))) {
+            return true;
+        }
+        return modifiers.contains(Modifier.PUBLIC) && declaring.getModifiers().contains(Modifier.PUBLIC);
+    }
+
+    private boolean isSameType(TypeMirror first, TypeMirror second) {
+        return types.isSameType(types.erasure(first), types.erasure(second));
+    }
+
+    private static boolean hasAnnotation(Element element, String annotation) {
+        return element.getAnnotationMirrors().stream()
+                .anyMatch(mirror -> ((TypeElement) mirror.getAnnotationType().asElement())
+                        .getQualifiedName().contentEquals(annotation));
+    }
+
+    private static String defaultValue(TypeMirror type) {
+        return switch (type.getKind()) {
+            case BOOLEAN -> "false";
+            case BYTE -> "(byte) 0";
+            case SHORT -> "(short) 0";
+            case CHAR -> "'\\0'";
+            case INT -> "0";
+            case LONG -> "0L";
+            case FLOAT -> "0F";
+            case DOUBLE -> "0D";
+            default -> "null";
+        };
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
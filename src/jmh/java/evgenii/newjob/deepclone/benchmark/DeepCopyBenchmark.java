@@ -0,0 +1,103 @@
+package evgenii.newjob.deepclone.benchmark;
+
+import evgenii.newjob.deepclone.CopyUtils;
+import evgenii.newjob.deepclone.Snapshot;
+import evgenii.newjob.deepclone.TraversalMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deep copy of generated object graphs, compared with serialization and hand-written copies.
+ * Throughput mode reports copies per millisecond, sample time mode reports the latency percentiles,
+ * and the GC profiler enabled by the {@code jmh} Gradle task reports the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xss16m")
+@State(Scope.Benchmark)
+public class DeepCopyBenchmark {
+
+    /**
+     * Seed of the generated graphs, fixed so that all runs measure the same graphs.
+     */
+    private static final long SEED = 42;
+
+    @Param
+    public GraphShape shape;
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private Object graph;
+    private Snapshot<Object> snapshot;
+
+    @Setup
+    public void generate() {
+        graph = shape.generate(size, new Random(SEED));
+        snapshot = CopyUtils.snapshot(graph);
+    }
+
+    @Benchmark
+    public Object deepCopy() {
+        return CopyUtils.deepCopy(graph);
+    }
+
+    @Benchmark
+    public Object deepCopyIterative() {
+        return CopyUtils.deepCopy(graph, TraversalMode.ITERATIVE);
+    }
+
+    @Benchmark
+    public Object snapshotMaterialize() {
+        return snapshot.materialize();
+    }
+
+    @Benchmark
+    public Object serializationCopy() {
+        return copyBySerialization(graph);
+    }
+
+    @Benchmark
+    public Object handWrittenCopy() {
+        return shape.copyByHand(graph);
+    }
+
+    /**
+     * Deep copies a graph by writing it to an in-memory object stream and reading it back.
+     */
+    private static Object copyBySerialization(Object graph) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(graph);
+            }
+            try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return input.readObject();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
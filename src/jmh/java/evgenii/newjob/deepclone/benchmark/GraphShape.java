@@ -0,0 +1,256 @@
+package evgenii.newjob.deepclone.benchmark;
+
+import evgenii.newjob.deepclone.model.Man;
+import evgenii.newjob.deepclone.model.NestedCollection;
+import evgenii.newjob.deepclone.model.TreeNode;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Shapes of object graphs measured by the benchmarks.
+ * Each shape generates a graph of the given size from a seeded {@link Random}, so that every run
+ * copies exactly the same graph, and copies it by hand as the copy-constructor baseline.
+ * All generated graphs are {@link Serializable} to support the serialization baseline.
+ */
+public enum GraphShape {
+
+    /**
+     * List of flat {@link Man} DTOs, each with a short list of books.
+     */
+    FLAT {
+        @Override
+        Object generate(int size, Random random) {
+            List<Man> men = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                List<String> books = new ArrayList<>();
+                for (int book = 0; book < 3; book++) {
+                    books.add("Book " + random.nextInt(1000));
+                }
+                men.add(new Man("Man " + i, random.nextInt(100), books));
+            }
+            return men;
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            List<Man> men = (List<Man>) graph;
+            List<Man> copies = new ArrayList<>(men.size());
+            for (Man man : men) {
+                copies.add(new Man(man.getName(), man.getAge(), new ArrayList<>(man.getFavoriteBooks())));
+            }
+            return copies;
+        }
+    },
+
+    /**
+     * Chain of {@link TreeNode}s, each the only child of the previous one.
+     */
+    DEEP {
+        @Override
+        Object generate(int size, Random random) {
+            TreeNode root = new TreeNode("0");
+            TreeNode current = root;
+            for (int i = 1; i < size; i++) {
+                TreeNode child = new TreeNode(Integer.toString(random.nextInt()));
+                current.addChild(child);
+                current = child;
+            }
+            return root;
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            return copyTree((TreeNode) graph);
+        }
+    },
+
+    /**
+     * {@link NestedCollection} with many small lists and sets.
+     */
+    WIDE {
+        @Override
+        Object generate(int size, Random random) {
+            NestedCollection nested = new NestedCollection();
+            List<Collection> lists = (List<Collection>) nested.getCollectionList();
+            for (int i = 0; i < size; i++) {
+                List<String> list = new ArrayList<>();
+                Collection<Integer> set = new HashSet<>();
+                for (int element = 0; element < 10; element++) {
+                    list.add("Element " + random.nextInt(1000));
+                    set.add(random.nextInt());
+                }
+                lists.add(list);
+                nested.getCollectionMap().put("Key " + i, set);
+            }
+            return nested;
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            NestedCollection nested = (NestedCollection) graph;
+            NestedCollection copy = new NestedCollection();
+            List<Collection> lists = (List<Collection>) copy.getCollectionList();
+            for (Object list : nested.getCollectionList()) {
+                lists.add(new ArrayList<>((List<String>) list));
+            }
+            for (Map.Entry<String, Collection> entry : nested.getCollectionMap().entrySet()) {
+                copy.getCollectionMap().put(entry.getKey(), new HashSet<>((Collection<Integer>) entry.getValue()));
+            }
+            return copy;
+        }
+    },
+
+    /**
+     * {@link TreeNode}s with random children, which creates shared references and cycles.
+     */
+    CYCLIC {
+        @Override
+        Object generate(int size, Random random) {
+            TreeNode[] nodes = new TreeNode[size];
+            for (int i = 0; i < size; i++) {
+                nodes[i] = new TreeNode("Node " + i);
+            }
+            for (int i = 0; i < size; i++) {
+                // The first child keeps all nodes reachable from the root
+                if (i + 1 < size) {
+                    nodes[i].addChild(nodes[i + 1]);
+                }
+                nodes[i].addChild(nodes[random.nextInt(size)]);
+            }
+            return nodes[0];
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            return copyTree((TreeNode) graph);
+        }
+    },
+
+    /**
+     * List of samples dominated by primitive arrays.
+     */
+    PRIMITIVE_ARRAYS {
+        @Override
+        Object generate(int size, Random random) {
+            List<Sample> samples = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                Sample sample = new Sample(i, new double[size], new int[size], new byte[size * 8]);
+                for (int j = 0; j < size; j++) {
+                    sample.values[j] = random.nextDouble();
+                    sample.counts[j] = random.nextInt();
+                }
+                random.nextBytes(sample.payload);
+                samples.add(sample);
+            }
+            return samples;
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            List<Sample> samples = (List<Sample>) graph;
+            List<Sample> copies = new ArrayList<>(samples.size());
+            for (Sample sample : samples) {
+                copies.add(new Sample(sample.id, sample.values.clone(), sample.counts.clone(), sample.payload.clone()));
+            }
+            return copies;
+        }
+    },
+
+    /**
+     * Map of small maps with String keys and Integer values.
+     */
+    MAPS {
+        @Override
+        Object generate(int size, Random random) {
+            Map<String, Map<String, Integer>> maps = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                Map<String, Integer> map = new HashMap<>();
+                for (int entry = 0; entry < 10; entry++) {
+                    map.put("Key " + random.nextInt(1000), random.nextInt());
+                }
+                maps.put("Map " + i, map);
+            }
+            return maps;
+        }
+
+        @Override
+        Object copyByHand(Object graph) {
+            Map<String, Map<String, Integer>> maps = (Map<String, Map<String, Integer>>) graph;
+            Map<String, Map<String, Integer>> copies = new HashMap<>(maps.size() * 2);
+            for (Map.Entry<String, Map<String, Integer>> entry : maps.entrySet()) {
+                copies.put(entry.getKey(), new HashMap<>(entry.getValue()));
+            }
+            return copies;
+        }
+    };
+
+    /**
+     * Generates the graph of this shape.
+     *
+     * @param size   The number of elements, nodes or entries of the graph.
+     * @param random The source of the generated values.
+     * @return The root of the graph.
+     */
+    abstract Object generate(int size, Random random);
+
+    /**
+     * Deep copies a graph of this shape with hand-written code that knows the shape.
+     *
+     * @param graph The root of the graph.
+     * @return The copied root.
+     */
+    abstract Object copyByHand(Object graph);
+
+    /**
+     * Copies {@link TreeNode}s with an explicit stack and a table of copies, which keeps cycles and shared nodes.
+     */
+    private static TreeNode copyTree(TreeNode root) {
+        Map<TreeNode, TreeNode> copies = new IdentityHashMap<>();
+        Deque<TreeNode> pending = new ArrayDeque<>();
+        copies.put(root, new TreeNode(root.getValue()));
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+            TreeNode copy = copies.get(node);
+            for (TreeNode child : node.getChildren()) {
+                TreeNode childCopy = copies.get(child);
+                if (childCopy == null) {
+                    childCopy = new TreeNode(child.getValue());
+                    copies.put(child, childCopy);
+                    pending.push(child);
+                }
+                copy.addChild(childCopy);
+            }
+        }
+        return copies.get(root);
+    }
+
+    /**
+     * Measurement series of the primitive array heavy shape.
+     */
+    static final class Sample implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+        private final double[] values;
+        private final int[] counts;
+        private final byte[] payload;
+
+        Sample(int id, double[] values, int[] counts, byte[] payload) {
+            this.id = id;
+            this.values = values;
+            this.counts = counts;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Bulk copy paths for arrays whose elements never need to be deep copied.
+ * Primitive arrays and arrays of immutable component types are copied with a single
+ * {@code clone()}, which the JVM performs as a plain memory copy without boxing
+ * or visiting the elements.
+ */
+final class ArrayCopies {
+
+    private ArrayCopies() {
+    }
+
+    /**
+     * Checks if arrays of the given class can be copied without copying their elements.
+     *
+     * @param arrayClass The class of the array.
+     * @return {@code true} for primitive arrays and arrays of immutable component types.
+     * @see ImmutableTypes#isImmutableDeclaredType(Class)
+     */
+    static boolean isFlat(Class<?> arrayClass) {
+        return ImmutableTypes.isImmutableDeclaredType(arrayClass.getComponentType());
+    }
+
+    /**
+     * Copies a flat array in bulk.
+     *
+     * @param original The array accepted by {@link #isFlat(Class)}.
+     * @return The copy of the array.
+     */
+    static Object cloneFlat(Object original) {
+        if (original instanceof Object[] objects) {
+            return objects.clone();
+        }
+        if (original instanceof int[] ints) {
+            return ints.clone();
+        }
+        if (original instanceof long[] longs) {
+            return longs.clone();
+        }
+        if (original instanceof double[] doubles) {
+            return doubles.clone();
+        }
+        if (original instanceof byte[] bytes) {
+            return bytes.clone();
+        }
+        if (original instanceof char[] chars) {
+            return chars.clone();
+        }
+        if (original instanceof float[] floats) {
+            return floats.clone();
+        }
+        if (original instanceof short[] shorts) {
+            return shorts.clone();
+        }
+        return ((boolean[]) original).clone();
+    }
+}
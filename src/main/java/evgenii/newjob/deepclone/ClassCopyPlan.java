@@ -0,0 +1,532 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.annotation.DeepCopyable;
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copy plan of a single class under a {@link CopyPolicy}.
+ * Resolves the rule of the policy for the class, the instantiation strategy and the list
+ * of copied, shared and skipped fields once, so that every later copy of the class goes through
+ * the precomputed plan instead of reflecting on the class again. Fields are copied by a copier
+ * generated for the class, with a reflective copier as fallback.
+ * Classes with a copier registered in the {@link CopierRegistry} of the policy, or detected by it, are copied
+ * by that copier in every traversal. Under policies without share or skip rules of their own, classes annotated
+ * with {@link DeepCopyable} are copied by their copier generated at compile time, which recursive copies prefer
+ * over the plan of the fields. Their fields and instantiator are only reflected on once a snapshot, prototype, walk
+ * or another traversal needs them. Generated copiers create the copy through a constructor, which runs its side
+ * effects, unlike the {@link Instantiator} of the plan.
+ * Records cannot be populated field by field, their plan reads the component values
+ * to create the copy through the canonical constructor instead.
+ * Plans of arrays, Collections, Maps and of shared or skipped classes only hold the rule of the class,
+ * as do plans of JDK value types and other immutable classes whose fields cannot be read. Plans of other
+ * immutable classes list their fields like mutable ones, which copies never use, but walks of a graph do.
+ */
+final class ClassCopyPlan {
+
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    private final Class<?> clazz;
+    private final CopyPolicy policy;
+    private final boolean shared;
+    private final boolean skipped;
+    private final boolean opaque;
+    private final boolean record;
+
+    /**
+     * Copier generated at compile time for the class, {@code null} if there is none or the policy has rules of its own.
+     */
+    private final Copier<Object> generatedCopier;
+
+    /**
+     * Copier registered for the class or detected by the {@link CopierRegistry} of the policy, {@code null} if there is none.
+     */
+    private final Copier<Object> registeredCopier;
+
+    /**
+     * Fields, accessors and instantiator of the class. Left out for classes with a generated, registered or detected
+     * copier until a traversal or copier needs them, so that copies of such classes do not reflect on them up front,
+     * and JDK classes whose fields cannot be read can have copiers of their own.
+     */
+    private volatile Layout layout;
+
+    ClassCopyPlan(Class<?> clazz, CopyPolicy policy) {
+        this.clazz = clazz;
+        this.policy = policy;
+        try {
+            this.skipped = policy.skipsType(clazz);
+            this.shared = !skipped && policy.sharesType(clazz);
+            this.generatedCopier = !policy.hasRules() && !skipped && !shared ? generatedCopier(clazz) : null;
+            Copier<Object> registered = !skipped && !shared ? policy.copiers().copierOf(clazz) : null;
+            boolean open = clazz.getModule().isOpen(clazz.getPackageName(), ClassCopyPlan.class.getModule());
+            this.opaque = ImmutableTypes.isImmutable(clazz) && (ImmutableTypes.isValueType(clazz) || !open);
+            if (skipped || shared || opaque || clazz.isArray() || Collection.class.isAssignableFrom(clazz)
+                    || Map.class.isAssignableFrom(clazz)) {
+                this.record = false;
+                this.layout = Layout.EMPTY;
+                this.registeredCopier = registered;
+                return;
+            }
+            this.record = clazz.isRecord();
+            if (registered != null) {
+                this.registeredCopier = registered;
+                return;
+            }
+            MethodHandle selfCopier = policy.copiers().selfCopierOf(clazz);
+            if (selfCopier != null) {
+                // Fields of classes in modules not open to this library cannot be completed, their copies are kept
+                this.registeredCopier = new SelfCopier(selfCopier, open ? this : null);
+                return;
+            }
+            this.registeredCopier = null;
+            if (generatedCopier == null) {
+                this.layout = new Layout(clazz, policy);
+            }
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new DeepCopyException("Cannot build a copy plan for " + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the cached plan of the given class under the {@link CopyPolicy#DEFAULT} policy, building it on first use.
+     *
+     * @param clazz The class to get the plan for.
+     * @return The copy plan of the class.
+     */
+    static ClassCopyPlan of(Class<?> clazz) {
+        return CopyPolicy.DEFAULT.planOf(clazz);
+    }
+
+    /**
+     * Checks if instances of the class are shared by the copy instead of being copied.
+     *
+     * @return {@code true} for classes shared by the policy.
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Checks if references to instances of the class are replaced by {@code null} in the copy.
+     *
+     * @return {@code true} for classes skipped by the policy.
+     */
+    boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Checks if instances of the immutable class are values whose fields are not read, as for Strings,
+     * boxed primitives and other JDK value types, which are compared with {@code equals} instead.
+     *
+     * @return {@code true} for JDK value types, enums and immutable classes of modules not open to this library.
+     */
+    boolean isOpaque() {
+        return opaque;
+    }
+
+    /**
+     * Returns the copier generated at compile time for the class.
+     *
+     * @return The generated copier, {@code null} if there is none.
+     */
+    Copier<Object> generatedCopier() {
+        return generatedCopier;
+    }
+
+    /**
+     * Returns the copier registered for the class, or created for its detected copy constructor or {@code clone()}.
+     *
+     * @return The registered copier, {@code null} if there is none.
+     */
+    Copier<Object> registeredCopier() {
+        return registeredCopier;
+    }
+
+    /**
+     * Checks if the planned class is a record, which is created from its copied components.
+     *
+     * @return {@code true} for records.
+     */
+    boolean isRecord() {
+        return record;
+    }
+
+    /**
+     * Reads the component values of a record, with skipped components replaced by {@code null} or zero.
+     *
+     * @param record The record to read the components of.
+     * @return The component values in declaration order, primitives boxed.
+     * @throws Throwable If a component cannot be read.
+     */
+    Object[] components(Object record) throws Throwable {
+        MethodHandle[] componentGetters = layout().componentGetters;
+        Object[] components = new Object[componentGetters.length];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = (Object) componentGetters[i].invokeExact(record);
+        }
+        return components;
+    }
+
+    /**
+     * Checks if the value of a record component is deep copied, or passed to the copy as it is.
+     *
+     * @param index The index of the component.
+     * @return {@code true} for copied components, {@code false} for primitive, shared and skipped ones.
+     */
+    boolean isCopiedComponent(int index) {
+        return layout().copiedComponents[index];
+    }
+
+    /**
+     * Creates a record from the given component values.
+     *
+     * @param components The component values in declaration order.
+     * @return The new record.
+     * @throws ReflectiveOperationException If the canonical constructor fails.
+     */
+    Object newRecord(Object[] components) throws ReflectiveOperationException {
+        return layout().instantiator.newRecord(components);
+    }
+
+    /**
+     * Creates a new, not yet populated instance of the planned class.
+     *
+     * @return The new instance.
+     * @throws ReflectiveOperationException If the constructor invocation fails.
+     */
+    Object newInstance() throws ReflectiveOperationException {
+        return layout().instantiator.newInstance();
+    }
+
+    /**
+     * Copies all fields of the original into the copy, passing referenced objects through the given copier.
+     *
+     * @param original        The object to read the fields from.
+     * @param copy            The object to write the fields to.
+     * @param referenceCopier The function used to copy referenced objects.
+     * @throws Throwable If a field cannot be read or written.
+     */
+    void copyFields(Object original, Object copy, UnaryOperator<Object> referenceCopier) throws Throwable {
+        layout().fieldsCopier.copyFields(original, copy, referenceCopier);
+    }
+
+    /**
+     * Copies all primitive and shared fields of the original into the copy as they are.
+     *
+     * @param original The object to read the fields from.
+     * @param copy     The object to write the fields to.
+     * @throws Throwable If a field cannot be read or written.
+     */
+    void copyValues(Object original, Object copy) throws Throwable {
+        layout().fieldsCopier.copyValues(original, copy);
+    }
+
+    /**
+     * Returns the number of primitive and shared fields, which are accessed by index.
+     *
+     * @return The number of value fields.
+     */
+    int valueCount() {
+        return layout().valueTypes.length;
+    }
+
+    /**
+     * Reads a primitive or shared field, boxing primitive values.
+     *
+     * @param object The object to read the field of.
+     * @param index  The index of the value field.
+     * @return The value of the field.
+     * @throws Throwable If the field cannot be read.
+     */
+    Object getValue(Object object, int index) throws Throwable {
+        return layout().fieldsCopier.getValue(object, index);
+    }
+
+    /**
+     * Returns the declared type of a primitive or shared field.
+     *
+     * @param index The index of the value field.
+     * @return The type of the field.
+     */
+    Class<?> valueType(int index) {
+        return layout().valueTypes[index];
+    }
+
+    /**
+     * Returns the number of copied reference fields, which are accessed by index,
+     * or of copied components for records.
+     *
+     * @return The number of reference fields.
+     */
+    int referenceCount() {
+        return layout().referenceTypes.length;
+    }
+
+    /**
+     * Reads a reference field.
+     *
+     * @param object The object to read the field of.
+     * @param index  The index of the reference field.
+     * @return The value of the field.
+     * @throws Throwable If the field cannot be read.
+     */
+    Object getReference(Object object, int index) throws Throwable {
+        return layout().fieldsCopier.getReference(object, index);
+    }
+
+    /**
+     * Writes a reference field.
+     *
+     * @param object The object to write the field of.
+     * @param index  The index of the reference field.
+     * @param value  The new value of the field.
+     * @throws Throwable If the field cannot be written.
+     */
+    void setReference(Object object, int index, Object value) throws Throwable {
+        layout().fieldsCopier.setReference(object, index, value);
+    }
+
+    /**
+     * Returns the declared type of a reference field, or of a copied component for records.
+     *
+     * @param index The index of the reference field.
+     * @return The type of the field.
+     */
+    Class<?> referenceType(int index) {
+        return layout().referenceTypes[index];
+    }
+
+    /**
+     * Returns all instance fields of the class and its superclasses, already made accessible,
+     * including shared and skipped ones.
+     *
+     * @return The instance fields.
+     */
+    Field[] fields() {
+        return layout().fields;
+    }
+
+    /**
+     * Resets the fields skipped by the policy to {@code null}, or zero for primitive ones.
+     *
+     * @param object The object to reset the fields of.
+     * @throws IllegalAccessException If a field cannot be written.
+     */
+    void clearSkippedFields(Object object) throws IllegalAccessException {
+        Layout layout = layout();
+        for (int i = 0; i < layout.skippedFields.length; i++) {
+            layout.skippedFields[i].set(object, layout.skippedValues[i]);
+        }
+    }
+
+    /**
+     * Returns the fields, accessors and instantiator of the class, building them on first use
+     * for classes with a generated copier.
+     */
+    private Layout layout() {
+        Layout current = layout;
+        if (current == null) {
+            // Threads racing here build equivalent layouts, whichever is kept last is used from then on
+            try {
+                current = new Layout(clazz, policy);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new DeepCopyException("Cannot build a copy plan for " + clazz.getName(), e);
+            }
+            layout = current;
+        }
+        return current;
+    }
+
+    /**
+     * Finds the copier generated for a class annotated with {@link DeepCopyable}, by the naming convention
+     * of the annotation processor. Annotated classes compiled without the processor are copied reflectively.
+     */
+    @SuppressWarnings("unchecked")
+    private static Copier<Object> generatedCopier(Class<?> clazz) {
+        if (!clazz.isAnnotationPresent(DeepCopyable.class)) {
+            return null;
+        }
+        String packageName = clazz.getPackageName();
+        String nestedName = clazz.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1);
+        String copierName = (packageName.isEmpty() ? "" : packageName + ".") + nestedName.replace('$', '_') + "Copier";
+        try {
+            Class<?> copierClass = Class.forName(copierName, true, clazz.getClassLoader());
+            return (Copier<Object>) copierClass.getConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new DeepCopyException("Cannot create the generated copier " + copierName, e);
+        }
+    }
+
+    /**
+     * Returns the fields of the record components in declaration order, already made accessible.
+     */
+    private static Field[] componentFields(Class<?> clazz) {
+        RecordComponent[] components = clazz.getRecordComponents();
+        Field[] fields = new Field[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                fields[i] = clazz.getDeclaredField(components[i].getName());
+                fields[i].setAccessible(true);
+            }
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+        return fields;
+    }
+
+    /**
+     * Generates a specialised copier and falls back to the reflective one for classes it cannot handle.
+     */
+    private static FieldsCopier createFieldsCopier(Field[] valueFields, Field[] referenceFields) {
+        try {
+            return MethodHandleFieldsCopier.generate(valueFields, referenceFields);
+        } catch (IllegalAccessException | RuntimeException e) {
+            return new ReflectiveFieldsCopier(valueFields, referenceFields);
+        }
+    }
+
+    /**
+     * Collects non-static fields of the class hierarchy, from the class itself up to {@link Object},
+     * and makes them accessible.
+     *
+     * @param clazz The class to collect the fields of.
+     * @return The instance fields.
+     */
+    static Field[] instanceFields(Class<?> clazz) {
+        List<Field> result = new ArrayList<>();
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                result.add(field);
+            }
+        }
+        return result.toArray(new Field[0]);
+    }
+
+    /**
+     * The reflective part of a plan: the instance fields of a class split by the rules of the policy, the generated
+     * accessors of the copied ones and the instantiator, or the component getters of a record.
+     */
+    private static final class Layout {
+
+        /**
+         * Layout of classes whose fields are never read.
+         */
+        static final Layout EMPTY = new Layout();
+
+        final Instantiator instantiator;
+        final Field[] fields;
+        final Class<?>[] valueTypes;
+        final Class<?>[] referenceTypes;
+        final FieldsCopier fieldsCopier;
+
+        /**
+         * Fields skipped by the policy, left out of the value and reference fields.
+         */
+        final Field[] skippedFields;
+
+        /**
+         * Values of the skipped fields in copies, {@code null} or the zero of primitive types.
+         */
+        final Object[] skippedValues;
+
+        /**
+         * Getters of the record components, returning boxed values, {@code null} for other classes.
+         * Getters of skipped components return {@code null}, or zero for primitive ones.
+         */
+        final MethodHandle[] componentGetters;
+
+        /**
+         * Per record component whether its value is deep copied, instead of being passed as it is.
+         */
+        final boolean[] copiedComponents;
+
+        private Layout() {
+            this.instantiator = null;
+            this.fields = NO_FIELDS;
+            this.valueTypes = new Class<?>[0];
+            this.referenceTypes = new Class<?>[0];
+            this.fieldsCopier = null;
+            this.skippedFields = NO_FIELDS;
+            this.skippedValues = new Object[0];
+            this.componentGetters = null;
+            this.copiedComponents = null;
+        }
+
+        Layout(Class<?> clazz, CopyPolicy policy) throws IllegalAccessException {
+            this.instantiator = Instantiator.of(clazz);
+            if (clazz.isRecord()) {
+                this.fields = componentFields(clazz);
+                this.fieldsCopier = null;
+                this.valueTypes = new Class<?>[0];
+                this.skippedFields = NO_FIELDS;
+                this.skippedValues = new Object[0];
+                this.componentGetters = new MethodHandle[fields.length];
+                this.copiedComponents = new boolean[fields.length];
+                List<Class<?>> copiedTypes = new ArrayList<>();
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                for (int i = 0; i < fields.length; i++) {
+                    Class<?> type = fields[i].getType();
+                    componentGetters[i] = lookup.unreflectGetter(fields[i]).asType(MethodType.methodType(Object.class, Object.class));
+                    if (policy.skipsField(fields[i])) {
+                        // Primitive components cannot be null, they get the default value of their type
+                        Object value = type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+                        componentGetters[i] = MethodHandles.dropArguments(
+                                MethodHandles.constant(Object.class, value), 0, Object.class);
+                    } else if (!type.isPrimitive() && !policy.sharesField(fields[i])) {
+                        copiedComponents[i] = true;
+                        copiedTypes.add(type);
+                    }
+                }
+                this.referenceTypes = copiedTypes.toArray(new Class<?>[0]);
+                return;
+            }
+            this.componentGetters = null;
+            this.copiedComponents = null;
+            this.fields = instanceFields(clazz);
+
+            // Primitive and shared fields are copied as they are, skipped fields are left out
+            List<Field> valueFields = new ArrayList<>();
+            List<Field> referenceFields = new ArrayList<>();
+            List<Field> skipped = new ArrayList<>();
+            for (Field field : fields) {
+                if (policy.skipsField(field)) {
+                    skipped.add(field);
+                    continue;
+                }
+                if (field.getType().isPrimitive() || policy.sharesField(field)) {
+                    valueFields.add(field);
+                } else {
+                    referenceFields.add(field);
+                }
+            }
+            this.valueTypes = valueFields.stream().map(Field::getType).toArray(Class<?>[]::new);
+            this.referenceTypes = referenceFields.stream().map(Field::getType).toArray(Class<?>[]::new);
+            this.skippedFields = skipped.toArray(NO_FIELDS);
+            this.skippedValues = new Object[skippedFields.length];
+            for (int i = 0; i < skippedFields.length; i++) {
+                Class<?> type = skippedFields[i].getType();
+                skippedValues[i] = type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+            }
+            this.fieldsCopier = createFieldsCopier(valueFields.toArray(NO_FIELDS), referenceFields.toArray(NO_FIELDS));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Identity table shared by the threads of a parallel deep copy.
+ * Entries are spread over lock-striped {@link IdentityTable}s by identity hash code,
+ * so threads copying different parts of the graph rarely contend on the same stripe.
+ */
+final class ConcurrentIdentityTable {
+
+    private final IdentityTable[] stripes;
+    private final int mask;
+
+    /**
+     * @param parallelism The number of threads expected to use the table.
+     */
+    ConcurrentIdentityTable(int parallelism) {
+        int count = Integer.highestOneBit(Math.max(parallelism, 1) * 4 - 1) << 1;
+        this.stripes = new IdentityTable[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new IdentityTable();
+        }
+    }
+
+    /**
+     * Returns the copy registered for the original, or {@code null} if there is none.
+     *
+     * @param original The original object.
+     * @return The registered copy or {@code null}.
+     */
+    Object get(Object original) {
+        IdentityTable stripe = stripeOf(original);
+        synchronized (stripe) {
+            return stripe.get(original);
+        }
+    }
+
+    /**
+     * Registers the copy of the original unless another thread registered a copy first.
+     *
+     * @param original The original object.
+     * @param copy     The copy of the original.
+     * @return The copy registered first, or {@code null} if the given copy was registered.
+     */
+    Object putIfAbsent(Object original, Object copy) {
+        IdentityTable stripe = stripeOf(original);
+        synchronized (stripe) {
+            return stripe.putIfAbsent(original, copy);
+        }
+    }
+
+    /**
+     * Replaces the registered value of the original if it is still the expected one.
+     *
+     * @param original The original object.
+     * @param expected The value expected to be registered, such as the marker of a copy in construction.
+     * @param copy     The copy of the original.
+     * @return The value registered after the call, the given copy if it replaced the expected value.
+     */
+    Object replace(Object original, Object expected, Object copy) {
+        IdentityTable stripe = stripeOf(original);
+        synchronized (stripe) {
+            Object registered = stripe.get(original);
+            if (registered != expected) {
+                return registered;
+            }
+            stripe.put(original, copy);
+            return copy;
+        }
+    }
+
+    private IdentityTable stripeOf(Object original) {
+        // Low bits pick the stripe, the stripe itself indexes by the high bits of the hash
+        return stripes[System.identityHashCode(original) & mask];
+    }
+}
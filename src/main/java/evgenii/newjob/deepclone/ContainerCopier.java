@@ -0,0 +1,737 @@
+package evgenii.newjob.deepclone;
+
+import java.lang.reflect.Constructor;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Type-preserving copier of a Collection or Map class, resolved once and cached per class.
+ * Copies of the common JDK implementations keep their concrete type, comparator and order,
+ * and are presized, so that filling them never grows or rehashes the storage.
+ * Sorted collections are built in linear time from the already sorted contents,
+ * and immutable {@code List.of}, {@code Set.of} and {@code Map.of} collections are built
+ * from their copied contents, unless a cycle runs through them. Other JDK implementations, such as unmodifiable views,
+ * are copied to the closest general purpose implementation.
+ * Contents of a Collection are its elements, contents of a Map are its keys and values alternately.
+ * Copies of containers rejecting nulls leave out elements, and entries, whose copy is {@code null}
+ * because the policy skips their type.
+ */
+final class ContainerCopier {
+
+    private static final Class<?> ARRAYS_AS_LIST = Arrays.asList().getClass();
+
+    // Some of the sizes share an implementation class
+    private static final Set<Class<?>> IMMUTABLE_LISTS = Set.copyOf(Arrays.asList(
+            List.of().getClass(), List.of(1).getClass(), List.of(1, 2, 3).getClass()));
+    private static final Set<Class<?>> IMMUTABLE_SETS = Set.copyOf(Arrays.asList(
+            Set.of().getClass(), Set.of(1).getClass(), Set.of(1, 2, 3).getClass()));
+    private static final Set<Class<?>> IMMUTABLE_MAPS = Set.copyOf(Arrays.asList(
+            Map.of().getClass(), Map.of(1, 1).getClass(), Map.of(1, 1, 2, 2).getClass()));
+
+    private static final ClassValue<ContainerCopier> COPIERS = new ClassValue<>() {
+        @Override
+        protected ContainerCopier computeValue(Class<?> type) {
+            return Map.class.isAssignableFrom(type) ? forMap(type) : forCollection(type);
+        }
+    };
+
+    /**
+     * Creates the empty, presized copy, {@code null} for containers built from their contents
+     * and for containers copied from the original.
+     */
+    private final Allocator allocator;
+
+    /**
+     * Creates the copy from the original itself, for {@link EnumSet} and {@link EnumMap} keeping the enum type of the original,
+     * {@code null} for all other containers.
+     */
+    private final Function<Object, Object> cloner;
+
+    /**
+     * Adds the copied contents to the empty copy.
+     */
+    private final BiConsumer<Object, Object[]> populator;
+
+    /**
+     * Creates the complete copy from the copied contents, {@code null} for containers allocated empty.
+     */
+    private final Function<Object[], Object> builder;
+
+    /**
+     * Whether the allocated copy is already complete, since the contents are never copied.
+     */
+    private final boolean flat;
+
+    private ContainerCopier(Allocator allocator, BiConsumer<Object, Object[]> populator,
+                            Function<Object[], Object> builder, boolean flat) {
+        this(allocator, null, populator, builder, flat);
+    }
+
+    private ContainerCopier(Allocator allocator, Function<Object, Object> cloner, BiConsumer<Object, Object[]> populator,
+                            Function<Object[], Object> builder, boolean flat) {
+        this.allocator = allocator;
+        this.cloner = cloner;
+        this.populator = populator;
+        this.builder = builder;
+        this.flat = flat;
+    }
+
+    /**
+     * Returns the cached copier of the given Collection or Map class.
+     *
+     * @param type The class of the Collection or Map.
+     * @return The copier of the class.
+     */
+    static ContainerCopier of(Class<?> type) {
+        return COPIERS.get(type);
+    }
+
+    /**
+     * Checks if the allocated copy is complete and its contents need not be copied.
+     *
+     * @return {@code true} for containers of immutable contents, such as {@link EnumSet}.
+     */
+    boolean isFlat() {
+        return flat;
+    }
+
+    /**
+     * Checks if the copy can only be created from already copied contents.
+     *
+     * @return {@code true} for immutable collections.
+     */
+    boolean isBuiltFromContents() {
+        return builder != null;
+    }
+
+    /**
+     * Creates the empty copy of the original, presized for its contents.
+     *
+     * @param original The Collection or Map to be copied.
+     * @return The empty copy.
+     */
+    Object allocate(Object original) {
+        if (cloner != null) {
+            return cloner.apply(original);
+        }
+        return allocator.allocate(size(original), comparatorOf(original));
+    }
+
+    /**
+     * Checks if the empty copy can be created from the size and comparator alone, without the original.
+     *
+     * @return {@code false} for containers built from their contents and for {@link EnumSet} and {@link EnumMap},
+     * whose enum type is only known to the original.
+     */
+    boolean isAllocatedFromShape() {
+        return allocator != null;
+    }
+
+    /**
+     * Creates an empty copy presized for the given number of elements or entries.
+     *
+     * @param size       The number of elements or entries of the original.
+     * @param comparator The comparator of the sorted original, {@code null} for natural ordering or unsorted originals.
+     * @return The empty copy.
+     * @see #isAllocatedFromShape()
+     */
+    Object allocate(int size, Comparator<Object> comparator) {
+        return allocator.allocate(size, comparator);
+    }
+
+    /**
+     * Returns the comparator of a sorted Collection or Map.
+     *
+     * @param original The Collection or Map.
+     * @return The comparator, {@code null} for natural ordering or unsorted originals.
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<Object> comparatorOf(Object original) {
+        if (original instanceof SortedSet<?> set) {
+            return (Comparator<Object>) set.comparator();
+        }
+        if (original instanceof SortedMap<?, ?> map) {
+            return (Comparator<Object>) map.comparator();
+        }
+        if (original instanceof PriorityQueue<?> queue) {
+            return (Comparator<Object>) queue.comparator();
+        }
+        return null;
+    }
+
+    /**
+     * Adds the copied contents to the allocated copy.
+     *
+     * @param copy     The allocated copy.
+     * @param contents The copied contents.
+     */
+    void populate(Object copy, Object[] contents) {
+        populator.accept(copy, contents);
+    }
+
+    /**
+     * Creates the copy of an immutable container from its copied contents.
+     *
+     * @param contents The copied contents.
+     * @return The copy.
+     */
+    Object build(Object[] contents) {
+        return builder.apply(contents);
+    }
+
+    /**
+     * Returns the copier of the mutable implementation standing in for the copy of an immutable collection
+     * reached again through a cycle, which cannot be built before its contents are copied.
+     *
+     * @param type The class of the immutable collection.
+     * @return The copier of {@link ArrayList}, {@link LinkedHashSet} or {@link LinkedHashMap}.
+     */
+    static ContainerCopier mutableCounterpartOf(Class<?> type) {
+        if (Map.class.isAssignableFrom(type)) {
+            return of(LinkedHashMap.class);
+        }
+        return of(Set.class.isAssignableFrom(type) ? LinkedHashSet.class : ArrayList.class);
+    }
+
+    /**
+     * Checks if adding contents reads their state through {@code hashCode}, {@code equals} or a comparator,
+     * as hash based and sorted containers do.
+     *
+     * @param type The class of the Collection or Map.
+     * @return {@code false} for Lists, Deques and plain Queues, and for identity and enum keyed containers.
+     */
+    static boolean readsContents(Class<?> type) {
+        return (Set.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type) || PriorityQueue.class.isAssignableFrom(type))
+                && type != IdentityHashMap.class && type != EnumMap.class && !EnumSet.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Checks if every element of a populated Set, or every key of a populated Map, is still found.
+     * An element whose hash code or order changed after it was added is not.
+     *
+     * @param container The populated container.
+     * @param contents  The contents it was populated with.
+     * @return {@code false} if the container has to be populated again, always {@code true} for other containers.
+     */
+    static boolean holdsAll(Object container, Object[] contents) {
+        // Null contents were left out of containers rejecting them
+        if (container instanceof Set<?> set) {
+            for (Object element : contents) {
+                if (element != null && !set.contains(element)) {
+                    return false;
+                }
+            }
+        }
+        if (container instanceof Map<?, ?> map) {
+            for (int i = 0; i < contents.length; i += 2) {
+                if (contents[i] != null && !map.containsKey(contents[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all contents of the Collection or Map.
+     *
+     * @param container The Collection or Map.
+     */
+    static void clear(Object container) {
+        if (container instanceof Collection<?> collection) {
+            collection.clear();
+        } else {
+            ((Map<?, ?>) container).clear();
+        }
+    }
+
+    /**
+     * Returns the contents of the Collection or Map.
+     *
+     * @param original The Collection or Map.
+     * @return The elements of a Collection, or the keys and values of a Map alternately.
+     */
+    static Object[] contentsOf(Object original) {
+        if (original instanceof Collection<?> collection) {
+            return collection.toArray();
+        }
+        Map<?, ?> map = (Map<?, ?>) original;
+        Object[] keysAndValues = new Object[map.size() * 2];
+        int index = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            keysAndValues[index++] = entry.getKey();
+            keysAndValues[index++] = entry.getValue();
+        }
+        return keysAndValues;
+    }
+
+    private static ContainerCopier forCollection(Class<?> type) {
+        if (type == ArrayList.class) {
+            return allocated((size, comparator) -> new ArrayList<>(size));
+        }
+        if (type == LinkedList.class) {
+            return allocated((size, comparator) -> new LinkedList<>());
+        }
+        if (type == ArrayDeque.class) {
+            return withoutNulls((size, comparator) -> new ArrayDeque<>(size));
+        }
+        if (type == HashSet.class) {
+            return allocated((size, comparator) -> new HashSet<>(hashCapacity(size)));
+        }
+        if (type == LinkedHashSet.class) {
+            return allocated((size, comparator) -> new LinkedHashSet<>(hashCapacity(size)));
+        }
+        if (type == TreeSet.class) {
+            return new ContainerCopier((size, comparator) -> new TreeSet<>(comparator),
+                    ContainerCopier::addAllSorted, null, false);
+        }
+        if (type == ConcurrentSkipListSet.class) {
+            return new ContainerCopier((size, comparator) -> new ConcurrentSkipListSet<>(comparator),
+                    ContainerCopier::addAllSorted, null, false);
+        }
+        if (type == PriorityQueue.class) {
+            return withoutNulls((size, comparator) -> new PriorityQueue<>(Math.max(1, size),
+                    comparator));
+        }
+        if (type == CopyOnWriteArrayList.class) {
+            return allocated((size, comparator) -> new CopyOnWriteArrayList<>());
+        }
+        if (type == CopyOnWriteArraySet.class) {
+            return allocated((size, comparator) -> new CopyOnWriteArraySet<>());
+        }
+        if (type == ConcurrentLinkedQueue.class) {
+            return withoutNulls((size, comparator) -> new ConcurrentLinkedQueue<>());
+        }
+        if (type == ConcurrentLinkedDeque.class) {
+            return withoutNulls((size, comparator) -> new ConcurrentLinkedDeque<>());
+        }
+        if (EnumSet.class.isAssignableFrom(type)) {
+            // Enum constants are shared, so a clone is a complete deep copy
+            return new ContainerCopier(null, original -> ((EnumSet<?>) original).clone(), null, null, true);
+        }
+        if (type == ARRAYS_AS_LIST) {
+            return new ContainerCopier((size, comparator) -> Arrays.asList(new Object[size]),
+                    ContainerCopier::setAll, null, false);
+        }
+        if (IMMUTABLE_LISTS.contains(type)) {
+            return new ContainerCopier(null, null, ContainerCopier::immutableList, false);
+        }
+        if (IMMUTABLE_SETS.contains(type)) {
+            return new ContainerCopier(null, null, contents -> Set.of(withoutNullElements(contents)), false);
+        }
+        Allocator constructor = noArgConstructor(type);
+        if (constructor != null) {
+            return allocated(constructor);
+        }
+        // Closest general purpose implementation for views, wrappers and other JDK internals
+        if (SortedSet.class.isAssignableFrom(type)) {
+            return new ContainerCopier((size, comparator) -> new TreeSet<>(comparator),
+                    ContainerCopier::addAllSorted, null, false);
+        }
+        if (Set.class.isAssignableFrom(type)) {
+            return allocated((size, comparator) -> new LinkedHashSet<>(hashCapacity(size)));
+        }
+        if (Queue.class.isAssignableFrom(type)) {
+            return allocated((size, comparator) -> new LinkedList<>());
+        }
+        return allocated((size, comparator) -> new ArrayList<>(size));
+    }
+
+    private static ContainerCopier forMap(Class<?> type) {
+        if (type == HashMap.class) {
+            return allocated((size, comparator) -> new HashMap<>(hashCapacity(size)));
+        }
+        if (type == LinkedHashMap.class) {
+            return allocated((size, comparator) -> new LinkedHashMap<>(hashCapacity(size)));
+        }
+        if (type == TreeMap.class) {
+            return new ContainerCopier((size, comparator) -> new TreeMap<>(comparator),
+                    ContainerCopier::putAllSorted, null, false);
+        }
+        if (type == ConcurrentHashMap.class) {
+            return withoutNulls((size, comparator) -> new ConcurrentHashMap<>(size));
+        }
+        if (type == ConcurrentSkipListMap.class) {
+            return withoutNulls((size, comparator) -> new ConcurrentSkipListMap<>(comparator));
+        }
+        if (type == IdentityHashMap.class) {
+            return allocated((size, comparator) -> new IdentityHashMap<>(size));
+        }
+        if (type == WeakHashMap.class) {
+            return allocated((size, comparator) -> new WeakHashMap<>(hashCapacity(size)));
+        }
+        if (type == Hashtable.class) {
+            return withoutNulls((size, comparator) -> new Hashtable<>(hashCapacity(size)));
+        }
+        if (type == EnumMap.class) {
+            // Starts with the original keys and values, the values are replaced by their copies
+            return new ContainerCopier(null, ContainerCopier::copyEnumMap,
+                    ContainerCopier::addAllOrPutAll, null, false);
+        }
+        if (IMMUTABLE_MAPS.contains(type)) {
+            return new ContainerCopier(null, null, ContainerCopier::immutableMap, false);
+        }
+        Allocator constructor = noArgConstructor(type);
+        if (constructor != null) {
+            return allocated(constructor);
+        }
+        if (SortedMap.class.isAssignableFrom(type)) {
+            return new ContainerCopier((size, comparator) -> new TreeMap<>(comparator),
+                    ContainerCopier::putAllSorted, null, false);
+        }
+        return allocated((size, comparator) -> new LinkedHashMap<>(hashCapacity(size)));
+    }
+
+    /**
+     * Copier of a container allocated empty and populated through the Collection or Map interface.
+     */
+    private static ContainerCopier allocated(Allocator allocator) {
+        return new ContainerCopier(allocator, ContainerCopier::addAllOrPutAll, null, false);
+    }
+
+    /**
+     * Copier of a container rejecting null elements, or null keys and values, allocated empty and populated
+     * through the Collection or Map interface.
+     */
+    private static ContainerCopier withoutNulls(Allocator allocator) {
+        return new ContainerCopier(allocator, (copy, contents) -> addAllOrPutAll(copy,
+                copy instanceof Map ? withoutNullEntries(contents, false) : withoutNullElements(contents)), null, false);
+    }
+
+    /**
+     * Returns the allocator through the no-argument constructor of a class outside the JDK,
+     * or {@code null} if there is none.
+     */
+    private static Allocator noArgConstructor(Class<?> type) {
+        if (type.getName().startsWith("java.")) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            if (!constructor.trySetAccessible()) {
+                return null;
+            }
+            return (size, comparator) -> {
+                try {
+                    return constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot create a copy of the container of type " + type, e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int size(Object original) {
+        return original instanceof Collection<?> collection ? collection.size() : ((Map<?, ?>) original).size();
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Object copyEnumMap(Object original) {
+        return new EnumMap<>((EnumMap) original);
+    }
+
+    /**
+     * Capacity of a hash based container holding the given number of entries without rehashing.
+     */
+    private static int hashCapacity(int size) {
+        return Math.max((int) (size / 0.75f) + 1, 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAllOrPutAll(Object copy, Object[] contents) {
+        if (copy instanceof Collection) {
+            ((Collection<Object>) copy).addAll(Arrays.asList(contents));
+        } else {
+            Map<Object, Object> map = (Map<Object, Object>) copy;
+            for (int i = 0; i < contents.length; i += 2) {
+                map.put(contents[i], contents[i + 1]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setAll(Object copy, Object[] contents) {
+        List<Object> list = (List<Object>) copy;
+        for (int i = 0; i < contents.length; i++) {
+            list.set(i, contents[i]);
+        }
+    }
+
+    /**
+     * Adds elements in sorted order, which lets an empty {@link TreeSet} build its tree in linear time.
+     */
+    @SuppressWarnings("unchecked")
+    private static void addAllSorted(Object copy, Object[] contents) {
+        SortedSet<Object> set = (SortedSet<Object>) copy;
+        if (set.comparator() == null || set instanceof ConcurrentSkipListSet) {
+            contents = withoutNullElements(contents);
+        }
+        set.addAll(new SortedContents(set.comparator(), contents, false).keySet());
+    }
+
+    /**
+     * Puts entries in sorted order, which lets an empty {@link TreeMap} build its tree in linear time.
+     */
+    @SuppressWarnings("unchecked")
+    private static void putAllSorted(Object copy, Object[] contents) {
+        SortedMap<Object, Object> map = (SortedMap<Object, Object>) copy;
+        if (map.comparator() == null) {
+            contents = withoutNullEntries(contents, true);
+        }
+        map.putAll(new SortedContents(map.comparator(), contents, true));
+    }
+
+    /**
+     * {@code List.of} rejects nulls, lists collected by {@code Stream.toList()} may contain them.
+     */
+    private static Object immutableList(Object[] contents) {
+        for (Object element : contents) {
+            if (element == null) {
+                return Arrays.stream(contents).toList();
+            }
+        }
+        return List.of(contents);
+    }
+
+    private static Object immutableMap(Object[] contents) {
+        contents = withoutNullEntries(contents, false);
+        Map.Entry<?, ?>[] entries = new Map.Entry<?, ?>[contents.length / 2];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = Map.entry(contents[2 * i], contents[2 * i + 1]);
+        }
+        return Map.ofEntries(entries);
+    }
+
+    /**
+     * Leaves out null elements, which containers rejecting nulls cannot hold. Their originals cannot hold them either,
+     * so copied elements are only null where the policy skips their type or a copier returned {@code null}.
+     *
+     * @param contents The copied elements.
+     * @return The elements without nulls, the given array if it has none.
+     */
+    private static Object[] withoutNullElements(Object[] contents) {
+        int kept = 0;
+        for (Object element : contents) {
+            if (element != null) {
+                kept++;
+            }
+        }
+        if (kept == contents.length) {
+            return contents;
+        }
+        Object[] result = new Object[kept];
+        int index = 0;
+        for (Object element : contents) {
+            if (element != null) {
+                result[index++] = element;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Leaves out entries whose copied key, or value, is null, which Maps rejecting nulls cannot hold.
+     *
+     * @param contents   The copied keys and values alternately.
+     * @param nullValues Whether the Map holds null values, so only entries with a null key are left out.
+     * @return The keys and values without those entries, the given array if there are none.
+     */
+    private static Object[] withoutNullEntries(Object[] contents, boolean nullValues) {
+        int kept = 0;
+        for (int i = 0; i < contents.length; i += 2) {
+            if (contents[i] != null && (nullValues || contents[i + 1] != null)) {
+                kept += 2;
+            }
+        }
+        if (kept == contents.length) {
+            return contents;
+        }
+        Object[] result = new Object[kept];
+        int index = 0;
+        for (int i = 0; i < contents.length; i += 2) {
+            if (contents[i] != null && (nullValues || contents[i + 1] != null)) {
+                result[index++] = contents[i];
+                result[index++] = contents[i + 1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the empty copy of a container from the size and comparator of the original.
+     */
+    @FunctionalInterface
+    private interface Allocator {
+        Object allocate(int size, Comparator<Object> comparator);
+    }
+
+    /**
+     * Read-only sorted view of contents that are already in the order of the comparator.
+     * Supports only what {@link TreeMap#putAll} and {@link TreeSet#addAll} need to take
+     * their linear time path: the size, the comparator and iteration.
+     */
+    private static final class SortedContents extends AbstractMap<Object, Object> implements SortedMap<Object, Object> {
+
+        private final Comparator<Object> comparator;
+        private final Object[] contents;
+        private final boolean entries;
+
+        SortedContents(Comparator<Object> comparator, Object[] contents, boolean entries) {
+            this.comparator = comparator;
+            this.contents = contents;
+            this.entries = entries;
+        }
+
+        @Override
+        public Comparator<Object> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public int size() {
+            return entries ? contents.length / 2 : contents.length;
+        }
+
+        @Override
+        public SortedKeys keySet() {
+            return new SortedKeys();
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < contents.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Object, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<Object, Object> entry = new SimpleImmutableEntry<>(contents[index], contents[index + 1]);
+                            index += 2;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SortedContents.this.size();
+                }
+            };
+        }
+
+        @Override
+        public SortedMap<Object, Object> subMap(Object fromKey, Object toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<Object, Object> headMap(Object toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<Object, Object> tailMap(Object fromKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object firstKey() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object lastKey() {
+            throw new UnsupportedOperationException();
+        }
+
+        private final class SortedKeys extends AbstractSet<Object> implements SortedSet<Object> {
+
+            @Override
+            public Iterator<Object> iterator() {
+                return Arrays.asList(contents).iterator();
+            }
+
+            @Override
+            public int size() {
+                return contents.length;
+            }
+
+            @Override
+            public Comparator<Object> comparator() {
+                return comparator;
+            }
+
+            @Override
+            public SortedSet<Object> subSet(Object fromElement, Object toElement) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public SortedSet<Object> headSet(Object toElement) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public SortedSet<Object> tailSet(Object fromElement) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Object first() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Object last() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
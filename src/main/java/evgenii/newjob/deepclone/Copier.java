@@ -0,0 +1,52 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Copier of the instances of one class, called by deep copies instead of copying the fields reflectively.
+ * Copiers of classes annotated with {@link evgenii.newjob.deepclone.annotation.DeepCopyable} are generated
+ * at compile time, others are registered in a {@link CopierRegistry}. A copier creates the copy itself, and passes every referenced object it copies
+ * through the {@link Context} of the call, which resolves shared and cyclic references.
+ *
+ * @param <T> The type of the copied objects.
+ */
+@FunctionalInterface
+public interface Copier<T> {
+
+    /**
+     * Creates the deep copy of an object.
+     *
+     * @param original The object to be copied, never {@code null}.
+     * @param context  The context of the deep copy call.
+     * @return The copy of the object.
+     */
+    T copy(T original, Context context);
+
+    /**
+     * Deep copy call a copier takes part in.
+     */
+    interface Context {
+
+        /**
+         * Deep copies a referenced object in this call, or returns its already created copy.
+         * The copy is complete when it is returned, unless it is one of the objects being copied,
+         * as with a reference back to the copier's own object. In the {@link TraversalMode#ITERATIVE} traversal
+         * this makes copiers copy the objects they reference on the Java stack.
+         *
+         * @param original The referenced object, may be {@code null}.
+         * @param <V>      The type of the referenced object.
+         * @return The copy of the object.
+         */
+        <V> V copy(V original);
+
+        /**
+         * Registers the copy of an object, which must be done before the copier copies the objects
+         * it references, so that references back to the object resolve to the copy.
+         *
+         * @param original The original object.
+         * @param copy     The not yet populated copy.
+         * @param <V>      The type of the copy.
+         * @return The copy to populate and return, which in a parallel deep copy may be the one
+         * registered first by another thread, in which case the copier returns it as it is.
+         */
+        <V> V register(Object original, V copy);
+    }
+}
@@ -0,0 +1,232 @@
+package evgenii.newjob.deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copiers of classes which know how to copy themselves, used by deep copies instead of copying their fields.
+ * A {@link Copier} is registered for a single class or for a class and all its subclasses, the copier of the
+ * class itself taking precedence over the one of its closest superclass, then over those of its interfaces.
+ * Optionally, classes with a public copy constructor or a public {@code clone()} are detected and copied through
+ * it, in that order. The decision is made once per class and cached.
+ * <p>
+ * Registered copiers take part in the deep copy like generated ones, registering their copy and copying the objects
+ * they reference through the {@link Copier.Context}. Detected copy constructors and {@code clone()} methods only make
+ * the copy itself: every reference the copy still shares with the original is deep copied afterwards, objects
+ * created by the class itself are kept as they are, except that the contents of arrays, Collections and Maps
+ * it created are deep copied. Classes shared or skipped by the policy are never passed
+ * to a copier. Classes inferred to be immutable are passed to their copier instead of being shared,
+ * except for JDK value types such as Strings, boxed primitives and enums, which are always shared.
+ * Copiers may be registered for JDK classes whose fields cannot be read, such as {@code StringBuilder}, and copies
+ * those classes make through a detected copy constructor or {@code clone()} are kept as they are.
+ * A registry is immutable and attached to a {@link CopyPolicy}.
+ *
+ * @see CopyPolicy.Builder#copiers(CopierRegistry)
+ */
+public final class CopierRegistry {
+
+    /**
+     * Registry without copiers, used by policies that are not given one.
+     */
+    static final CopierRegistry EMPTY = builder().build();
+
+    private static final MethodType SELF_COPIER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Decision for classes copied field by field.
+     */
+    private static final Object NONE = new Object();
+
+    private final Map<Class<?>, Copier<Object>> copiers;
+    private final Map<Class<?>, Copier<Object>> hierarchyCopiers;
+    private final boolean detectsCopyConstructors;
+    private final boolean detectsCloneable;
+
+    /**
+     * Per class the registered {@link Copier}, the handle of its copy constructor or {@code clone()}, or {@link #NONE}.
+     */
+    private final ClassValue<Object> decisions = new ClassValue<>() {
+        @Override
+        protected Object computeValue(Class<?> type) {
+            return decide(type);
+        }
+    };
+
+    private CopierRegistry(Builder builder) {
+        this.copiers = Map.copyOf(builder.copiers);
+        this.hierarchyCopiers = new LinkedHashMap<>(builder.hierarchyCopiers);
+        this.detectsCopyConstructors = builder.detectsCopyConstructors;
+        this.detectsCloneable = builder.detectsCloneable;
+    }
+
+    /**
+     * Returns a builder of a new, empty registry.
+     *
+     * @return The new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the copier registered for the class or one of its supertypes.
+     *
+     * @param type The class of the copied objects.
+     * @return The copier, {@code null} if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    Copier<Object> copierOf(Class<?> type) {
+        return decisions.get(type) instanceof Copier<?> copier ? (Copier<Object>) copier : null;
+    }
+
+    /**
+     * Returns the detected copy constructor or {@code clone()} method of the class.
+     *
+     * @param type The class of the copied objects.
+     * @return The handle of type {@code (Object) Object} creating the copy, {@code null} if none is detected.
+     */
+    MethodHandle selfCopierOf(Class<?> type) {
+        return decisions.get(type) instanceof MethodHandle selfCopier ? selfCopier : null;
+    }
+
+    private Object decide(Class<?> type) {
+        Copier<Object> copier = copiers.get(type);
+        for (Class<?> current = type; copier == null && current != null; current = current.getSuperclass()) {
+            copier = hierarchyCopiers.get(current);
+        }
+        if (copier == null) {
+            for (Map.Entry<Class<?>, Copier<Object>> entry : hierarchyCopiers.entrySet()) {
+                if (entry.getKey().isInterface() && entry.getKey().isAssignableFrom(type)) {
+                    copier = entry.getValue();
+                    break;
+                }
+            }
+        }
+        if (copier != null) {
+            return copier;
+        }
+        // Arrays, Collections, Maps and records are created through their own paths
+        if (type.isArray() || type.isRecord() || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+            return NONE;
+        }
+        MethodHandle selfCopier = null;
+        if (detectsCopyConstructors) {
+            selfCopier = copyConstructor(type);
+        }
+        if (selfCopier == null && detectsCloneable && Cloneable.class.isAssignableFrom(type)) {
+            selfCopier = cloneMethod(type);
+        }
+        return selfCopier != null ? selfCopier : NONE;
+    }
+
+    private static MethodHandle copyConstructor(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getConstructor(type);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(SELF_COPIER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@link Object#clone()} is protected, so only classes overriding it publicly are detected.
+     */
+    private static MethodHandle cloneMethod(Class<?> type) {
+        try {
+            Method clone = type.getMethod("clone");
+            clone.setAccessible(true);
+            return MethodHandles.lookup().unreflect(clone).asType(SELF_COPIER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builder of a {@link CopierRegistry}.
+     */
+    public static final class Builder {
+
+        private final Map<Class<?>, Copier<Object>> copiers = new HashMap<>();
+        private final Map<Class<?>, Copier<Object>> hierarchyCopiers = new LinkedHashMap<>();
+        private boolean detectsCopyConstructors;
+        private boolean detectsCloneable;
+
+        private Builder() {
+        }
+
+        /**
+         * Registers the copier of exactly the given class, replacing an earlier registration.
+         *
+         * @param type   The class of the copied objects.
+         * @param copier The copier.
+         * @param <T>    The type of the copied objects.
+         * @return This builder.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Builder register(Class<T> type, Copier<T> copier) {
+            copiers.put(checkType(type), (Copier<Object>) checkCopier(copier));
+            return this;
+        }
+
+        /**
+         * Registers the copier of the given class or interface and all its subtypes, replacing an earlier registration.
+         * The copier has to create copies of the runtime class of the originals.
+         *
+         * @param type   The supertype of the copied objects.
+         * @param copier The copier.
+         * @param <T>    The supertype of the copied objects.
+         * @return This builder.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Builder registerHierarchy(Class<T> type, Copier<? super T> copier) {
+            hierarchyCopiers.put(checkType(type), (Copier<Object>) checkCopier(copier));
+            return this;
+        }
+
+        /**
+         * Copies classes declaring a public constructor taking an instance of the class itself through that constructor.
+         *
+         * @return This builder.
+         */
+        public Builder detectCopyConstructors() {
+            detectsCopyConstructors = true;
+            return this;
+        }
+
+        /**
+         * Copies {@link Cloneable} classes with a public {@code clone()} method through that method.
+         *
+         * @return This builder.
+         */
+        public Builder detectCloneable() {
+            detectsCloneable = true;
+            return this;
+        }
+
+        public CopierRegistry build() {
+            return new CopierRegistry(this);
+        }
+
+        private static <T> Class<T> checkType(Class<T> type) {
+            if (type == null) {
+                throw new IllegalArgumentException("Type must not be null");
+            }
+            return type;
+        }
+
+        private static <T> Copier<T> checkCopier(Copier<T> copier) {
+            if (copier == null) {
+                throw new IllegalArgumentException("Copier must not be null");
+            }
+            return copier;
+        }
+    }
+}
@@ -0,0 +1,798 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.UnaryOperator;
+
+/**
+ * State of a single deep copy call.
+ * Tracks the already copied objects of the call, which handles cyclic and shared references.
+ * A context is confined to one thread and reused by the following calls on that thread,
+ * so concurrent deep copies never share state and the table of copied objects
+ * does not outlive the call that filled it.
+ */
+final class CopyContext {
+
+    private static final ThreadLocal<CopyContext> CONTEXTS = ThreadLocal.withInitial(CopyContext::new);
+
+    /**
+     * Table for handling object references during deep copy process.
+     * Helps in avoiding infinite recursion and duplicate copies of same object.
+     */
+    private final IdentityTable copiedObjects = new IdentityTable();
+
+    /**
+     * Pending operations of the iterative traversal.
+     */
+    private final WorkStack pendingOperations = new WorkStack();
+
+    /**
+     * Originals of the iterative traversal mapped to their copy while filling the copy is pending,
+     * mapped to {@code null} once it is filled.
+     */
+    private final IdentityTable pendingFills = new IdentityTable();
+
+    /**
+     * Originals of a parallel copy whose copy references, directly or through its subgraph, a copy that may
+     * still be incomplete until all branches joined.
+     */
+    private final IdentityTable incompleteCopies = new IdentityTable();
+
+    private final UnaryOperator<Object> referenceCopier = this::copy;
+
+    private final UnaryOperator<Object> deferredCopier = this::copyDeferred;
+
+    /**
+     * View of this context passed to generated and registered copiers.
+     */
+    private final Copier.Context copierContext = new Copier.Context() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <V> V copy(V original) {
+            return (V) copyForCopier(original);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <V> V register(Object original, V copy) {
+            return (V) CopyContext.this.register(original, copy);
+        }
+    };
+
+    /**
+     * Marker of a record, immutable collection or object of a copier whose contents are being copied,
+     * which detects cycles through it. Only immutable collections have a stand-in for such cycles.
+     */
+    private static final Object IN_CONSTRUCTION = new Object();
+
+    private static final Comparator<Object> IDENTITY = (first, second) -> first == second ? 0 : 1;
+
+    /**
+     * Table shared by all threads of a parallel deep copy, {@code null} for sequential copies.
+     */
+    private ConcurrentIdentityTable sharedCopies;
+
+    /**
+     * Hash based and sorted containers of a parallel copy, each with its copied contents, populated once all
+     * branches joined, {@code null} for sequential copies.
+     */
+    private Queue<Object[]> deferredPopulations;
+
+    /**
+     * Number of references a parallel copy resolved to copies which may still be incomplete: copies registered
+     * by other threads, stand-ins and containers whose population is deferred.
+     */
+    private int incompleteReferences;
+
+    /**
+     * Minimal number of elements of an array, Collection or Map to copy in parallel.
+     */
+    private int parallelThreshold;
+
+    /**
+     * Statistics of the call, {@code null} while instrumentation is disabled.
+     */
+    private CopyRecorder recorder;
+
+    /**
+     * Table of canonical Strings and boxed primitives of a deduplicating copy, {@code null} for other copies.
+     */
+    private InternTable internTable;
+
+    private TraversalMode mode;
+    private CopyPolicy policy = CopyPolicy.DEFAULT;
+
+    /**
+     * Number of references between the root and the objects currently being copied.
+     */
+    private int depth;
+
+    /**
+     * Number of objects the call may still copy before exceeding the budget of the policy.
+     */
+    private long remainingCopies;
+
+    private boolean inUse;
+
+    private CopyContext() {
+    }
+
+    /**
+     * Returns the context of the current thread, or a fresh one if the thread's context
+     * is already in use by an enclosing deep copy call.
+     *
+     * @param mode   The traversal mode of the call.
+     * @param policy The policy of the call.
+     * @return The context to perform the copy with, to be released after the call.
+     */
+    static CopyContext acquire(TraversalMode mode, CopyPolicy policy) {
+        CopyContext context = acquireContext(mode, policy);
+        context.recorder = CopyRecorder.start();
+        return context;
+    }
+
+    /**
+     * Returns the context of the current thread for a deduplicating deep copy.
+     *
+     * @param mode        The traversal mode of the call.
+     * @param policy      The policy of the call.
+     * @param internTable The table of canonical values.
+     * @return The context to perform the copy with, to be released after the call.
+     */
+    static CopyContext acquire(TraversalMode mode, CopyPolicy policy, InternTable internTable) {
+        CopyContext context = acquire(mode, policy);
+        context.internTable = internTable;
+        return context;
+    }
+
+    private static CopyContext acquireContext(TraversalMode mode, CopyPolicy policy) {
+        CopyContext context = CONTEXTS.get();
+        // Views of a lazy copy keep its context to copy their deferred contents, so it is never reused
+        if (context.inUse || mode == TraversalMode.LAZY) {
+            context = new CopyContext();
+        }
+        context.inUse = true;
+        context.mode = mode;
+        context.policy = policy;
+        context.remainingCopies = policy.maxObjects();
+        return context;
+    }
+
+    /**
+     * Returns a context of the current thread taking part in a parallel deep copy.
+     * Copies are registered in the shared table, and large arrays, Collections and Maps
+     * are split into fork/join tasks. Another thread may still be filling a copy it registered,
+     * so hash based and sorted containers reaching such copies are populated once all branches joined,
+     * see {@link #populateDeferredContainers()}.
+     *
+     * @param sharedCopies        The identity table shared by all threads of the copy.
+     * @param deferredPopulations The containers of the copy to populate once all branches joined.
+     * @param parallelThreshold   The minimal number of elements to copy in parallel.
+     * @param recorder            The recorder of the thread, {@code null} while instrumentation is disabled.
+     * @return The context to perform the copy with, to be released after the call.
+     */
+    static CopyContext acquireParallel(ConcurrentIdentityTable sharedCopies, Queue<Object[]> deferredPopulations,
+                                       int parallelThreshold, CopyRecorder recorder) {
+        CopyContext context = acquireContext(TraversalMode.RECURSIVE, CopyPolicy.DEFAULT);
+        context.sharedCopies = sharedCopies;
+        context.deferredPopulations = deferredPopulations;
+        context.parallelThreshold = parallelThreshold;
+        context.recorder = recorder;
+        return context;
+    }
+
+    /**
+     * Resets the context in place, so it can be reused by the next call.
+     */
+    void release() {
+        if (recorder != null) {
+            recorder.join();
+            recorder = null;
+        }
+        if (mode == TraversalMode.LAZY) {
+            // Kept as it is for the views of the copy, which copy their deferred contents through it
+            return;
+        }
+        copiedObjects.clear();
+        pendingOperations.clear();
+        pendingFills.clear();
+        incompleteCopies.clear();
+        sharedCopies = null;
+        deferredPopulations = null;
+        incompleteReferences = 0;
+        internTable = null;
+        policy = CopyPolicy.DEFAULT;
+        depth = 0;
+        inUse = false;
+    }
+
+    /**
+     * Deep copies the root of a graph, completing all pending operations of the traversal before returning.
+     *
+     * @param original The root object to be deep copied.
+     * @return The deep copied root.
+     */
+    Object copyGraph(Object original) {
+        Object copy = copy(original);
+        completePendingOperations(0);
+        if (mode == TraversalMode.LAZY && original != null) {
+            // Only nested containers are views, the root keeps the type of the original
+            copy = LazyContainers.adapt(copy, original.getClass());
+        }
+        return copy;
+    }
+
+    /**
+     * Populates the containers of a parallel copy deferred until all branches joined, in the order the threads
+     * deferred them, which puts the inner containers of each thread first. A Set or Map whose elements or keys
+     * hash or sort differently once containers deferred by other threads are populated is populated again.
+     */
+    void populateDeferredContainers() {
+        Object[][] populations = deferredPopulations.toArray(new Object[0][]);
+        for (Object[] population : populations) {
+            ContainerCopier.of(population[0].getClass()).populate(population[0], (Object[]) population[1]);
+        }
+        boolean repopulated = true;
+        for (int pass = 0; repopulated && pass < populations.length; pass++) {
+            repopulated = false;
+            for (Object[] population : populations) {
+                Object container = population[0];
+                Object[] contents = (Object[]) population[1];
+                if (!ContainerCopier.holdsAll(container, contents)) {
+                    ContainerCopier.clear(container);
+                    ContainerCopier.of(container.getClass()).populate(container, contents);
+                    repopulated = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the statistics of the completed call, if instrumentation is enabled.
+     *
+     * @param original The copied root.
+     */
+    void complete(Object original) {
+        if (recorder != null) {
+            recorder.complete(original.getClass());
+        }
+    }
+
+    /**
+     * Performs pending operations of the iterative traversal until only the given number of them is left.
+     *
+     * @param remaining The number of operations pushed before, which are left pending.
+     */
+    private void completePendingOperations(int remaining) {
+        while (pendingOperations.size() > remaining) {
+            byte operation = pendingOperations.pop();
+            Object source = pendingOperations.source();
+            Object target = pendingOperations.target();
+            switch (operation) {
+                case WorkStack.FILL -> {
+                    // Skipped if the copy was already filled when it was reached again
+                    if (pendingFills.get(source) != null) {
+                        pendingFills.put(source, null);
+                        depth = pendingOperations.depth();
+                        fill(source, target);
+                    }
+                }
+                case WorkStack.POPULATE -> ContainerCopier.of(target.getClass()).populate(target, (Object[]) source);
+                default -> throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+    }
+
+    /**
+     * Inner method to handle the deep copy process.
+     * Determines if object is immutable, an array, or Collection and
+     * allocates the copy of the relevant type. Recursive structures are handled
+     * with a table of already copied references.
+     * In the recursive traversal the copy is populated before it is returned,
+     * in the iterative traversal populating it is pushed to the work stack.
+     *
+     * @param original The object to be deep copied.
+     * @return The deep copied object.
+     */
+    Object copy(Object original) {
+        // Skipped classes are dropped, immutable objects, such as wrappers or enums, and shared classes are shared
+        byte kind = policy.kindOf(original);
+        if (kind == CopyPolicy.SKIPPED) {
+            return null;
+        }
+        if (kind == CopyPolicy.SHARED) {
+            return original;
+        }
+        if (kind == CopyPolicy.IMMUTABLE) {
+            return internTable == null ? original : intern(original);
+        }
+        Class<?> clazz = original.getClass();
+        ClassCopyPlan plan = policy.planOf(clazz);
+
+        Object existing = copiedObjects.get(original);
+        if (sharedCopies != null) {
+            if (existing == null) {
+                existing = sharedCopies.get(original);
+                if (existing != null && existing != IN_CONSTRUCTION) {
+                    // Registered by another thread, which may not have filled it yet
+                    incompleteReferences++;
+                }
+            } else if (incompleteCopies.get(original) != null) {
+                incompleteReferences++;
+            }
+        }
+        if (existing == IN_CONSTRUCTION) {
+            existing = standInFor(original, clazz);
+        }
+        if (existing != null) {
+            if (recorder != null) {
+                recorder.recordIdentityHit();
+            }
+            if (mode == TraversalMode.ITERATIVE && pendingFills.get(original) != null) {
+                // Filled before the object or container referencing it, as in the recursive traversal,
+                // so hash based containers are never populated with copies whose fields are still missing
+                pendingOperations.push(WorkStack.FILL, original, existing, depth + 1);
+            }
+            return existing;
+        }
+        if (depth > policy.maxDepth()) {
+            // Registered as its own copy, so an object also reachable along a shorter path is not copied there
+            return register(original, original);
+        }
+        if (--remainingCopies < 0) {
+            throw new DeepCopyException("Deep copy exceeded the budget of " + policy.maxObjects() + " objects");
+        }
+        if (recorder != null) {
+            recorder.recordCopy(original, clazz);
+        }
+        if (sharedCopies == null) {
+            return create(original, clazz, plan);
+        }
+        int incomplete = incompleteReferences;
+        Object copy = create(original, clazz, plan);
+        if (incompleteReferences != incomplete) {
+            incompleteCopies.put(original, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates the deep copy of an object not copied yet.
+     *
+     * @param original The object to be deep copied.
+     * @param clazz    The class of the object.
+     * @param plan     The plan of the class.
+     * @return The deep copied object, still to be filled in the iterative traversal.
+     */
+    private Object create(Object original, Class<?> clazz, ClassCopyPlan plan) {
+        // Registered and detected copiers take precedence over the built-in paths in every traversal,
+        // though objects of such classes are always copied on the Java stack, see copyForCopier
+        if (plan.registeredCopier() != null) {
+            return copyWithCopier(original, plan.registeredCopier());
+        }
+
+        // Primitive and immutable element arrays are copied in bulk and need no filling, unless their elements are interned
+        if (clazz.isArray() && ArrayCopies.isFlat(clazz)
+                && (internTable == null || !InternTable.interns(clazz.getComponentType()))) {
+            return register(original, ArrayCopies.cloneFlat(original));
+        }
+
+        if (original instanceof Collection || original instanceof Map) {
+            ContainerCopier containerCopier = ContainerCopier.of(clazz);
+            if (mode == TraversalMode.LAZY && LazyContainers.supports(original, containerCopier)) {
+                return copyLazily(original, containerCopier);
+            }
+            if (containerCopier.isFlat()) {
+                return register(original, containerCopier.allocate(original));
+            }
+            if (containerCopier.isBuiltFromContents()) {
+                return copyImmutableContainer(original, containerCopier);
+            }
+        }
+
+        // Recursive copies prefer compile-time copiers, which assign Strings as they are and cannot deduplicate them.
+        // The other traversals keep their own stack discipline
+        if (plan.generatedCopier() != null && mode == TraversalMode.RECURSIVE && internTable == null) {
+            return copyWithCopier(original, plan.generatedCopier());
+        }
+        if (plan.isRecord()) {
+            return copyRecord(original, plan);
+        }
+
+        Object copy = allocate(original, clazz, plan);
+        Object registered = register(original, copy);
+        if (registered != copy) {
+            // Another thread of a parallel copy got there first and fills its own copy
+            return registered;
+        }
+        if (mode == TraversalMode.ITERATIVE) {
+            pendingFills.put(original, copy);
+            pendingOperations.push(WorkStack.FILL, original, copy, depth + 1);
+        } else {
+            depth++;
+            fill(original, copy);
+            depth--;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the canonical instance of an immutable value in a deduplicating copy.
+     * Replaced values are registered like copies, so an instance referenced several times
+     * is looked up and counted by the intern table once per call.
+     *
+     * @param value The String, boxed primitive or other immutable value.
+     * @return The canonical value.
+     */
+    private Object intern(Object value) {
+        Object canonical = copiedObjects.get(value);
+        if (canonical == null) {
+            canonical = internTable.intern(value);
+            if (canonical != value) {
+                copiedObjects.put(value, canonical);
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * Copies an immutable collection, which can only be created once its contents are copied completely.
+     * The collection itself is shared if all its contents are shared. If the contents reference the collection
+     * again, or another thread of a parallel copy reaches it meanwhile, the copy is the mutable stand-in
+     * those references got instead. So is the copy of a Set or Map whose contents other threads may still be
+     * filling, since it can only be hashed once all branches joined.
+     *
+     * @param original        The immutable collection to be deep copied.
+     * @param containerCopier The copier of the collection.
+     * @return The deep copied collection.
+     */
+    private Object copyImmutableContainer(Object original, ContainerCopier containerCopier) {
+        if (sharedCopies != null) {
+            Object registered = sharedCopies.putIfAbsent(original, IN_CONSTRUCTION);
+            if (registered != null) {
+                // Copied or being copied by another thread since it was looked up
+                return registered == IN_CONSTRUCTION ? standInFor(original, original.getClass())
+                        : register(original, registered);
+            }
+        }
+        copiedObjects.put(original, IN_CONSTRUCTION);
+        Object[] originalContents = ContainerCopier.contentsOf(original);
+        Object[] contents = originalContents.clone();
+        int remaining = pendingOperations.size();
+        int containerDepth = depth;
+        int incomplete = incompleteReferences;
+        depth++;
+        copyInPlace(contents);
+        completePendingOperations(remaining);
+        depth = containerDepth;
+        boolean complete = incompleteReferences == incomplete;
+        Object standIn = copiedObjects.get(original);
+        if (standIn == IN_CONSTRUCTION && !complete && ContainerCopier.readsContents(original.getClass())) {
+            standIn = standInFor(original, original.getClass());
+        }
+        if (standIn == IN_CONSTRUCTION) {
+            Object copy = Arrays.equals(originalContents, contents, IDENTITY) ? original : containerCopier.build(contents);
+            standIn = sharedCopies == null ? copy : sharedCopies.replace(original, IN_CONSTRUCTION, copy);
+            copiedObjects.put(original, standIn);
+            if (standIn == copy) {
+                return copy;
+            }
+        }
+        // Reached again through a cycle or by another thread, which already reference the mutable stand-in
+        populate(standIn, contents, complete);
+        return standIn;
+    }
+
+    /**
+     * Returns the copy of an object reached again through a cycle while its contents are being copied.
+     * An immutable collection is copied to an empty mutable one, which is populated once the contents are copied.
+     * In a parallel copy the stand-in is shared with the other threads, which may reach the collection as well.
+     * Records and objects of copiers which create their copy only from their copied references cannot be copied.
+     *
+     * @param original The object in construction.
+     * @param clazz    The class of the object.
+     * @return The mutable stand-in for the copy of an immutable collection, or the copy another thread registered.
+     */
+    private Object standInFor(Object original, Class<?> clazz) {
+        if (!(original instanceof Collection || original instanceof Map)) {
+            throw new DeepCopyException("Cyclic reference through a record or an object of a copier of type "
+                    + clazz.getName());
+        }
+        Object standIn = ContainerCopier.mutableCounterpartOf(clazz).allocate(original);
+        if (sharedCopies != null) {
+            standIn = sharedCopies.replace(original, IN_CONSTRUCTION, standIn);
+            incompleteReferences++;
+        }
+        copiedObjects.put(original, standIn);
+        return standIn;
+    }
+
+    /**
+     * Copies a record, which can only be created through its canonical constructor once its components are copied.
+     *
+     * @param original The record to be deep copied.
+     * @param plan     The plan of the record class.
+     * @return The deep copied record.
+     */
+    private Object copyRecord(Object original, ClassCopyPlan plan) {
+        copiedObjects.put(original, IN_CONSTRUCTION);
+        try {
+            Object[] components = plan.components(original);
+            int remaining = pendingOperations.size();
+            int recordDepth = depth;
+            depth++;
+            for (int i = 0, copied = 0; i < components.length; i++) {
+                if (plan.isCopiedComponent(i)) {
+                    Object component = copy(components[i]);
+                    components[i] = mode == TraversalMode.LAZY
+                            ? LazyContainers.adapt(component, plan.referenceType(copied)) : component;
+                    copied++;
+                }
+            }
+            completePendingOperations(remaining);
+            depth = recordDepth;
+            return register(original, plan.newRecord(components));
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during record copy", e);
+        }
+    }
+
+    /**
+     * Copies an object with its copier, which registers the copy itself before copying the objects it references.
+     * Until then the original is marked as in construction, so cycles through a copier that only creates
+     * the copy from its copied references are reported instead of recursing endlessly.
+     *
+     * @param original The object to be deep copied.
+     * @param copier   The copier of its class.
+     * @return The deep copied object.
+     */
+    private Object copyWithCopier(Object original, Copier<Object> copier) {
+        copiedObjects.put(original, IN_CONSTRUCTION);
+        Object copy;
+        depth++;
+        try {
+            copy = copier.copy(original, copierContext);
+        } catch (DeepCopyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new DeepCopyException("Error during object copy", e);
+        }
+        depth--;
+        return register(original, copy);
+    }
+
+    /**
+     * Copies an object referenced by the object of a copier, which may hash or store the copy right away.
+     * The iterative traversal completes the copy and everything it references before returning it,
+     * so nested objects of copiers are copied on the Java stack as in the recursive traversal.
+     * The lazy traversal returns a copy of the original's type instead of a view.
+     *
+     * @param original The referenced object.
+     * @return The complete copy.
+     */
+    private Object copyForCopier(Object original) {
+        int remaining = pendingOperations.size();
+        int copierDepth = depth;
+        Object copy = copy(original);
+        completePendingOperations(remaining);
+        depth = copierDepth;
+        return mode == TraversalMode.LAZY && original != null ? LazyContainers.adapt(copy, original.getClass()) : copy;
+    }
+
+    /**
+     * Copies a List, Set or Map into a copy-on-write view of its contents.
+     * The view is registered before the contents are taken, so cycles through it resolve to the view.
+     * Nested arrays, Collections and Maps are copied right away, so later changes of the original's containers
+     * never reach the copy, while copying plain objects and records is deferred until they are read.
+     *
+     * @param original        The List, Set or Map to be deep copied.
+     * @param containerCopier The copier of the container.
+     * @return The view standing for the copy.
+     */
+    private Object copyLazily(Object original, ContainerCopier containerCopier) {
+        Object view = LazyContainers.view(original, containerCopier, deferredCopier);
+        register(original, view);
+        Object[] contents = ContainerCopier.contentsOf(original);
+        boolean[] deferred = null;
+        depth++;
+        for (int i = 0; i < contents.length; i++) {
+            Object content = contents[i];
+            if (content instanceof Collection || content instanceof Map || content == null || content.getClass().isArray()
+                    || policy.kindOf(content) != CopyPolicy.COPIED) {
+                contents[i] = copy(content);
+            } else {
+                if (deferred == null) {
+                    deferred = new boolean[contents.length];
+                }
+                deferred[i] = true;
+            }
+        }
+        depth--;
+        LazyContainers.complete(view, contents, deferred);
+        return view;
+    }
+
+    /**
+     * Copies a plain object or record a view of the lazy traversal deferred, on its first read through the view.
+     * Views may be read by several threads, so deferred copies are made under the lock of the context.
+     *
+     * @param original The object to be deep copied.
+     * @return The deep copied object, the same one for every read.
+     */
+    private synchronized Object copyDeferred(Object original) {
+        int viewDepth = depth;
+        Object copy = copy(original);
+        depth = viewDepth;
+        return copy;
+    }
+
+    /**
+     * Registers the copy of the original.
+     *
+     * @param original The original object.
+     * @param copy     The copy of the original.
+     * @return The given copy, or the copy registered by another thread of a parallel copy.
+     */
+    private Object register(Object original, Object copy) {
+        if (sharedCopies != null) {
+            Object registered = sharedCopies.putIfAbsent(original, copy);
+            if (registered != null) {
+                copy = registered;
+                incompleteReferences++;
+            }
+        }
+        // In a parallel copy the own table serves as a lock-free cache of the shared one
+        copiedObjects.put(original, copy);
+        return copy;
+    }
+
+    /**
+     * Creates the empty copy of an array, Collection, Map or plain object.
+     *
+     * @param original The object to be deep copied.
+     * @param clazz    The class of the object.
+     * @param plan     The plan of the class.
+     * @return The not yet populated copy.
+     */
+    static Object allocate(Object original, Class<?> clazz, ClassCopyPlan plan) {
+        if (clazz.isArray()) {
+            return Array.newInstance(clazz.getComponentType(), Array.getLength(original));
+        }
+
+        if (original instanceof Collection || original instanceof Map) {
+            return ContainerCopier.of(clazz).allocate(original);
+        }
+
+        try {
+            return plan.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new DeepCopyException("Error during object copy", e);
+        }
+    }
+
+    /**
+     * Copies the contents of the original into its allocated copy.
+     *
+     * @param original The object to be deep copied.
+     * @param copy     The allocated copy.
+     */
+    private void fill(Object original, Object copy) {
+        Class<?> clazz = original.getClass();
+        if (clazz.isArray()) {
+            fillArray((Object[]) original, (Object[]) copy);
+        } else if (original instanceof Collection || original instanceof Map) {
+            fillContainer(original, copy);
+        } else {
+            try {
+                ClassCopyPlan plan = policy.planOf(clazz);
+                if (mode == TraversalMode.LAZY) {
+                    copyFieldsLazily(plan, original, copy);
+                } else {
+                    plan.copyFields(original, copy, referenceCopier);
+                }
+            } catch (DeepCopyException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new DeepCopyException("Error during object copy", e);
+            }
+        }
+    }
+
+    /**
+     * Copies the fields one by one, adapting copied views to the declared type of each field.
+     */
+    private void copyFieldsLazily(ClassCopyPlan plan, Object original, Object copy) throws Throwable {
+        plan.copyValues(original, copy);
+        for (int i = 0; i < plan.referenceCount(); i++) {
+            Object value = plan.getReference(original, i);
+            if (value != null) {
+                plan.setReference(copy, i, LazyContainers.adapt(copy(value), plan.referenceType(i)));
+            }
+        }
+    }
+
+    /**
+     * Handles copying for arrays of mutable or unknown component types.
+     * Nested arrays of multi-dimensional arrays are copied element by element only down to
+     * the innermost level, which is copied in bulk.
+     *
+     * @param original The array object to be deep copied.
+     * @param copy     The allocated array of the same length.
+     */
+    private void fillArray(Object[] original, Object[] copy) {
+        if (mode == TraversalMode.LAZY) {
+            Class<?> componentType = copy.getClass().getComponentType();
+            for (int i = 0; i < original.length; i++) {
+                copy[i] = LazyContainers.adapt(copy(original[i]), componentType);
+            }
+            return;
+        }
+        System.arraycopy(original, 0, copy, 0, original.length);
+        copyInPlace(copy);
+    }
+
+    /**
+     * Handles copying for java.util.Collection and java.util.Map types.
+     * Contents are added only after all of them are copied, so that hash based containers
+     * hash completely populated elements and keys in the iterative traversal as well.
+     *
+     * @param original The Collection or Map to be deep copied.
+     * @param copy     The empty Collection or Map.
+     */
+    private void fillContainer(Object original, Object copy) {
+        Object[] contents = ContainerCopier.contentsOf(original);
+        if (mode == TraversalMode.ITERATIVE) {
+            // Pushed below the contents, so it runs once their subgraphs are complete
+            pendingOperations.push(WorkStack.POPULATE, contents, copy, depth);
+            copyInPlace(contents);
+        } else {
+            int incomplete = incompleteReferences;
+            copyInPlace(contents);
+            populate(copy, contents, incompleteReferences == incomplete);
+        }
+    }
+
+    /**
+     * Adds the copied contents to the container. A parallel copy defers adding them until all branches joined
+     * if the container hashes or sorts contents which may still be incomplete.
+     *
+     * @param container The empty Collection or Map.
+     * @param contents  The copied contents.
+     * @param complete  Whether the contents reference only copies this thread completed.
+     */
+    private void populate(Object container, Object[] contents, boolean complete) {
+        if (!complete && ContainerCopier.readsContents(container.getClass())) {
+            deferredPopulations.add(new Object[] {container, contents});
+            incompleteReferences++;
+            return;
+        }
+        ContainerCopier.of(container.getClass()).populate(container, contents);
+    }
+
+    /**
+     * Replaces the objects with their deep copies, splitting large arrays into fork/join tasks
+     * in a parallel copy.
+     *
+     * @param objects The objects to be deep copied.
+     */
+    private void copyInPlace(Object[] objects) {
+        if (sharedCopies != null && objects.length >= parallelThreshold) {
+            new ParallelCopyTask(objects, 0, objects.length, sharedCopies, deferredPopulations, parallelThreshold,
+                    recorder).invoke();
+            // Copied by the contexts of other threads, which may reach copies still incomplete
+            incompleteReferences++;
+            return;
+        }
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = copy(objects[i]);
+        }
+    }
+}
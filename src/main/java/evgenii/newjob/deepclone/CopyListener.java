@@ -0,0 +1,19 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Listener notified with the statistics of every completed deep copy call.
+ * Listeners are registered with {@link CopyUtils#addListener(CopyListener)} and are called
+ * on the thread that made the call, so they should return quickly.
+ * Statistics are only collected while at least one listener is registered
+ * or a deep copy event is enabled in JDK Flight Recorder.
+ */
+@FunctionalInterface
+public interface CopyListener {
+
+    /**
+     * Called after a deep copy call completed successfully.
+     *
+     * @param statistics The statistics of the call.
+     */
+    void copyCompleted(CopyStatistics statistics);
+}
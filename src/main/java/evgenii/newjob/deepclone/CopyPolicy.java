@@ -0,0 +1,312 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.annotation.Shared;
+import evgenii.newjob.deepclone.annotation.Skip;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.function.Predicate;
+
+/**
+ * Rules deciding which parts of an object graph a deep copy copies.
+ * Fields and classes can be shared, so the copy references the original object, or skipped,
+ * so the copy does not reference it at all. Fields and classes annotated with {@link Shared}
+ * or {@link Skip} are handled accordingly by every policy, further rules are added with the
+ * {@link Builder}. The depth of the copy and the number of copied objects can be limited as well.
+ * <p>
+ * Field rules are compiled into the copy plan of each class, which every policy caches per class,
+ * so they cost nothing per copied object. A policy is immutable and should be created once and reused,
+ * since each new policy builds its plans again.
+ */
+public final class CopyPolicy {
+
+    /**
+     * Policy copying the whole graph, except for fields and classes annotated with {@link Shared} or {@link Skip}.
+     */
+    public static final CopyPolicy DEFAULT = builder().build();
+
+    private final Predicate<Field> sharedFields;
+    private final Predicate<Field> skippedFields;
+    private final Predicate<Class<?>> sharedTypes;
+    private final Predicate<Class<?>> skippedTypes;
+    private final boolean rules;
+    private final CopierRegistry copiers;
+    private final int maxDepth;
+    private final long maxObjects;
+
+    /**
+     * Kinds of referenced objects: left out of copies, shared by a rule, immutable and shared, or copied.
+     */
+    static final byte SKIPPED = 0;
+    static final byte SHARED = 1;
+    static final byte IMMUTABLE = 2;
+    static final byte COPIED = 3;
+
+    private final ClassValue<ClassCopyPlan> plans = new ClassValue<>() {
+        @Override
+        protected ClassCopyPlan computeValue(Class<?> type) {
+            return new ClassCopyPlan(type, CopyPolicy.this);
+        }
+    };
+
+    private CopyPolicy(Builder builder) {
+        this.sharedFields = builder.sharedFields;
+        this.skippedFields = builder.skippedFields;
+        this.sharedTypes = builder.sharedTypes;
+        this.skippedTypes = builder.skippedTypes;
+        this.rules = builder.rules;
+        this.copiers = builder.copiers;
+        this.maxDepth = builder.maxDepth;
+        this.maxObjects = builder.maxObjects;
+    }
+
+    /**
+     * Returns a builder of a new policy, starting from the rules of the {@link #DEFAULT} policy.
+     *
+     * @return The new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the maximal number of references between the root and a copied object.
+     * Objects further away from the root are shared.
+     *
+     * @return The maximal depth.
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the maximal number of objects, arrays, Collections and Maps a single deep copy may copy.
+     *
+     * @return The maximal number of copies.
+     */
+    public long maxObjects() {
+        return maxObjects;
+    }
+
+    /**
+     * Returns the plan of the given class compiled for this policy, building it on first use.
+     */
+    ClassCopyPlan planOf(Class<?> clazz) {
+        return plans.get(clazz);
+    }
+
+    /**
+     * Classifies a referenced object the way copies under this policy treat it. Copies, refreshes, walks,
+     * prototypes and snapshots all follow this classification.
+     *
+     * @param value The referenced object, may be {@code null}.
+     * @return {@link #SKIPPED} for {@code null} and objects of skipped classes, {@link #SHARED} for objects of
+     * shared classes, {@link #IMMUTABLE} for Strings, boxed primitives and other immutable objects,
+     * {@link #COPIED} for all other objects. Objects of immutable classes with a registered or detected copier
+     * are copied by it, unless the class is a JDK value type.
+     */
+    byte kindOf(Object value) {
+        if (value == null) {
+            return SKIPPED;
+        }
+        if (value instanceof String || value instanceof Integer) {
+            return IMMUTABLE;
+        }
+        Class<?> clazz = value.getClass();
+        ClassCopyPlan plan = planOf(clazz);
+        if (plan.isSkipped()) {
+            return SKIPPED;
+        }
+        if (plan.isShared()) {
+            return SHARED;
+        }
+        if (ImmutableTypes.isValueType(clazz)) {
+            return IMMUTABLE;
+        }
+        return plan.registeredCopier() == null && ImmutableTypes.isImmutable(clazz) ? IMMUTABLE : COPIED;
+    }
+
+    /**
+     * Checks if the policy shares or skips fields or types beyond those annotated with {@link Shared} or {@link Skip}.
+     */
+    boolean hasRules() {
+        return rules;
+    }
+
+    CopierRegistry copiers() {
+        return copiers;
+    }
+
+    boolean sharesType(Class<?> type) {
+        return type.isAnnotationPresent(Shared.class) || sharedTypes.test(type);
+    }
+
+    boolean skipsType(Class<?> type) {
+        return type.isAnnotationPresent(Skip.class) || skippedTypes.test(type);
+    }
+
+    boolean sharesField(Field field) {
+        return field.isAnnotationPresent(Shared.class) || sharedFields.test(field);
+    }
+
+    boolean skipsField(Field field) {
+        return field.isAnnotationPresent(Skip.class) || skippedFields.test(field);
+    }
+
+    /**
+     * Builder of a {@link CopyPolicy}. Rules of the same kind add up, skipping takes precedence over sharing.
+     */
+    public static final class Builder {
+
+        private Predicate<Field> sharedFields = field -> false;
+        private Predicate<Field> skippedFields = field -> false;
+        private Predicate<Class<?>> sharedTypes = type -> false;
+        private Predicate<Class<?>> skippedTypes = type -> false;
+        private boolean rules;
+        private CopierRegistry copiers = CopierRegistry.EMPTY;
+        private int maxDepth = Integer.MAX_VALUE;
+        private long maxObjects = Long.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Shares the objects referenced by the matching fields.
+         *
+         * @param fields The predicate matching the fields.
+         * @return This builder.
+         */
+        public Builder shareFields(Predicate<Field> fields) {
+            sharedFields = sharedFields.or(fields);
+            rules = true;
+            return this;
+        }
+
+        /**
+         * Skips the matching fields, which are left {@code null}, zero or {@code false} in the copy.
+         *
+         * @param fields The predicate matching the fields.
+         * @return This builder.
+         */
+        public Builder skipFields(Predicate<Field> fields) {
+            skippedFields = skippedFields.or(fields);
+            rules = true;
+            return this;
+        }
+
+        /**
+         * Skips {@code transient} fields, which are usually caches or other state derived from the remaining fields.
+         *
+         * @return This builder.
+         */
+        public Builder skipTransientFields() {
+            return skipFields(field -> Modifier.isTransient(field.getModifiers()));
+        }
+
+        /**
+         * Shares all instances of the given types and their subtypes.
+         *
+         * @param types The shared types.
+         * @return This builder.
+         */
+        public Builder shareTypes(Class<?>... types) {
+            return shareTypes(assignableTo(types));
+        }
+
+        /**
+         * Shares all instances of the matching classes.
+         *
+         * @param types The predicate matching the classes.
+         * @return This builder.
+         */
+        public Builder shareTypes(Predicate<Class<?>> types) {
+            sharedTypes = sharedTypes.or(types);
+            rules = true;
+            return this;
+        }
+
+        /**
+         * Replaces all references to instances of the given types and their subtypes by {@code null}.
+         *
+         * @param types The skipped types.
+         * @return This builder.
+         */
+        public Builder skipTypes(Class<?>... types) {
+            return skipTypes(assignableTo(types));
+        }
+
+        /**
+         * Replaces all references to instances of the matching classes by {@code null}.
+         *
+         * @param types The predicate matching the classes.
+         * @return This builder.
+         */
+        public Builder skipTypes(Predicate<Class<?>> types) {
+            skippedTypes = skippedTypes.or(types);
+            rules = true;
+            return this;
+        }
+
+        /**
+         * Copies the classes the registry has a copier for, or detects one for, through that copier.
+         *
+         * @param copiers The registry of copiers.
+         * @return This builder.
+         */
+        public Builder copiers(CopierRegistry copiers) {
+            if (copiers == null) {
+                throw new IllegalArgumentException("Copier registry must not be null");
+            }
+            this.copiers = copiers;
+            return this;
+        }
+
+        /**
+         * Limits the depth of the copy. Objects more references away from the root than the given depth
+         * are shared, so a maximal depth of 0 makes a shallow copy of the root. An object the copy first reaches
+         * beyond the maximal depth is shared wherever else the graph references it.
+         *
+         * @param maxDepth The maximal depth.
+         * @return This builder.
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("Maximal depth must not be negative: " + maxDepth);
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Limits the number of objects, arrays, Collections and Maps a single deep copy may copy.
+         * A copy exceeding the budget fails with a {@link evgenii.newjob.deepclone.exception.DeepCopyException}
+         * as soon as it does, instead of copying an unexpectedly large graph.
+         *
+         * @param maxObjects The maximal number of copies.
+         * @return This builder.
+         */
+        public Builder maxObjects(long maxObjects) {
+            if (maxObjects < 1) {
+                throw new IllegalArgumentException("Maximal number of objects must be positive: " + maxObjects);
+            }
+            this.maxObjects = maxObjects;
+            return this;
+        }
+
+        public CopyPolicy build() {
+            return new CopyPolicy(this);
+        }
+
+        private static Predicate<Class<?>> assignableTo(Class<?>[] types) {
+            Class<?>[] copy = types.clone();
+            return type -> {
+                for (Class<?> candidate : copy) {
+                    if (candidate.isAssignableFrom(type)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+    }
+}
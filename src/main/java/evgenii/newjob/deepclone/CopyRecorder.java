@@ -0,0 +1,232 @@
+package evgenii.newjob.deepclone;
+
+import jdk.jfr.EventType;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the statistics of a single deep copy call and reports them when the call completes.
+ * A recorder exists only while instrumentation is enabled, the copy checks it for {@code null}
+ * before recording, so disabled instrumentation costs a single branch per copied object.
+ * A recorder is confined to one thread, the threads of a parallel copy record into their own
+ * recorders, which are merged into the recorder of the call.
+ */
+final class CopyRecorder {
+
+    private static final List<CopyListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static final EventType CALL_EVENT = EventType.getEventType(DeepCopyEvent.class);
+    private static final EventType CLASS_EVENT = EventType.getEventType(DeepCopyClassEvent.class);
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    /**
+     * Estimated bytes of a Collection or Map element stored in a node, such as a hash table entry.
+     */
+    private static final int NODE = 32;
+
+    /**
+     * Estimated shallow sizes of plain objects, cached per class.
+     */
+    private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Field field : ClassCopyPlan.of(type).fields()) {
+                size += sizeOf(field.getType());
+            }
+            return align(size);
+        }
+    };
+
+    private final CopyRecorder parent;
+    private final long startNanos;
+
+    /**
+     * The flight recorder event of the call, begun when the call starts, {@code null} while the event is disabled.
+     */
+    private DeepCopyEvent callEvent;
+
+    private long objects;
+    private long arrays;
+    private long collections;
+    private long maps;
+    private long identityHits;
+    private long estimatedBytes;
+
+    /**
+     * Copy counts and estimated bytes per copied class.
+     */
+    private final Map<Class<?>, long[]> byClass = new IdentityHashMap<>();
+
+    private CopyRecorder(CopyRecorder parent) {
+        this.parent = parent;
+        this.startNanos = parent == null ? System.nanoTime() : 0;
+        if (parent == null && CALL_EVENT.isEnabled()) {
+            callEvent = new DeepCopyEvent();
+            callEvent.begin();
+        }
+    }
+
+    /**
+     * Starts recording a deep copy call.
+     *
+     * @return The recorder of the call, or {@code null} if instrumentation is disabled.
+     */
+    static CopyRecorder start() {
+        if (LISTENERS.isEmpty() && !CALL_EVENT.isEnabled() && !CLASS_EVENT.isEnabled()) {
+            return null;
+        }
+        return new CopyRecorder(null);
+    }
+
+    static void addListener(CopyListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    static void removeListener(CopyListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Creates the recorder of a thread taking part in a parallel copy, merged into this one by {@link #join()}.
+     *
+     * @return The recorder for the thread.
+     */
+    CopyRecorder fork() {
+        return new CopyRecorder(this);
+    }
+
+    /**
+     * Adds the statistics of a forked recorder to the recorder it was forked from.
+     */
+    void join() {
+        if (parent == null) {
+            return;
+        }
+        synchronized (parent) {
+            parent.objects += objects;
+            parent.arrays += arrays;
+            parent.collections += collections;
+            parent.maps += maps;
+            parent.identityHits += identityHits;
+            parent.estimatedBytes += estimatedBytes;
+            byClass.forEach((clazz, counts) -> {
+                long[] parentCounts = parent.byClass.computeIfAbsent(clazz, key -> new long[2]);
+                parentCounts[0] += counts[0];
+                parentCounts[1] += counts[1];
+            });
+        }
+    }
+
+    /**
+     * Records a reference resolved to an already existing copy.
+     */
+    void recordIdentityHit() {
+        identityHits++;
+    }
+
+    /**
+     * Records the copy of an array, Collection, Map or plain object.
+     *
+     * @param original The copied object.
+     * @param clazz    The class of the object.
+     */
+    void recordCopy(Object original, Class<?> clazz) {
+        long bytes;
+        if (clazz.isArray()) {
+            arrays++;
+            bytes = align(ARRAY_HEADER + (long) Array.getLength(original) * sizeOf(clazz.getComponentType()));
+        } else if (original instanceof Collection<?> collection) {
+            collections++;
+            // Array based collections hold a reference per element, others a node per element
+            int elementSize = original instanceof RandomAccess ? REFERENCE : NODE;
+            bytes = 2L * ARRAY_HEADER + (long) collection.size() * elementSize;
+        } else if (original instanceof Map<?, ?> map) {
+            maps++;
+            bytes = 3L * ARRAY_HEADER + (long) map.size() * (NODE + REFERENCE);
+        } else {
+            objects++;
+            bytes = SHALLOW_SIZES.get(clazz);
+        }
+        estimatedBytes += bytes;
+        long[] counts = byClass.computeIfAbsent(clazz, key -> new long[2]);
+        counts[0]++;
+        counts[1] += bytes;
+    }
+
+    /**
+     * Reports the statistics of the completed call to the listeners and the flight recorder.
+     *
+     * @param rootType The class of the copied root.
+     */
+    void complete(Class<?> rootType) {
+        long durationNanos = System.nanoTime() - startNanos;
+        if (!LISTENERS.isEmpty()) {
+            Map<Class<?>, Long> copiesByClass = new HashMap<>();
+            byClass.forEach((clazz, counts) -> copiesByClass.put(clazz, counts[0]));
+            CopyStatistics statistics = new CopyStatistics(rootType, 1, objects, arrays, collections, maps,
+                    identityHits, estimatedBytes, durationNanos, copiesByClass);
+            for (CopyListener listener : LISTENERS) {
+                listener.copyCompleted(statistics);
+            }
+        }
+        commitEvents(rootType);
+    }
+
+    private void commitEvents(Class<?> rootType) {
+        if (callEvent != null) {
+            callEvent.end();
+            if (callEvent.shouldCommit()) {
+                callEvent.rootType = rootType;
+                callEvent.objects = objects;
+                callEvent.arrays = arrays;
+                callEvent.collections = collections;
+                callEvent.maps = maps;
+                callEvent.identityHits = identityHits;
+                callEvent.estimatedBytes = estimatedBytes;
+                callEvent.commit();
+            }
+        }
+        if (CLASS_EVENT.isEnabled()) {
+            byClass.forEach((clazz, counts) -> {
+                DeepCopyClassEvent classEvent = new DeepCopyClassEvent();
+                classEvent.rootType = rootType;
+                classEvent.copiedType = clazz;
+                classEvent.copies = counts[0];
+                classEvent.estimatedBytes = counts[1];
+                classEvent.commit();
+            });
+        }
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
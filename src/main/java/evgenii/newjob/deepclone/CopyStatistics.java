@@ -0,0 +1,36 @@
+package evgenii.newjob.deepclone;
+
+import java.util.Map;
+
+/**
+ * Statistics of one or more deep copy calls.
+ * Immutable objects shared by the copy are not counted, since nothing is copied for them.
+ *
+ * @param rootType       The class of the copied root, {@code null} for statistics of several calls.
+ * @param calls          The number of deep copy calls.
+ * @param objects        The number of plain objects copied.
+ * @param arrays         The number of arrays copied.
+ * @param collections    The number of Collections copied.
+ * @param maps           The number of Maps copied.
+ * @param identityHits   The number of references resolved to an existing copy, which are shared or cyclic references.
+ * @param estimatedBytes The estimated number of bytes allocated for the copies, assuming compressed references.
+ * @param durationNanos  The time spent copying in nanoseconds.
+ * @param copiesByClass  The number of copies per copied class.
+ */
+public record CopyStatistics(Class<?> rootType, long calls, long objects, long arrays, long collections, long maps,
+                             long identityHits, long estimatedBytes, long durationNanos,
+                             Map<Class<?>, Long> copiesByClass) {
+
+    public CopyStatistics {
+        copiesByClass = Map.copyOf(copiesByClass);
+    }
+
+    /**
+     * Returns the total number of copies of all kinds.
+     *
+     * @return The number of copied objects, arrays, Collections and Maps.
+     */
+    public long copies() {
+        return objects + arrays + collections + maps;
+    }
+}
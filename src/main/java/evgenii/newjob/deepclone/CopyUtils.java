@@ -1,34 +1,22 @@
 package evgenii.newjob.deepclone;
 
-
-import evgenii.newjob.deepclone.exception.DeepCopyException;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.IdentityHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Utility class to make deep copies of objects.
  * A deep copy of an Object is a reproduction of the original
  * object and its recursively referenced objects.
+ * Each call is performed with its own {@link CopyContext}, so concurrent calls are independent.
  */
 public class CopyUtils {
 
     /**
-     * Map for handling object references during deep copy process.
-     * Helps in avoiding infinite recursion and duplicate copies of same object.
+     * Default minimal number of elements of an array, Collection or Map to copy in parallel.
      */
-    private static final Map<Object, Object> copiedObjects = new IdentityHashMap<>();
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
 
     /**
      * Method for performing a deep copy of an object.
@@ -38,181 +26,306 @@ public class CopyUtils {
      * @return The deep copied object.
      */
     public static <T> T deepCopy(T original) {
-        if (original == null) {
-            return null;
-        }
-        return (T) copyObject(original);
+        return deepCopy(original, TraversalMode.RECURSIVE);
+    }
+
+    /**
+     * Method for performing a deep copy of an object with the given traversal mode.
+     * {@link TraversalMode#ITERATIVE} copies graphs of any depth, such as long linked chains,
+     * without running into a {@link StackOverflowError}. {@link TraversalMode#LAZY} defers building
+     * nested Lists, Sets and Maps until they are written to, and copying their elements until they are read.
+     *
+     * @param original The object to be deep copied.
+     * @param mode     The traversal mode.
+     * @param <T>      The type of the object to be deep copied.
+     * @return The deep copied object.
+     */
+    public static <T> T deepCopy(T original, TraversalMode mode) {
+        return deepCopy(original, mode, CopyPolicy.DEFAULT);
     }
 
     /**
-     * Inner method to handle the deep copy process.
-     * Determines if object is a primitive, String, array, or Collection and
-     * directs copying to relevant method. Recursive structures are handled
-     * with a Map of already copied references.
+     * Method for performing a deep copy of an object under the given policy,
+     * which decides which fields and classes are shared or skipped and limits the size of the copy.
      *
      * @param original The object to be deep copied.
+     * @param policy   The copy policy.
+     * @param <T>      The type of the object to be deep copied.
      * @return The deep copied object.
      */
-    private static Object copyObject(Object original) {
+    public static <T> T deepCopy(T original, CopyPolicy policy) {
+        return deepCopy(original, TraversalMode.RECURSIVE, policy);
+    }
+
+    /**
+     * Method for performing a deep copy of an object with the given traversal mode under the given policy.
+     *
+     * @param original The object to be deep copied.
+     * @param mode     The traversal mode.
+     * @param policy   The copy policy.
+     * @param <T>      The type of the object to be deep copied.
+     * @return The deep copied object.
+     * @throws evgenii.newjob.deepclone.exception.DeepCopyException If the copy exceeds the object budget of the policy.
+     */
+    public static <T> T deepCopy(T original, TraversalMode mode, CopyPolicy policy) {
         if (original == null) {
             return null;
         }
+        return copy(original, CopyContext.acquire(mode, policy));
+    }
 
-        Class<?> clazz = original.getClass();
+    /**
+     * Method for performing a deep copy of an object which replaces equal Strings and boxed primitives
+     * by a single canonical instance from the given table, so the copy holds every distinct value once.
+     * Suited for long-lived copies of freshly parsed data, such as caches. The table reports the number
+     * of replaced duplicates and the estimated bytes saved, and can be reused to deduplicate across calls.
+     *
+     * @param original    The object to be deep copied.
+     * @param internTable The table of canonical values.
+     * @param <T>         The type of the object to be deep copied.
+     * @return The deep copied object.
+     * @see #deepCopy(Object, TraversalMode, CopyPolicy, InternTable)
+     */
+    public static <T> T deepCopy(T original, InternTable internTable) {
+        return deepCopy(original, TraversalMode.RECURSIVE, CopyPolicy.DEFAULT, internTable);
+    }
 
-        // If the object is a primitive, String, or wrapper class, return the object
-        if (clazz.isPrimitive() || original instanceof String || original instanceof Integer || original instanceof Double) {
-            return original;
+    /**
+     * Method for performing a deduplicating deep copy of an object with the given traversal mode under the given policy.
+     * Values of fields and classes shared by the policy are not replaced.
+     *
+     * @param original    The object to be deep copied.
+     * @param mode        The traversal mode.
+     * @param policy      The copy policy.
+     * @param internTable The table of canonical values.
+     * @param <T>         The type of the object to be deep copied.
+     * @return The deep copied object.
+     */
+    public static <T> T deepCopy(T original, TraversalMode mode, CopyPolicy policy, InternTable internTable) {
+        if (internTable == null) {
+            throw new IllegalArgumentException("Intern table must not be null");
         }
-
-        if (copiedObjects.containsKey(original)) {
-            return copiedObjects.get(original);
+        if (original == null) {
+            return null;
         }
+        return copy(original, CopyContext.acquire(mode, policy, internTable));
+    }
 
-        if (clazz.isArray()) {
-            return copyArray(original);
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T original, CopyContext context) {
+        try {
+            Object copy = context.copyGraph(original);
+            context.complete(original);
+            return (T) copy;
+        } finally {
+            context.release();
         }
+    }
 
-        if (Collection.class.isAssignableFrom(clazz)) {
-            return copyCollection((Collection<?>) original);
+    /**
+     * Turns the destination, an earlier deep copy of the source, into a deep copy of the current source
+     * in place, reusing its objects, arrays, Collections and Maps wherever the source still has the same shape.
+     * Primitive fields and array elements are overwritten, objects are paired by field, array index or position
+     * in a Collection or Map, and are only allocated where the class or size changed. Suited for periodically
+     * refreshed copies of a slowly changing graph, which then allocate next to nothing.
+     * Collections and Maps are refilled, so hash based ones allocate their entries again.
+     * The destination must not share mutable objects with the source. Deep graphs are refreshed without
+     * recursion. If the refresh fails, for example on a cycle through a record, the destination is left partly
+     * refreshed, holding new values in the objects reached before the failure and old ones elsewhere, and should
+     * be discarded.
+     *
+     * @param source      The root of the graph to copy.
+     * @param destination The root of the graph to refresh, of the same class as the source.
+     * @param <T>         The type of the roots.
+     * @return The numbers of reused and allocated objects.
+     * @throws IllegalArgumentException If the destination root is of a different class, or an array of a different
+     *                                  length, or an immutable object that cannot be refreshed in place.
+     */
+    public static <T> RefreshStatistics copyInto(T source, T destination) {
+        if (source == null || destination == null) {
+            throw new IllegalArgumentException("Source and destination must not be null");
         }
-
-        if (original instanceof Map) {
-            return copyMap((Map<?, ?>) original);
+        GraphRefresher refresher = GraphRefresher.acquire();
+        try {
+            return refresher.refresh(source, destination);
+        } finally {
+            refresher.release();
         }
+    }
 
+    /**
+     * Checks if two object graphs are deeply equal, such as an object and its deep copy, without relying on
+     * {@code equals} of the copied classes. Objects are compared field by field along the references a deep copy
+     * follows, so skipped fields are ignored, while Strings, boxed primitives, other JDK value types and shared
+     * objects are compared with {@code equals}. Other immutable objects are compared field by field. Objects of
+     * one graph must correspond to objects of the same class in the other, except that any two Lists, Sets or Maps
+     * can be equal, and shared and cyclic references must correspond as well.
+     * Lists and arrays are compared by position, Sets and Maps regardless of their iteration order.
+     *
+     * @param first  The root of the first graph, may be {@code null}.
+     * @param second The root of the second graph, may be {@code null}.
+     * @return {@code true} if the graphs are deeply equal.
+     * @see #deepHashCode(Object)
+     */
+    public static boolean deepEquals(Object first, Object second) {
+        if (first == second) {
+            return true;
+        }
+        GraphWalker walker = GraphWalker.acquire();
         try {
-            Object copy;
-            if (!clazz.getDeclaredConstructors()[0].isAccessible()) {
-                clazz.getDeclaredConstructors()[0].setAccessible(true);
-            }
-            Constructor<?> constructor = clazz.getDeclaredConstructors()[0];
-            constructor.setAccessible(true);
-
-            Class<?>[] parameterTypes = constructor.getParameterTypes();
-            Object[] parameterValues = new Object[parameterTypes.length];
-
-            for (int i = 0; i < parameterTypes.length; i++) {
-                parameterValues[i] = getDefault(parameterTypes[i]);
-            }
-
-            copy = constructor.newInstance(parameterValues);
-            copiedObjects.put(original, copy);
-
-            // Copy fields
-            for (Field field : clazz.getDeclaredFields()) {
-                field.setAccessible(true);
-                Object fieldValue = field.get(original);
-                if (fieldValue != null) {
-                    Object copiedValue = copyObject(fieldValue);
-                    field.set(copy, copiedValue);
-                }
-            }
-            return copy;
-        } catch (Exception e) {
-            throw new DeepCopyException("Error during object copy");
+            return walker.equal(first, second);
+        } finally {
+            walker.release();
         }
     }
 
     /**
-     * Provides default values for given types.
+     * Returns a hash code of the object graph consistent with {@link #deepEquals(Object, Object)},
+     * which visits every object of the graph once.
      *
-     * @param type The class of type to provide a default value.
-     * @return The default value object.
+     * @param object The root of the graph, may be {@code null}.
+     * @return The hash code of the graph.
      */
-    private static Object getDefault(Class<?> type) {
-        if (type.isPrimitive()) {
-            if (type.equals(boolean.class)) return false;
-            if (type.equals(int.class)) return 0;
-            if (type.equals(long.class)) return 0L;
-            if (type.equals(double.class)) return 0.0d;
-            if (type.equals(float.class)) return 0.0f;
-            if (type.equals(char.class)) return '\u0000';
-            if (type.equals(byte.class)) return (byte) 0;
-            if (type.equals(short.class)) return (short) 0;
-        } else if (type.equals(String.class)) {
-            return "";
-        } else if (Collection.class.isAssignableFrom(type)) {
-            return Collections.emptyList();
+    public static int deepHashCode(Object object) {
+        GraphWalker walker = GraphWalker.acquire();
+        try {
+            return walker.hashCode(object);
+        } finally {
+            walker.release();
         }
-        return null;
     }
 
     /**
-     * Handles copying for array types.
+     * Estimates the heap size of the object graph, counting every reachable object once, Strings and other
+     * values included, for a 64-bit JVM with compressed references. Objects are reached along the references
+     * a deep copy follows, so objects only reachable through skipped fields are not counted.
+     * The internals of JDK Collections and Maps are estimated from their size, those of big numbers from their bit length.
      *
-     * @param original The array object to be deep copied.
-     * @return The deep copied array.
+     * @param object The root of the graph, may be {@code null}.
+     * @return The estimated size in bytes.
      */
-    private static Object copyArray(Object original) {
-        Class<?> componentType = original.getClass().getComponentType();
-        int length = Array.getLength(original);
-        Object copy = Array.newInstance(componentType, length);
-        copiedObjects.put(original, copy);
-        for (int i = 0; i < length; i++) {
-            Array.set(copy, i, copyObject(Array.get(original, i)));
+    public static long deepSizeOf(Object object) {
+        GraphWalker walker = GraphWalker.acquire();
+        try {
+            return walker.sizeOf(object);
+        } finally {
+            walker.release();
         }
-        return copy;
     }
 
     /**
-     * Handles copying for java.util.Collection types.
-     * Determines the appropriate sub-type of Collection and makes a new instance
-     * before recursively copying elements.
+     * Method for performing a deep copy of a large object graph on a fork/join pool.
+     * Arrays, Lists, Sets and Maps of at least {@link #DEFAULT_PARALLEL_THRESHOLD} elements are split
+     * into fork/join tasks, smaller graphs are copied sequentially.
      *
-     * @param original The Collection object to be deep copied.
-     * @return The deep copied Collection.
+     * @param original The object to be deep copied.
+     * @param pool     The pool to run the copy on.
+     * @param <T>      The type of the object to be deep copied.
+     * @return The deep copied object.
+     * @see #deepCopyParallel(Object, ForkJoinPool, int)
      */
-    private static Collection<?> copyCollection(Collection<?> original) {
-        Collection copy;
-        if (original instanceof List) {
-            copy = new ArrayList<>(original.size());
-        } else if (original instanceof Set) {
-            copy = new HashSet<>(Math.max((int) (original.size() / 0.75f) + 1, 16));
-        } else if (original instanceof Queue) {
-            copy = new LinkedList<>();
-        } else {
+    public static <T> T deepCopyParallel(T original, ForkJoinPool pool) {
+        return deepCopyParallel(original, pool, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Method for performing a deep copy of a large object graph on a fork/join pool.
+     * Arrays, Lists, Sets and Maps of at least the given number of elements are split
+     * into fork/join tasks, smaller ones are copied sequentially by the thread reaching them.
+     * Shared and cyclic references still resolve to a single copy through an identity table
+     * shared by all threads. Objects reachable from several parallel branches may still be filled by
+     * another thread when they are referenced, so Sets, Maps and other hash based or sorted collections
+     * reaching them are populated once all branches joined, and immutable Sets and Maps reaching them
+     * are copied to a {@link java.util.LinkedHashSet} or {@link java.util.LinkedHashMap}, as are immutable
+     * collections reached by several threads at once.
+     * Parallel copies follow the {@link CopyPolicy#DEFAULT} policy.
+     *
+     * @param original          The object to be deep copied.
+     * @param pool              The pool to run the copy on.
+     * @param parallelThreshold The minimal number of elements to copy in parallel.
+     * @param <T>               The type of the object to be deep copied.
+     * @return The deep copied object.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deepCopyParallel(T original, ForkJoinPool pool, int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive: " + parallelThreshold);
+        }
+        if (original == null) {
+            return null;
+        }
+        ConcurrentIdentityTable sharedCopies = new ConcurrentIdentityTable(pool.getParallelism());
+        Queue<Object[]> deferredPopulations = new ConcurrentLinkedQueue<>();
+        return (T) pool.invoke(ForkJoinTask.adapt(() -> {
+            CopyContext context = CopyContext.acquireParallel(sharedCopies, deferredPopulations, parallelThreshold,
+                    CopyRecorder.start());
             try {
-                copy = original.getClass().getDeclaredConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Cannot create a copy of the collection of type " + original.getClass(), e);
+                Object copy = context.copyGraph(original);
+                context.populateDeferredContainers();
+                context.complete(original);
+                return copy;
+            } finally {
+                context.release();
             }
-        }
-
-        copiedObjects.put(original, copy);
-
-        original.forEach(item -> copy.add(copyObject(item)));
-
-        return copy;
+        }));
     }
 
     /**
-     * Handles copying for java.util.Map types.
-     * Determines the appropriate sub-type of Map and makes a new instance
-     * before recursively copying keys and values.
+     * Registers a listener notified with the statistics of every following deep copy call.
+     * Statistics are collected only while a listener is registered or a deep copy event is enabled
+     * in JDK Flight Recorder, otherwise instrumentation costs next to nothing.
      *
-     * @param original The Map object to be deep copied.
-     * @return The deep copied Map.
+     * @param listener The listener to register.
+     * @see CumulativeCopyStatistics
      */
-    private static Map<?, ?> copyMap(Map<?, ?> original) {
-        Map<Object, Object> copy;
-        try {
-            // Attempt to create a new instance of the original map's runtime class
-            copy = original.getClass().getDeclaredConstructor().newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Cannot create a copy of the map of type " + original.getClass(), e);
+    public static void addListener(CopyListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
         }
+        CopyRecorder.addListener(listener);
+    }
 
-        copiedObjects.put(original, copy);
+    /**
+     * Unregisters a listener registered with {@link #addListener(CopyListener)}.
+     *
+     * @param listener The listener to unregister.
+     */
+    public static void removeListener(CopyListener listener) {
+        CopyRecorder.removeListener(listener);
+    }
 
-        // Iterate through the original map, deep copying both keys and values
-        for (Map.Entry<?, ?> entry : original.entrySet()) {
-            Object keyCopy = copyObject(entry.getKey());
-            Object valueCopy = copyObject(entry.getValue());
-            copy.put(keyCopy, valueCopy);
+    /**
+     * Analyses the template once and returns a prototype stamping out independent deep copies of it.
+     * Suited for templates copied many times, such as default configuration trees.
+     *
+     * @param template The object to be copied many times.
+     * @param <T>      The type of the template.
+     * @return The prototype creating copies of the template.
+     */
+    public static <T> Prototype<T> prototype(T template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Template must not be null");
         }
+        return new Prototype<>(template);
+    }
 
-        return copy;
+    /**
+     * Encodes the graph into a compact binary snapshot, which materializes independent deep copies of it.
+     * Unlike a {@link Prototype}, the snapshot keeps no objects of the graph, only its encoded form,
+     * which can be written to a file, memory-mapped or passed to another JVM.
+     *
+     * @param graph The root of the graph to take a snapshot of.
+     * @param <T>   The type of the root.
+     * @return The snapshot of the graph.
+     * @throws evgenii.newjob.deepclone.exception.DeepCopyException If the graph contains instances of JDK classes
+     *                                                              which are neither Collections, Maps nor serializable.
+     * @see Snapshot#materialize()
+     */
+    public static <T> Snapshot<T> snapshot(T graph) {
+        if (graph == null) {
+            throw new IllegalArgumentException("Graph must not be null");
+        }
+        return Snapshot.of(graph);
     }
 
 }
@@ -0,0 +1,64 @@
+package evgenii.newjob.deepclone;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener summing up the statistics of all deep copy calls since its registration or last reset.
+ * Safe to be notified by several threads at once.
+ */
+public final class CumulativeCopyStatistics implements CopyListener {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder objects = new LongAdder();
+    private final LongAdder arrays = new LongAdder();
+    private final LongAdder collections = new LongAdder();
+    private final LongAdder maps = new LongAdder();
+    private final LongAdder identityHits = new LongAdder();
+    private final LongAdder estimatedBytes = new LongAdder();
+    private final LongAdder durationNanos = new LongAdder();
+    private final Map<Class<?>, LongAdder> copiesByClass = new ConcurrentHashMap<>();
+
+    @Override
+    public void copyCompleted(CopyStatistics statistics) {
+        calls.add(statistics.calls());
+        objects.add(statistics.objects());
+        arrays.add(statistics.arrays());
+        collections.add(statistics.collections());
+        maps.add(statistics.maps());
+        identityHits.add(statistics.identityHits());
+        estimatedBytes.add(statistics.estimatedBytes());
+        durationNanos.add(statistics.durationNanos());
+        statistics.copiesByClass().forEach((clazz, count) ->
+                copiesByClass.computeIfAbsent(clazz, key -> new LongAdder()).add(count));
+    }
+
+    /**
+     * Returns the sums of all calls so far. Calls completing concurrently may be counted partially.
+     *
+     * @return The cumulative statistics.
+     */
+    public CopyStatistics snapshot() {
+        Map<Class<?>, Long> counts = new HashMap<>();
+        copiesByClass.forEach((clazz, count) -> counts.put(clazz, count.sum()));
+        return new CopyStatistics(null, calls.sum(), objects.sum(), arrays.sum(), collections.sum(), maps.sum(),
+                identityHits.sum(), estimatedBytes.sum(), durationNanos.sum(), counts);
+    }
+
+    /**
+     * Starts counting from zero again.
+     */
+    public void reset() {
+        calls.reset();
+        objects.reset();
+        arrays.reset();
+        collections.reset();
+        maps.reset();
+        identityHits.reset();
+        estimatedBytes.reset();
+        durationNanos.reset();
+        copiesByClass.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package evgenii.newjob.deepclone;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of the copies of one class made by a deep copy call,
+ * committed for each copied class when the call completes.
+ */
+@Name("evgenii.newjob.deepclone.DeepCopyClass")
+@Label("Deep Copy Class")
+@Category("Deep Copy")
+@Description("Copies of one class made by a deep copy")
+final class DeepCopyClassEvent extends jdk.jfr.Event {
+
+    @Label("Root Type")
+    Class<?> rootType;
+
+    @Label("Copied Type")
+    Class<?> copiedType;
+
+    @Label("Copies")
+    long copies;
+
+    @Label("Estimated Allocation")
+    @DataAmount
+    long estimatedBytes;
+}
@@ -0,0 +1,40 @@
+package evgenii.newjob.deepclone;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a completed deep copy call, its duration is the duration of the call.
+ */
+@Name("evgenii.newjob.deepclone.DeepCopy")
+@Label("Deep Copy")
+@Category("Deep Copy")
+@Description("Deep copy of an object graph")
+final class DeepCopyEvent extends jdk.jfr.Event {
+
+    @Label("Root Type")
+    Class<?> rootType;
+
+    @Label("Objects")
+    long objects;
+
+    @Label("Arrays")
+    long arrays;
+
+    @Label("Collections")
+    long collections;
+
+    @Label("Maps")
+    long maps;
+
+    @Label("Identity Hits")
+    @Description("References resolved to an existing copy")
+    long identityHits;
+
+    @Label("Estimated Allocation")
+    @DataAmount
+    long estimatedBytes;
+}
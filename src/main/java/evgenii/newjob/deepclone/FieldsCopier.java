@@ -0,0 +1,82 @@
+package evgenii.newjob.deepclone;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Copies the instance fields of one object into another object of the same class.
+ * Value fields, which are primitive fields and shared reference fields, are copied as they are.
+ * Reference fields are accessed by their index, so that callers can decide how referenced objects are copied.
+ */
+interface FieldsCopier {
+
+    /**
+     * Copies all value fields of the original into the copy.
+     *
+     * @param original The object to read the fields from.
+     * @param copy     The object to write the fields to.
+     * @throws Throwable If a field cannot be read or written.
+     */
+    void copyValues(Object original, Object copy) throws Throwable;
+
+    /**
+     * Returns the number of value fields.
+     *
+     * @return The number of value fields.
+     */
+    int valueCount();
+
+    /**
+     * Reads a value field, boxing primitive values.
+     *
+     * @param object The object to read the field of.
+     * @param index  The index of the value field.
+     * @return The value of the field.
+     * @throws Throwable If the field cannot be read.
+     */
+    Object getValue(Object object, int index) throws Throwable;
+
+    /**
+     * Returns the number of reference fields.
+     *
+     * @return The number of reference fields.
+     */
+    int referenceCount();
+
+    /**
+     * Reads a reference field.
+     *
+     * @param object The object to read the field of.
+     * @param index  The index of the reference field.
+     * @return The value of the field.
+     * @throws Throwable If the field cannot be read.
+     */
+    Object getReference(Object object, int index) throws Throwable;
+
+    /**
+     * Writes a reference field.
+     *
+     * @param object The object to write the field of.
+     * @param index  The index of the reference field.
+     * @param value  The new value of the field.
+     * @throws Throwable If the field cannot be written.
+     */
+    void setReference(Object object, int index, Object value) throws Throwable;
+
+    /**
+     * Copies all fields of the original into the copy.
+     *
+     * @param original        The object to read the fields from.
+     * @param copy            The object to write the fields to.
+     * @param referenceCopier The function used to copy referenced objects.
+     * @throws Throwable If a field cannot be read or written.
+     */
+    default void copyFields(Object original, Object copy, UnaryOperator<Object> referenceCopier) throws Throwable {
+        copyValues(original, copy);
+        for (int i = 0, count = referenceCount(); i < count; i++) {
+            Object fieldValue = getReference(original, i);
+            if (fieldValue != null) {
+                setReference(copy, i, referenceCopier.apply(fieldValue));
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Walks a source graph together with the destination graph of an earlier copy and turns the destination
+ * into a deep copy of the source, reusing its objects wherever the shape of the source still matches.
+ * Every source object is paired with the destination object found at the same place: the same field,
+ * array index, or position in the iteration order of a Collection or Map. A destination object of the
+ * same class is reused, arrays only with the same length and sorted containers only with the same comparator,
+ * everything else is allocated as by a deep copy. Records and immutable collections are reused when all their
+ * copied components or contents come out unchanged, otherwise they are created again.
+ * <p>
+ * Each destination object is reused for at most one source object, so shared and cyclic references
+ * of the source come out of the refresh as they are. An immutable collection reached again through a cycle
+ * while its contents are refreshed comes out as a mutable stand-in, as in a deep copy, cycles through records
+ * cannot be refreshed. Copies follow the {@link CopyPolicy#DEFAULT} policy. Skipped fields of reused objects
+ * keep their value.
+ * <p>
+ * Objects are refreshed from a {@link WorkStack} like in the {@link TraversalMode#ITERATIVE} traversal, so deep
+ * graphs do not overflow the Java stack, and Collections and Maps are refilled once their contents are refreshed.
+ * A refresh that fails leaves the destination partly refreshed: objects reached before the failure hold the new
+ * values, the others the old ones, and a Collection or Map keeps its old contents unless it failed while being
+ * refilled. Such a destination is a copy of neither graph and is best discarded.
+ * <p>
+ * Like a {@link CopyContext}, a refresher is confined to one thread and reused by the following calls
+ * on that thread, so its tables do not allocate once grown.
+ */
+final class GraphRefresher {
+
+    private static final ThreadLocal<GraphRefresher> REFRESHERS = ThreadLocal.withInitial(GraphRefresher::new);
+
+    /**
+     * Marker of a record or immutable collection whose contents are being refreshed, which detects cycles through it.
+     */
+    private static final Object IN_CONSTRUCTION = new Object();
+
+    /**
+     * Marker of a destination object already reused for a source object.
+     */
+    private static final Object REUSED = new Object();
+
+    private final CopyPolicy policy = CopyPolicy.DEFAULT;
+
+    /**
+     * Source objects mapped to their refreshed or allocated copies, and reused destination objects
+     * mapped to {@link #REUSED}. The destination must not share objects with the source, so the keys never clash.
+     */
+    private final IdentityTable copies = new IdentityTable();
+
+    /**
+     * Objects whose contents are still to be refreshed, and refreshed contents of Collections and Maps
+     * still to be added to their copies.
+     */
+    private final WorkStack pendingOperations = new WorkStack();
+
+    /**
+     * Source objects mapped to their copies while refreshing their contents is pending.
+     */
+    private final IdentityTable pendingFills = new IdentityTable();
+
+    private long reused;
+    private long allocated;
+    private boolean inUse;
+
+    private GraphRefresher() {
+    }
+
+    /**
+     * Returns the refresher of the current thread, or a fresh one if it is in use by an enclosing call.
+     *
+     * @return The refresher, to be released after the call.
+     */
+    static GraphRefresher acquire() {
+        GraphRefresher refresher = REFRESHERS.get();
+        if (refresher.inUse) {
+            refresher = new GraphRefresher();
+        }
+        refresher.inUse = true;
+        return refresher;
+    }
+
+    /**
+     * Resets the refresher in place, so it can be reused by the next call.
+     */
+    void release() {
+        copies.clear();
+        pendingOperations.clear();
+        pendingFills.clear();
+        reused = 0;
+        allocated = 0;
+        inUse = false;
+    }
+
+    /**
+     * Refreshes the destination root from the source root.
+     *
+     * @param source      The root of the source graph.
+     * @param destination The root of the destination graph, of the class of the source root.
+     * @return The statistics of the refresh.
+     * @throws IllegalArgumentException If the destination root cannot be reused for the source root.
+     */
+    RefreshStatistics refresh(Object source, Object destination) {
+        if (source == destination) {
+            throw new IllegalArgumentException("Source and destination must be distinct graphs");
+        }
+        if (!isReusable(source, destination) || isBuiltFromContents(source)) {
+            throw new IllegalArgumentException("Destination of type " + destination.getClass().getName()
+                    + " cannot be refreshed from a source of type " + source.getClass().getName());
+        }
+        copies.put(destination, REUSED);
+        schedule(source, destination);
+        completePendingOperations(0);
+        return new RefreshStatistics(reused, allocated);
+    }
+
+    /**
+     * Returns the copy of a source value, reusing the given destination value if possible.
+     * Refreshing the contents of the copy is pushed to the work stack.
+     *
+     * @param source    The source value.
+     * @param candidate The destination value found at the same place, may be {@code null}.
+     * @return The refreshed or newly allocated copy.
+     */
+    private Object copy(Object source, Object candidate) {
+        byte kind = policy.kindOf(source);
+        if (kind != CopyPolicy.COPIED) {
+            return kind == CopyPolicy.SKIPPED ? null : source;
+        }
+        Class<?> clazz = source.getClass();
+        ClassCopyPlan plan = policy.planOf(clazz);
+        Object existing = copies.get(source);
+        if (existing == IN_CONSTRUCTION) {
+            existing = standInFor(source, clazz);
+        }
+        if (existing != null) {
+            if (pendingFills.get(source) != null) {
+                // Refreshed before the object or container referencing it, so hash based containers
+                // are never refilled with copies whose fields are still the old ones
+                pendingOperations.push(WorkStack.FILL, source, existing, 0);
+            }
+            return existing;
+        }
+
+        if (isBuiltFromContents(source)) {
+            return build(source, candidate, plan);
+        }
+        if (isReusable(source, candidate)) {
+            reused++;
+            copies.put(candidate, REUSED);
+            schedule(source, candidate);
+            return candidate;
+        }
+        allocated++;
+        // Flat arrays and containers are copied completely, other copies are allocated empty and filled
+        Object copy;
+        if (clazz.isArray() && ArrayCopies.isFlat(clazz)) {
+            copy = ArrayCopies.cloneFlat(source);
+        } else if ((source instanceof Collection || source instanceof Map) && ContainerCopier.of(clazz).isFlat()) {
+            copy = ContainerCopier.of(clazz).allocate(source);
+        } else {
+            copy = CopyContext.allocate(source, clazz, plan);
+            schedule(source, copy);
+            return copy;
+        }
+        copies.put(source, copy);
+        return copy;
+    }
+
+    /**
+     * Registers the reused or allocated copy of a source object and pushes refreshing its contents.
+     */
+    private void schedule(Object source, Object copy) {
+        copies.put(source, copy);
+        pendingFills.put(source, copy);
+        pendingOperations.push(WorkStack.FILL, source, copy, 0);
+    }
+
+    /**
+     * Performs pending operations until only the given number of them is left.
+     *
+     * @param remaining The number of operations pushed before, which are left pending.
+     */
+    private void completePendingOperations(int remaining) {
+        while (pendingOperations.size() > remaining) {
+            byte operation = pendingOperations.pop();
+            Object source = pendingOperations.source();
+            Object target = pendingOperations.target();
+            switch (operation) {
+                case WorkStack.FILL -> {
+                    // Skipped if the copy was already refreshed when it was reached again
+                    if (pendingFills.get(source) != null) {
+                        pendingFills.put(source, null);
+                        refreshContents(source, target);
+                    }
+                }
+                case WorkStack.POPULATE -> {
+                    clear(target);
+                    ContainerCopier.of(target.getClass()).populate(target, (Object[]) source);
+                }
+                default -> throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+    }
+
+    /**
+     * Overwrites the contents of a reused or allocated copy with the copied contents of the source.
+     */
+    private void refreshContents(Object source, Object copy) {
+        Class<?> clazz = source.getClass();
+        if (clazz.isArray()) {
+            if (ArrayCopies.isFlat(clazz)) {
+                System.arraycopy(source, 0, copy, 0, Array.getLength(source));
+            } else {
+                Object[] sourceElements = (Object[]) source;
+                Object[] copyElements = (Object[]) copy;
+                for (int i = 0; i < sourceElements.length; i++) {
+                    copyElements[i] = copy(sourceElements[i], copyElements[i]);
+                }
+            }
+        } else if (source instanceof Collection || source instanceof Map) {
+            refreshContainer(source, copy);
+        } else {
+            try {
+                ClassCopyPlan plan = policy.planOf(clazz);
+                plan.copyValues(source, copy);
+                for (int i = 0; i < plan.referenceCount(); i++) {
+                    plan.setReference(copy, i, copy(plan.getReference(source, i), plan.getReference(copy, i)));
+                }
+            } catch (DeepCopyException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new DeepCopyException("Error during object refresh", e);
+            }
+        }
+    }
+
+    /**
+     * Pairs the contents by position, then refills the container once they are refreshed, so hash based
+     * containers rehash the refreshed elements and keys.
+     */
+    @SuppressWarnings("unchecked")
+    private void refreshContainer(Object source, Object copy) {
+        if (isEmpty(source) && isEmpty(copy)) {
+            return;
+        }
+        // Lists of the same size are refreshed element by element, without refilling them
+        if (source instanceof List<?> sourceList && source instanceof RandomAccess
+                && ((List<?>) copy).size() == sourceList.size() && !ContainerCopier.of(source.getClass()).isFlat()) {
+            List<Object> copyList = (List<Object>) copy;
+            for (int i = 0; i < sourceList.size(); i++) {
+                copyList.set(i, copy(sourceList.get(i), copyList.get(i)));
+            }
+            return;
+        }
+        Object[] contents = ContainerCopier.contentsOf(source);
+        // Pushed below the contents, so it runs once their subgraphs are refreshed
+        pendingOperations.push(WorkStack.POPULATE, contents, copy, 0);
+        if (!ContainerCopier.of(source.getClass()).isFlat()) {
+            Object[] candidates = ContainerCopier.contentsOf(copy);
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = copy(contents[i], i < candidates.length ? candidates[i] : null);
+            }
+        }
+    }
+
+    /**
+     * Creates the copy of a record or immutable collection, or reuses the candidate if none of its contents changed.
+     * The contents are refreshed completely before, since the copy can only be created from them.
+     */
+    private Object build(Object source, Object candidate, ClassCopyPlan plan) {
+        copies.put(source, IN_CONSTRUCTION);
+        int remaining = pendingOperations.size();
+        // Contents are paired with those of a candidate of the same class even if the candidate itself is not reused
+        boolean paired = candidate != null && candidate.getClass() == source.getClass()
+                && copies.get(candidate) != REUSED;
+        boolean matching = paired;
+        Object copy;
+        try {
+            if (plan.isRecord()) {
+                Object[] components = plan.components(source);
+                Object[] candidateComponents = paired ? plan.components(candidate) : null;
+                for (int i = 0; i < components.length; i++) {
+                    if (plan.isCopiedComponent(i)) {
+                        components[i] = copy(components[i], paired ? candidateComponents[i] : null);
+                        matching = matching && components[i] == candidateComponents[i];
+                    } else {
+                        matching = matching && Objects.equals(components[i], candidateComponents[i]);
+                    }
+                }
+                completePendingOperations(remaining);
+                copy = matching ? candidate : plan.newRecord(components);
+            } else {
+                Object[] contents = ContainerCopier.contentsOf(source);
+                Object[] candidateContents = paired ? ContainerCopier.contentsOf(candidate) : new Object[0];
+                matching = matching && candidateContents.length == contents.length;
+                for (int i = 0; i < contents.length; i++) {
+                    contents[i] = copy(contents[i], i < candidateContents.length ? candidateContents[i] : null);
+                    matching = matching && contents[i] == candidateContents[i];
+                }
+                completePendingOperations(remaining);
+                Object standIn = copies.get(source);
+                if (standIn != IN_CONSTRUCTION) {
+                    // Reached again through a cycle, which already references the mutable stand-in
+                    ContainerCopier.of(standIn.getClass()).populate(standIn, contents);
+                    return standIn;
+                }
+                copy = matching ? candidate : ContainerCopier.of(source.getClass()).build(contents);
+            }
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during object refresh", e);
+        }
+        if (matching) {
+            reused++;
+            copies.put(candidate, REUSED);
+        } else {
+            allocated++;
+        }
+        copies.put(source, copy);
+        return copy;
+    }
+
+    /**
+     * Returns the copy of an immutable collection reached again through a cycle while its contents are refreshed,
+     * an empty mutable one populated once they are. Records cannot be refreshed through a cycle.
+     */
+    private Object standInFor(Object source, Class<?> clazz) {
+        if (!(source instanceof Collection || source instanceof Map)) {
+            throw new DeepCopyException("Cyclic reference through a record of type " + clazz.getName());
+        }
+        allocated++;
+        Object standIn = ContainerCopier.mutableCounterpartOf(clazz).allocate(source);
+        copies.put(source, standIn);
+        return standIn;
+    }
+
+    /**
+     * Checks if the candidate can be overwritten with the contents of the source.
+     * An {@link java.util.EnumMap} is allocated with the values of its original, which are never candidates.
+     */
+    private boolean isReusable(Object source, Object candidate) {
+        if (candidate == null || candidate == source || candidate.getClass() != source.getClass()
+                || copies.get(candidate) == REUSED) {
+            return false;
+        }
+        if (source.getClass().isArray()) {
+            return Array.getLength(source) == Array.getLength(candidate);
+        }
+        if (source instanceof Collection || source instanceof Map) {
+            return ContainerCopier.comparatorOf(source) == ContainerCopier.comparatorOf(candidate);
+        }
+        return true;
+    }
+
+    private boolean isBuiltFromContents(Object source) {
+        if (source instanceof Collection || source instanceof Map) {
+            return ContainerCopier.of(source.getClass()).isBuiltFromContents();
+        }
+        return policy.planOf(source.getClass()).isRecord();
+    }
+
+    private static boolean isEmpty(Object container) {
+        return container instanceof Collection<?> collection ? collection.isEmpty() : ((Map<?, ?>) container).isEmpty();
+    }
+
+    private static void clear(Object container) {
+        if (container instanceof Collection<?> collection) {
+            collection.clear();
+        } else {
+            ((Map<?, ?>) container).clear();
+        }
+    }
+}
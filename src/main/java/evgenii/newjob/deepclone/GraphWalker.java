@@ -0,0 +1,556 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Iterative traversal of object graphs along the references a deep copy follows, going through the same
+ * cached {@link ClassCopyPlan} per class as copies do. Every object is visited once, however many references
+ * lead to it, so shared and cyclic references are walked once and deep graphs do not overflow the stack.
+ * The walker compares two graphs for deep equality, hashes and sizes a graph, all under the
+ * {@link CopyPolicy#DEFAULT} policy.
+ * <p>
+ * Strings, boxed primitives, other JDK value types and shared objects are values, compared with {@code equals}
+ * and never walked into. Other immutable objects are walked like mutable ones, since their {@code equals} may
+ * still compare identities. Skipped fields and objects of skipped classes are left out, so a graph equals its copy.
+ * Like a {@link CopyContext}, a walker is confined to one thread and reused by the following calls on that thread.
+ */
+final class GraphWalker {
+
+    /**
+     * Receives every object reached by a walk once.
+     */
+    @FunctionalInterface
+    interface Visitor {
+
+        /**
+         * Visits an object of the graph.
+         *
+         * @param object The object, never {@code null}.
+         * @throws Throwable If the object cannot be read.
+         */
+        void visit(Object object) throws Throwable;
+    }
+
+    /**
+     * Kinds of references: {@code null} or skipped, a value compared with {@code equals}, an object walked into.
+     */
+    private static final byte ABSENT = 0;
+    private static final byte VALUE = 1;
+    private static final byte NODE = 2;
+
+    /**
+     * Lists, Sets and Maps of different classes can be deeply equal, so only their kind is hashed.
+     */
+    private static final ClassValue<Integer> KIND_HASHES = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            if (List.class.isAssignableFrom(type)) {
+                return List.class.hashCode();
+            }
+            if (Set.class.isAssignableFrom(type)) {
+                return Set.class.hashCode();
+            }
+            return Map.class.isAssignableFrom(type) ? Map.class.hashCode() : type.hashCode();
+        }
+    };
+
+    private static final ThreadLocal<GraphWalker> WALKERS = ThreadLocal.withInitial(GraphWalker::new);
+
+    private final CopyPolicy policy = CopyPolicy.DEFAULT;
+
+    /**
+     * Objects visited by a walk, or objects of the first graph mapped to their counterparts in the second graph.
+     */
+    private final IdentityTable visited = new IdentityTable();
+
+    /**
+     * Objects of the second graph mapped to their counterparts in the first graph.
+     */
+    private final IdentityTable counterparts = new IdentityTable();
+
+    private final WorkStack stack = new WorkStack();
+
+    /**
+     * Walker whose pairs an element walker takes as given, {@code null} for walkers of a call.
+     */
+    private final GraphWalker parent;
+
+    /**
+     * Walker comparing the elements of Sets and keys of Maps on their own, created on first use.
+     */
+    private GraphWalker elementWalker;
+
+    private Visitor visitor;
+    private boolean visitsValues;
+    private long total;
+    private boolean inUse;
+
+    private GraphWalker() {
+        this(null);
+    }
+
+    private GraphWalker(GraphWalker parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Returns the walker of the current thread, or a fresh one if it is in use by an enclosing call.
+     *
+     * @return The walker, to be released after the call.
+     */
+    static GraphWalker acquire() {
+        GraphWalker walker = WALKERS.get();
+        if (walker.inUse) {
+            walker = new GraphWalker();
+        }
+        walker.inUse = true;
+        return walker;
+    }
+
+    /**
+     * Resets the walker in place, so it can be reused by the next call.
+     */
+    void release() {
+        visited.clear();
+        counterparts.clear();
+        stack.clear();
+        visitor = null;
+        total = 0;
+        inUse = false;
+    }
+
+    /**
+     * Checks if two graphs are deep copies of each other. Objects are paired by field, array index and
+     * position in Lists and other Collections, elements of Sets and keys of Maps are paired with a deeply
+     * equal element or key of the other container. Paired objects must be of the same class, Lists, Sets and Maps
+     * of the same kind of container, and every object of one graph is paired with exactly one object of the other.
+     *
+     * @param first  The root of the first graph.
+     * @param second The root of the second graph.
+     * @return {@code true} if the graphs are deeply equal.
+     */
+    boolean equal(Object first, Object second) {
+        try {
+            if (!pair(first, second)) {
+                return false;
+            }
+            while (stack.size() > 0) {
+                stack.pop();
+                if (!compareContents(stack.source(), stack.target())) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during graph comparison", e);
+        }
+    }
+
+    /**
+     * Hashes a graph consistently with {@link #equal(Object, Object)}. The hash of every object covers its class,
+     * its values and the classes of the objects it references, and the hashes of all objects are summed up,
+     * so the result does not depend on the order the objects are reached in.
+     *
+     * @param root The root of the graph.
+     * @return The hash code of the graph.
+     */
+    int hashCode(Object root) {
+        byte kind = kindOf(root);
+        if (kind != NODE) {
+            return kind == VALUE ? root.hashCode() : 0;
+        }
+        walk(root, false, object -> total += mix(localHash(object)));
+        return Long.hashCode(total);
+    }
+
+    /**
+     * Estimates the heap size of a graph, counting every object once, values included.
+     *
+     * @param root The root of the graph.
+     * @return The estimated size in bytes.
+     * @see ObjectSizes
+     */
+    long sizeOf(Object root) {
+        walk(root, true, object -> total += ObjectSizes.sizeOf(object));
+        return total;
+    }
+
+    /**
+     * Visits every object reachable from the root once, walking into all objects but values.
+     *
+     * @param root         The root of the graph.
+     * @param visitsValues Whether values are visited too.
+     * @param visitor      The visitor.
+     */
+    void walk(Object root, boolean visitsValues, Visitor visitor) {
+        this.visitor = visitor;
+        this.visitsValues = visitsValues;
+        try {
+            reach(root);
+            while (stack.size() > 0) {
+                stack.pop();
+                stack.target();
+                walkReferences(stack.source());
+            }
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during graph walk", e);
+        }
+    }
+
+    private void reach(Object object) throws Throwable {
+        byte kind = kindOf(object);
+        if (kind == ABSENT || (kind == VALUE && !visitsValues) || visited.get(object) != null) {
+            return;
+        }
+        visited.put(object, Boolean.TRUE);
+        visitor.visit(object);
+        if (kind == NODE) {
+            stack.push(WorkStack.VISIT, object, null, 0);
+        }
+    }
+
+    /**
+     * Reaches the copied references of an object, and its shared ones if values are visited.
+     */
+    private void walkReferences(Object object) throws Throwable {
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            if (object instanceof Object[] elements && (visitsValues || !ArrayCopies.isFlat(clazz))) {
+                for (Object element : elements) {
+                    reach(element);
+                }
+            }
+        } else if (object instanceof Collection || object instanceof Map) {
+            if (visitsValues || !ContainerCopier.of(clazz).isFlat()) {
+                for (Object content : ContainerCopier.contentsOf(object)) {
+                    reach(content);
+                }
+            }
+        } else {
+            ClassCopyPlan plan = policy.planOf(clazz);
+            if (plan.isRecord()) {
+                Object[] components = plan.components(object);
+                Field[] fields = plan.fields();
+                for (int i = 0; i < components.length; i++) {
+                    if (plan.isCopiedComponent(i)) {
+                        reach(components[i]);
+                    } else if (visitsValues && !fields[i].getType().isPrimitive()) {
+                        reachValue(components[i]);
+                    }
+                }
+                return;
+            }
+            if (visitsValues) {
+                for (int i = 0; i < plan.valueCount(); i++) {
+                    if (!plan.valueType(i).isPrimitive()) {
+                        reachValue(plan.getValue(object, i));
+                    }
+                }
+            }
+            for (int i = 0; i < plan.referenceCount(); i++) {
+                reach(plan.getReference(object, i));
+            }
+        }
+    }
+
+    /**
+     * Visits an object referenced by a shared field without walking into it.
+     */
+    private void reachValue(Object value) throws Throwable {
+        if (value != null && visited.get(value) == null) {
+            visited.put(value, Boolean.TRUE);
+            visitor.visit(value);
+        }
+    }
+
+    /**
+     * Pairs an object of the first graph with one of the second graph and schedules the comparison of their contents.
+     *
+     * @return {@code false} if the objects cannot be deeply equal.
+     */
+    private boolean pair(Object first, Object second) {
+        byte kind = kindOf(first);
+        if (kind == ABSENT || second == null) {
+            return kind == ABSENT && kindOf(second) == ABSENT;
+        }
+        if (kind == VALUE) {
+            return first.equals(second);
+        }
+        if (!isSameKind(first, second)) {
+            return false;
+        }
+        Object counterpart = counterpartOf(first);
+        if (counterpart != null) {
+            return counterpart == second;
+        }
+        if (isPaired(second)) {
+            return false;
+        }
+        visited.put(first, second);
+        counterparts.put(second, first);
+        stack.push(WorkStack.COMPARE, first, second, 0);
+        return true;
+    }
+
+    private boolean compareContents(Object first, Object second) throws Throwable {
+        Class<?> clazz = first.getClass();
+        if (clazz.isArray()) {
+            if (!(first instanceof Object[] firstElements)) {
+                return Objects.deepEquals(first, second);
+            }
+            Object[] secondElements = (Object[]) second;
+            return firstElements.length == secondElements.length && pairAll(firstElements, secondElements);
+        }
+        if (first instanceof Collection || first instanceof Map) {
+            Object[] firstContents = ContainerCopier.contentsOf(first);
+            Object[] secondContents = ContainerCopier.contentsOf(second);
+            if (firstContents.length != secondContents.length) {
+                return false;
+            }
+            if (first instanceof Set || first instanceof Map) {
+                return pairUnordered(firstContents, secondContents, first instanceof Map ? 2 : 1);
+            }
+            return pairAll(firstContents, secondContents);
+        }
+        ClassCopyPlan plan = policy.planOf(clazz);
+        if (plan.isRecord()) {
+            Object[] firstComponents = plan.components(first);
+            Object[] secondComponents = plan.components(second);
+            for (int i = 0; i < firstComponents.length; i++) {
+                if (plan.isCopiedComponent(i) ? !pair(firstComponents[i], secondComponents[i])
+                        : !Objects.equals(firstComponents[i], secondComponents[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (int i = 0; i < plan.valueCount(); i++) {
+            if (!Objects.equals(plan.getValue(first, i), plan.getValue(second, i))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < plan.referenceCount(); i++) {
+            if (!pair(plan.getReference(first, i), plan.getReference(second, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean pairAll(Object[] first, Object[] second) {
+        for (int i = 0; i < first.length; i++) {
+            if (!pair(first[i], second[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pairs the elements of two Sets, or the keys and values of two Maps, whose iteration orders may differ.
+     * Candidates are narrowed down by their hash first, then compared in isolation.
+     *
+     * @param stride 1 for the elements of Sets, 2 for the alternating keys and values of Maps.
+     */
+    private boolean pairUnordered(Object[] first, Object[] second, int stride) throws Throwable {
+        int count = first.length / stride;
+        // Hash in the upper half, index in the lower half, sorted to find all candidates of a hash
+        long[] candidates = new long[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = (long) elementHash(second[i * stride]) << 32 | i;
+        }
+        Arrays.sort(candidates);
+        boolean[] matched = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Object element = first[i * stride];
+            int hash = elementHash(element);
+            int index = Arrays.binarySearch(candidates, (long) hash << 32);
+            int match = -1;
+            for (index = index < 0 ? -index - 1 : index; index < count && (int) (candidates[index] >> 32) == hash; index++) {
+                int candidate = (int) candidates[index];
+                if (!matched[candidate] && isEqualElement(element, second[candidate * stride])) {
+                    match = candidate;
+                    break;
+                }
+            }
+            if (match < 0 || !pair(element, second[match * stride])
+                    || stride == 2 && !pair(first[i * 2 + 1], second[match * 2 + 1])) {
+                return false;
+            }
+            matched[match] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the object of the second graph paired with the given object by this walker or its parents.
+     */
+    private Object counterpartOf(Object first) {
+        Object counterpart = visited.get(first);
+        return counterpart != null || parent == null ? counterpart : parent.counterpartOf(first);
+    }
+
+    private boolean isPaired(Object second) {
+        return counterparts.get(second) != null || parent != null && parent.isPaired(second);
+    }
+
+    /**
+     * Compares an element or key with a candidate, pairing their objects in a separate walker that takes
+     * the pairs made so far as given, which ends cycles leading back to the Set or Map.
+     */
+    private boolean isEqualElement(Object first, Object second) {
+        if (kindOf(first) != NODE) {
+            return pair(first, second);
+        }
+        Object counterpart = counterpartOf(first);
+        if (counterpart != null) {
+            return counterpart == second;
+        }
+        if (elementWalker == null) {
+            elementWalker = new GraphWalker(this);
+        }
+        try {
+            return elementWalker.equal(first, second);
+        } finally {
+            elementWalker.release();
+        }
+    }
+
+    private int elementHash(Object element) throws Throwable {
+        byte kind = kindOf(element);
+        if (kind != NODE) {
+            return kind == VALUE ? element.hashCode() : 0;
+        }
+        return localHash(element);
+    }
+
+    /**
+     * Hashes the class and values of an object, and the classes of the objects it references.
+     */
+    private int localHash(Object object) throws Throwable {
+        int hash = kindHash(object);
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            if (object instanceof Object[] elements) {
+                for (Object element : elements) {
+                    hash = 31 * hash + referenceHash(element);
+                }
+                return hash;
+            }
+            return 31 * hash + primitiveArrayHash(object);
+        }
+        if (object instanceof Collection || object instanceof Map) {
+            Object[] contents = ContainerCopier.contentsOf(object);
+            if (object instanceof Map) {
+                int sum = 0;
+                for (int i = 0; i < contents.length; i += 2) {
+                    sum += referenceHash(contents[i]) ^ referenceHash(contents[i + 1]);
+                }
+                return 31 * hash + sum;
+            }
+            if (object instanceof Set) {
+                int sum = 0;
+                for (Object element : contents) {
+                    sum += referenceHash(element);
+                }
+                return 31 * hash + sum;
+            }
+            for (Object element : contents) {
+                hash = 31 * hash + referenceHash(element);
+            }
+            return hash;
+        }
+        ClassCopyPlan plan = policy.planOf(clazz);
+        if (plan.isRecord()) {
+            Object[] components = plan.components(object);
+            for (int i = 0; i < components.length; i++) {
+                hash = 31 * hash + (plan.isCopiedComponent(i) ? referenceHash(components[i]) : Objects.hashCode(components[i]));
+            }
+            return hash;
+        }
+        for (int i = 0; i < plan.valueCount(); i++) {
+            hash = 31 * hash + Objects.hashCode(plan.getValue(object, i));
+        }
+        for (int i = 0; i < plan.referenceCount(); i++) {
+            hash = 31 * hash + referenceHash(plan.getReference(object, i));
+        }
+        return hash;
+    }
+
+    private int referenceHash(Object value) {
+        byte kind = kindOf(value);
+        if (kind != NODE) {
+            return kind == VALUE ? value.hashCode() : 0;
+        }
+        return kindHash(value);
+    }
+
+    private static int kindHash(Object object) {
+        return KIND_HASHES.get(object.getClass());
+    }
+
+    private static boolean isSameKind(Object first, Object second) {
+        return first.getClass() == second.getClass()
+                || first instanceof List && second instanceof List
+                || first instanceof Set && second instanceof Set
+                || first instanceof Map && second instanceof Map;
+    }
+
+    /**
+     * Objects of skipped classes are absent like {@code null}, since a copy replaces them by {@code null}.
+     */
+    private byte kindOf(Object object) {
+        return switch (policy.kindOf(object)) {
+            case CopyPolicy.SKIPPED -> ABSENT;
+            case CopyPolicy.SHARED -> VALUE;
+            case CopyPolicy.IMMUTABLE -> object instanceof String || policy.planOf(object.getClass()).isOpaque()
+                    ? VALUE : NODE;
+            default -> NODE;
+        };
+    }
+
+    /**
+     * Spreads the hash of a single object, so that the sum of many hashes does not cancel out.
+     */
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    private static int primitiveArrayHash(Object array) {
+        if (array instanceof int[] ints) {
+            return Arrays.hashCode(ints);
+        }
+        if (array instanceof long[] longs) {
+            return Arrays.hashCode(longs);
+        }
+        if (array instanceof double[] doubles) {
+            return Arrays.hashCode(doubles);
+        }
+        if (array instanceof byte[] bytes) {
+            return Arrays.hashCode(bytes);
+        }
+        if (array instanceof char[] chars) {
+            return Arrays.hashCode(chars);
+        }
+        if (array instanceof float[] floats) {
+            return Arrays.hashCode(floats);
+        }
+        if (array instanceof short[] shorts) {
+            return Arrays.hashCode(shorts);
+        }
+        return Arrays.hashCode((boolean[]) array);
+    }
+}
@@ -0,0 +1,142 @@
+package evgenii.newjob.deepclone;
+
+import java.util.Arrays;
+
+/**
+ * Identity hash table mapping original objects to their copies.
+ * Open addressing with linear probing over two parallel arrays, keys are compared by reference.
+ * The table is reset in place between copy calls, so a reused table does not allocate
+ * once it has grown to the size of the copied graphs.
+ */
+final class IdentityTable {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Tables grown above this capacity are dropped on reset instead of cleared,
+     * so a single huge copy does not keep its table reachable for the life of the thread.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private Object[] keys;
+    private Object[] values;
+    private int shift;
+    private int size;
+
+    IdentityTable() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the copy registered for the original, or {@code null} if there is none.
+     *
+     * @param original The original object.
+     * @return The registered copy or {@code null}.
+     */
+    Object get(Object original) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        for (int index = indexOf(original); ; index = (index + 1) & mask) {
+            Object key = keys[index];
+            if (key == original) {
+                return values[index];
+            }
+            if (key == null) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Registers the copy of the original, replacing a previously registered copy.
+     *
+     * @param original The original object.
+     * @param copy     The copy of the original.
+     */
+    void put(Object original, Object copy) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        int index = indexOf(original);
+        for (Object key = keys[index]; key != null; key = keys[index]) {
+            if (key == original) {
+                values[index] = copy;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = original;
+        values[index] = copy;
+        if (++size > keys.length >>> 1) {
+            resize();
+        }
+    }
+
+    /**
+     * Registers the copy of the original unless a copy is registered already.
+     *
+     * @param original The original object.
+     * @param copy     The copy of the original.
+     * @return The previously registered copy, or {@code null} if the given copy was registered.
+     */
+    Object putIfAbsent(Object original, Object copy) {
+        Object existing = get(original);
+        if (existing != null) {
+            return existing;
+        }
+        put(original, copy);
+        return null;
+    }
+
+    /**
+     * Returns the number of registered originals.
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries, keeping the allocated arrays for the next use.
+     */
+    void clear() {
+        if (keys.length > MAX_RETAINED_CAPACITY) {
+            allocate(DEFAULT_CAPACITY);
+        } else if (size > 0) {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * Fibonacci hashing of the identity hash code, taking the top bits as the index.
+     */
+    private int indexOf(Object key) {
+        return (System.identityHashCode(key) * 0x9E3779B9) >>> shift;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object key = oldKeys[i];
+            if (key != null) {
+                int index = indexOf(key);
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.annotation.Immutable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of immutable types, whose instances are shared by deep copies instead of being copied.
+ * A type is immutable if it is one of the well-known immutable JDK types, an enum,
+ * annotated with {@link Immutable}, registered with {@link #register(Class[])},
+ * or if all its instance fields are final and refer to immutable types only.
+ * The result of the analysis is cached per class.
+ * Types should be registered before they are copied for the first time, since a registration
+ * drops all cached analysis results.
+ */
+public final class ImmutableTypes {
+
+    private static final Set<Class<?>> BUILT_IN_TYPES = Set.of(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class,
+            Integer.class, Long.class, Float.class, Double.class,
+            BigInteger.class, BigDecimal.class, UUID.class, Class.class, Locale.class, URI.class,
+            Instant.class, Duration.class, Period.class, LocalDate.class, LocalTime.class, LocalDateTime.class,
+            OffsetTime.class, OffsetDateTime.class, ZonedDateTime.class, Year.class, YearMonth.class, MonthDay.class);
+
+    private static final Set<Class<?>> REGISTERED_TYPES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Classes currently being analysed by this thread, used to detect reference cycles between classes.
+     */
+    private static final ThreadLocal<Set<Class<?>>> IN_ANALYSIS = ThreadLocal.withInitial(HashSet::new);
+
+    private static volatile ClassValue<Boolean> analysis = newAnalysis();
+
+    private ImmutableTypes() {
+    }
+
+    /**
+     * Registers types as immutable. Their instances, and instances of their subclasses
+     * wherever the type is used as a declared field type, are shared by deep copies.
+     *
+     * @param types The immutable types.
+     */
+    public static void register(Class<?>... types) {
+        REGISTERED_TYPES.addAll(Arrays.asList(types));
+        analysis = newAnalysis();
+    }
+
+    /**
+     * Checks if instances of the given class are immutable and can be shared by deep copies.
+     *
+     * @param type The runtime class of the instances.
+     * @return {@code true} if the instances are immutable.
+     */
+    public static boolean isImmutable(Class<?> type) {
+        return analysis.get(type);
+    }
+
+    /**
+     * Checks if every value assignable to a field or array component of the given type is immutable.
+     * Besides being immutable itself, the type must not allow mutable subclasses,
+     * unless the type is trusted as immutable explicitly.
+     *
+     * @param declaredType The declared type of a field or array component.
+     * @return {@code true} if all possible values are immutable.
+     */
+    static boolean isImmutableDeclaredType(Class<?> declaredType) {
+        if (declaredType.isPrimitive() || isTrusted(declaredType)) {
+            return true;
+        }
+        return Modifier.isFinal(declaredType.getModifiers()) && !declaredType.isArray() && isImmutable(declaredType);
+    }
+
+    /**
+     * Checks if the class is one of the well-known immutable JDK types or an enum,
+     * whose {@code equals} and {@code hashCode} are known to compare their values.
+     *
+     * @param type The runtime class of the instances.
+     * @return {@code true} for JDK value types and enums.
+     */
+    static boolean isValueType(Class<?> type) {
+        return BUILT_IN_TYPES.contains(type) || Enum.class.isAssignableFrom(type) || ZoneId.class.isAssignableFrom(type);
+    }
+
+    private static boolean isTrusted(Class<?> type) {
+        return isValueType(type)
+                || REGISTERED_TYPES.contains(type)
+                || type.isAnnotationPresent(Immutable.class);
+    }
+
+    private static ClassValue<Boolean> newAnalysis() {
+        return new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return analyze(type);
+            }
+        };
+    }
+
+    /**
+     * Classifies a class as immutable when all its fields, including inherited ones,
+     * are final and refer to immutable declared types.
+     * Classes reachable through a reference cycle between classes are treated as mutable.
+     */
+    private static boolean analyze(Class<?> type) {
+        if (isTrusted(type)) {
+            return true;
+        }
+        if (type.isArray() || type.isInterface()) {
+            return false;
+        }
+        Set<Class<?>> inAnalysis = IN_ANALYSIS.get();
+        inAnalysis.add(type);
+        try {
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    if (!Modifier.isFinal(modifiers)
+                            || inAnalysis.contains(field.getType())
+                            || !isImmutableDeclaredType(field.getType())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            inAnalysis.remove(type);
+        }
+    }
+}
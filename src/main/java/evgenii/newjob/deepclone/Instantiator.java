@@ -0,0 +1,230 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Creates new instances of a class for copies, with the strategy chosen once and cached per class.
+ * Plain objects are allocated without running any of their constructors, the way deserialization
+ * does, so a copy neither runs validation, logging or other side effects of constructors nor
+ * allocates field values that the copy overwrites right away. Where that is not available,
+ * the no-argument constructor is called, and finally the first declared constructor with default
+ * arguments. Records can only be created through their canonical constructor, from the values of
+ * all their components.
+ */
+final class Instantiator {
+
+    /**
+     * Strategies in the order they are tried, the first one valid for a class is used.
+     */
+    enum Strategy {
+
+        /**
+         * Allocation without running a constructor of the class or its superclasses,
+         * cheapest since nothing but the allocation is performed.
+         */
+        SERIALIZATION,
+
+        /**
+         * The no-argument constructor, which runs field initializers and constructor code.
+         */
+        NO_ARGUMENT_CONSTRUCTOR,
+
+        /**
+         * The first declared constructor, called with {@code null}, zero, empty String or empty List arguments.
+         */
+        DECLARED_CONSTRUCTOR,
+
+        /**
+         * The canonical constructor of a record, called with the copied component values.
+         */
+        CANONICAL_CONSTRUCTOR
+    }
+
+    private static final ClassValue<Instantiator> INSTANTIATORS = new ClassValue<>() {
+        @Override
+        protected Instantiator computeValue(Class<?> type) {
+            return new Instantiator(type);
+        }
+    };
+
+    /**
+     * {@code ReflectionFactory.newConstructorForSerialization(Class, Constructor)} bound to the factory, which creates
+     * constructors running no code of the class, {@code null} if the runtime does not provide it.
+     */
+    private static final MethodHandle SERIALIZATION_CONSTRUCTORS = serializationConstructors();
+
+    private static final Constructor<Object> OBJECT_CONSTRUCTOR = objectConstructor();
+
+    private final Strategy strategy;
+    private final Constructor<?> constructor;
+
+    /**
+     * Arguments of the constructor, {@code null} for the canonical constructor of records.
+     */
+    private final Object[] constructorArguments;
+
+    private Instantiator(Class<?> clazz) {
+        if (clazz.isRecord()) {
+            this.strategy = Strategy.CANONICAL_CONSTRUCTOR;
+            this.constructor = canonicalConstructor(clazz);
+            this.constructorArguments = null;
+        } else {
+            Constructor<?> serializationConstructor = serializationConstructor(clazz);
+            if (serializationConstructor != null) {
+                this.strategy = Strategy.SERIALIZATION;
+                this.constructor = serializationConstructor;
+            } else {
+                this.constructor = selectConstructor(clazz);
+                this.strategy = constructor.getParameterCount() == 0
+                        ? Strategy.NO_ARGUMENT_CONSTRUCTOR : Strategy.DECLARED_CONSTRUCTOR;
+            }
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            this.constructorArguments = new Object[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                constructorArguments[i] = getDefault(parameterTypes[i]);
+            }
+        }
+        this.constructor.setAccessible(true);
+    }
+
+    /**
+     * Returns the cached instantiator of the given class, choosing its strategy on first use.
+     *
+     * @param clazz The class to instantiate.
+     * @return The instantiator of the class.
+     */
+    static Instantiator of(Class<?> clazz) {
+        return INSTANTIATORS.get(clazz);
+    }
+
+    /**
+     * Returns the strategy chosen for the class.
+     *
+     * @return The strategy.
+     */
+    Strategy strategy() {
+        return strategy;
+    }
+
+    /**
+     * Creates a new, not yet populated instance of a class other than a record.
+     *
+     * @return The new instance.
+     * @throws ReflectiveOperationException If the constructor invocation fails.
+     */
+    Object newInstance() throws ReflectiveOperationException {
+        return constructor.newInstance(constructorArguments);
+    }
+
+    /**
+     * Creates a record from the values of its components.
+     *
+     * @param components The component values in declaration order, primitives boxed.
+     * @return The new record.
+     * @throws ReflectiveOperationException If the canonical constructor fails, such as by rejecting a value.
+     */
+    Object newRecord(Object[] components) throws ReflectiveOperationException {
+        return constructor.newInstance(components);
+    }
+
+    /**
+     * Returns a constructor that allocates an instance of the class and runs only the constructor of {@link Object},
+     * or {@code null} if the runtime cannot create one for the class.
+     */
+    private static Constructor<?> serializationConstructor(Class<?> clazz) {
+        if (SERIALIZATION_CONSTRUCTORS == null || OBJECT_CONSTRUCTOR == null || Modifier.isAbstract(clazz.getModifiers())) {
+            return null;
+        }
+        try {
+            return (Constructor<?>) SERIALIZATION_CONSTRUCTORS.invokeExact((Class<?>) clazz, OBJECT_CONSTRUCTOR);
+        } catch (Throwable e) {
+            // The factory declares no checked exceptions, anything thrown means the class cannot be allocated this way
+            return null;
+        }
+    }
+
+    private static Constructor<?> canonicalConstructor(Class<?> clazz) {
+        RecordComponent[] components = clazz.getRecordComponents();
+        Class<?>[] componentTypes = new Class<?>[components.length];
+        for (int i = 0; i < components.length; i++) {
+            componentTypes[i] = components[i].getType();
+        }
+        try {
+            return clazz.getDeclaredConstructor(componentTypes);
+        } catch (NoSuchMethodException e) {
+            throw new DeepCopyException("No canonical constructor available for " + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Prefers the no-argument constructor and falls back to the first declared one.
+     */
+    private static Constructor<?> selectConstructor(Class<?> clazz) {
+        Constructor<?>[] constructors = clazz.getDeclaredConstructors();
+        if (constructors.length == 0) {
+            throw new DeepCopyException("No constructor available for " + clazz.getName());
+        }
+        for (Constructor<?> constructor : constructors) {
+            if (constructor.getParameterCount() == 0) {
+                return constructor;
+            }
+        }
+        return constructors[0];
+    }
+
+    /**
+     * Provides default values for given types.
+     *
+     * @param type The class of type to provide a default value.
+     * @return The default value object.
+     */
+    private static Object getDefault(Class<?> type) {
+        if (type.isPrimitive()) {
+            if (type.equals(boolean.class)) return false;
+            if (type.equals(int.class)) return 0;
+            if (type.equals(long.class)) return 0L;
+            if (type.equals(double.class)) return 0.0d;
+            if (type.equals(float.class)) return 0.0f;
+            if (type.equals(char.class)) return '\u0000';
+            if (type.equals(byte.class)) return (byte) 0;
+            if (type.equals(short.class)) return (short) 0;
+        } else if (type.equals(String.class)) {
+            return "";
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return Collections.emptyList();
+        }
+        return null;
+    }
+
+    /**
+     * The factory lives in the {@code jdk.unsupported} module, which custom runtime images may leave out.
+     * It is looked up by name, since compiling against the internal class makes javac warn on every use.
+     */
+    private static MethodHandle serializationConstructors() {
+        try {
+            Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+            Object factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+            return MethodHandles.publicLookup().findVirtual(factoryClass, "newConstructorForSerialization",
+                    MethodType.methodType(Constructor.class, Class.class, Constructor.class)).bindTo(factory);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Constructor<Object> objectConstructor() {
+        try {
+            return Object.class.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
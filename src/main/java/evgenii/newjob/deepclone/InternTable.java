@@ -0,0 +1,107 @@
+package evgenii.newjob.deepclone;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded table of canonical instances of Strings and boxed primitives, which a deduplicating deep copy
+ * substitutes for equal values, so that a copy made from freshly parsed data holds every distinct value once.
+ * A table used for a single call deduplicates within its copy, a table reused by several calls, also
+ * concurrently, deduplicates across all their copies. Once the table holds its maximal number of values,
+ * it keeps deduplicating those, further distinct values are copied by reference as usual.
+ * <p>
+ * The table counts the duplicates it replaced and the bytes they would have kept alive in the copy,
+ * estimated for compressed references and compact Latin-1 Strings. Duplicates are counted per replaced
+ * instance and call, so an instance referenced several times by the original graph is counted once.
+ *
+ * @see CopyUtils#deepCopy(Object, InternTable)
+ */
+public final class InternTable {
+
+    private static final Set<Class<?>> INTERNED_TYPES = Set.of(String.class, Boolean.class, Byte.class,
+            Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class);
+
+    private final Map<Object, Object> canonicals = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Creates an empty table.
+     *
+     * @param maxEntries The maximal number of distinct values the table holds.
+     */
+    public InternTable(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximal number of entries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the number of distinct values held by the table.
+     *
+     * @return The number of canonical values.
+     */
+    public int size() {
+        return canonicals.size();
+    }
+
+    /**
+     * Returns the number of values replaced by an equal canonical instance so far.
+     *
+     * @return The number of replaced duplicates.
+     */
+    public long duplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Returns the estimated number of bytes the replaced duplicates would have occupied in the copies.
+     *
+     * @return The estimated saved bytes.
+     */
+    public long savedBytes() {
+        return savedBytes.sum();
+    }
+
+    /**
+     * Checks if the table interns instances of the given class.
+     *
+     * @param type The class of the values.
+     * @return {@code true} for String and the boxed primitive classes.
+     */
+    static boolean interns(Class<?> type) {
+        return INTERNED_TYPES.contains(type);
+    }
+
+    /**
+     * Returns the canonical instance equal to the value, registering the value as canonical if there is none yet.
+     *
+     * @param value The immutable value referenced by the copied graph.
+     * @return The canonical value, or the value itself for types the table does not intern.
+     */
+    Object intern(Object value) {
+        if (!interns(value.getClass())) {
+            return value;
+        }
+        Object canonical = canonicals.get(value);
+        if (canonical == null) {
+            // The bound is checked without locking, so concurrent calls may overshoot it slightly
+            if (canonicals.size() >= maxEntries) {
+                return value;
+            }
+            canonical = canonicals.putIfAbsent(value, value);
+            if (canonical == null) {
+                return value;
+            }
+        }
+        if (canonical != value) {
+            duplicates.increment();
+            savedBytes.add(ObjectSizes.sizeOf(value));
+        }
+        return canonical;
+    }
+}
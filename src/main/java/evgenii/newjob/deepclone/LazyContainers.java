@@ -0,0 +1,477 @@
+package evgenii.newjob.deepclone;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copy-on-write views of copied Lists, Sets and Maps, used by the {@link TraversalMode#LAZY} traversal.
+ * A view holds the contents of the original as a plain array, taken when the view is created, in which nested
+ * containers are already views themselves and values are already resolved, while plain objects and records are
+ * still the original's. Those are deep copied when they are first read through the view, by the context of the
+ * copy, so shared and cyclic references resolve to the same copies as elsewhere in the graph.
+ * The view serves the size, iteration and positional reads from that array. The copy of the original's
+ * concrete type is populated only on the first write or keyed lookup, such as {@code contains} or
+ * {@code get} of a Map, and the view delegates to it from then on. Later changes of the original containers
+ * never reach the view, since their contents are taken up front, but objects not read yet are copied
+ * in the state they have at their first read.
+ * Like the JDK collections they stand for, views may be read by several threads, including the keyed lookups
+ * which populate the copy once, but writes need external synchronization. Lists are only {@link RandomAccess}
+ * if their original is.
+ */
+final class LazyContainers {
+
+    private static final Object[] NO_CONTENTS = new Object[0];
+
+    private LazyContainers() {
+    }
+
+    /**
+     * Checks if the copy of the Collection or Map can be a view.
+     *
+     * @param original        The Collection or Map to be copied.
+     * @param containerCopier The copier of its class.
+     * @return {@code true} for Lists, Sets and Maps whose contents need to be copied.
+     */
+    static boolean supports(Object original, ContainerCopier containerCopier) {
+        return !containerCopier.isFlat() && (original instanceof List || original instanceof Set || original instanceof Map);
+    }
+
+    /**
+     * Creates the view standing for the copy of the original, to be completed with its copied contents.
+     *
+     * @param original        The List, Set or Map to be copied.
+     * @param containerCopier The copier of its class.
+     * @param copier          The function deep copying the deferred contents on their first read.
+     * @return The view, which is empty until it is completed.
+     */
+    static Object view(Object original, ContainerCopier containerCopier, UnaryOperator<Object> copier) {
+        Source source = new Source(original.getClass(), containerCopier,
+                containerCopier.isBuiltFromContents() ? null : containerCopier.allocate(original), copier);
+        if (original instanceof List) {
+            return original instanceof RandomAccess ? new LazyRandomAccessList(source) : new LazyList(source);
+        }
+        return original instanceof Set ? new LazySet(source) : new LazyMap(source);
+    }
+
+    /**
+     * Completes the view with the contents of the original.
+     *
+     * @param view     The view created for the original.
+     * @param contents The elements, or keys and values alternately, copied or still to be copied.
+     * @param deferred Per content whether it is the original's object still to be copied, {@code null} if none is.
+     */
+    static void complete(Object view, Object[] contents, boolean[] deferred) {
+        ((View) view).source().complete(contents, deferred);
+    }
+
+    /**
+     * Adapts a copied value to the declared type of the field or array it is stored to.
+     * A view which is not an instance of the type is replaced by the populated copy of the original's type.
+     *
+     * @param value The copied value.
+     * @param type  The declared type of the field or array component.
+     * @return The value itself, or the populated copy standing behind the view.
+     */
+    static Object adapt(Object value, Class<?> type) {
+        if (value instanceof View view && !type.isInstance(value)) {
+            return view.source().materialize();
+        }
+        return value;
+    }
+
+    private interface View {
+        Source source();
+    }
+
+    /**
+     * Contents shared by a view and the copy populated from them.
+     * Populating the copy is done once under the lock of the source, and published through the volatile contents,
+     * so reads through views racing with the first keyed lookup never see a partly populated copy.
+     */
+    private static final class Source {
+
+        /**
+         * Contents of a populated source.
+         */
+        private static final Object[] POPULATED = new Object[0];
+
+        /**
+         * The class of the original.
+         */
+        private final Class<?> type;
+
+        /**
+         * The copier of the original's type, or of the mutable stand-in for an immutable collection reached through a cycle.
+         */
+        private ContainerCopier containerCopier;
+
+        /**
+         * The allocated copy, populated once the view is materialized, or the built copy of an immutable container.
+         */
+        private Object copy;
+
+        /**
+         * The function deep copying deferred contents.
+         */
+        private final UnaryOperator<Object> copier;
+
+        /**
+         * The contents, {@code null} while they are being taken and {@link #POPULATED} after the copy is populated.
+         */
+        private volatile Object[] contents;
+
+        /**
+         * Per content whether it is still to be copied, {@code null} if none is. Written before the contents,
+         * which publish it, and kept once the copy is populated for readers still holding the contents.
+         */
+        private boolean[] deferred;
+
+        private boolean populateOnCompletion;
+
+        private Source(Class<?> type, ContainerCopier containerCopier, Object copy, UnaryOperator<Object> copier) {
+            this.type = type;
+            this.containerCopier = containerCopier;
+            this.copy = copy;
+            this.copier = copier;
+        }
+
+        /**
+         * Returns the contents to serve reads from, or {@code null} once the view delegates to the copy.
+         */
+        private Object[] contents() {
+            Object[] contents = this.contents;
+            if (contents == POPULATED) {
+                return null;
+            }
+            return contents != null ? contents : NO_CONTENTS;
+        }
+
+        /**
+         * Returns the copy of a content read from the array returned by {@link #contents()}, copying it
+         * on first read. Later reads resolve to the same copy through the table of the copy's context.
+         */
+        private Object resolve(Object[] contents, int index) {
+            boolean[] deferred = this.deferred;
+            return deferred != null && deferred[index] ? copier.apply(contents[index]) : contents[index];
+        }
+
+        private Object[] resolveAll(Object[] contents) {
+            if (deferred == null) {
+                return contents;
+            }
+            Object[] copies = new Object[contents.length];
+            for (int i = 0; i < copies.length; i++) {
+                copies[i] = resolve(contents, i);
+            }
+            return copies;
+        }
+
+        private synchronized void complete(Object[] contents, boolean[] deferred) {
+            this.deferred = deferred;
+            this.contents = contents;
+            if (populateOnCompletion) {
+                populate(resolveAll(contents));
+            }
+        }
+
+        /**
+         * Returns the copy of the original's type, populating it on first use.
+         * Deferred contents are copied before taking the lock, since copying them may populate other views.
+         */
+        private Object materialize() {
+            Object[] current = contents;
+            if (current != POPULATED) {
+                Object[] copies = current != null ? resolveAll(current) : null;
+                synchronized (this) {
+                    if (contents == null) {
+                        // Reached through a cycle while the contents are still being copied
+                        if (containerCopier.isBuiltFromContents()) {
+                            containerCopier = ContainerCopier.mutableCounterpartOf(type);
+                            copy = containerCopier.allocate(0, null);
+                        }
+                        populateOnCompletion = true;
+                    } else if (contents != POPULATED) {
+                        populate(copies != null ? copies : resolveAll(contents));
+                    }
+                }
+            }
+            return copy;
+        }
+
+        private void populate(Object[] copies) {
+            if (containerCopier.isBuiltFromContents()) {
+                copy = containerCopier.build(copies);
+            } else {
+                containerCopier.populate(copy, copies);
+            }
+            contents = POPULATED;
+        }
+    }
+
+    private static class LazyList extends AbstractList<Object> implements View {
+
+        private final Source source;
+
+        private LazyList(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public Source source() {
+            return source;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Object> list() {
+            return (List<Object>) source.materialize();
+        }
+
+        @Override
+        public Object get(int index) {
+            Object[] contents = source.contents();
+            if (contents == null) {
+                return list().get(index);
+            }
+            return source.resolve(contents, Objects.checkIndex(index, contents.length));
+        }
+
+        @Override
+        public int size() {
+            Object[] contents = source.contents();
+            return contents != null ? contents.length : list().size();
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return source.contents() != null ? super.iterator() : list().iterator();
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            return list().set(index, element);
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            list().add(index, element);
+        }
+
+        @Override
+        public Object remove(int index) {
+            return list().remove(index);
+        }
+
+        @Override
+        public void clear() {
+            list().clear();
+        }
+    }
+
+    /**
+     * View of a List with fast positional access, such as an {@link java.util.ArrayList}.
+     */
+    private static final class LazyRandomAccessList extends LazyList implements RandomAccess {
+
+        private LazyRandomAccessList(Source source) {
+            super(source);
+        }
+    }
+
+    private static final class LazySet extends AbstractSet<Object> implements View {
+
+        private final Source source;
+
+        private LazySet(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public Source source() {
+            return source;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Set<Object> set() {
+            return (Set<Object>) source.materialize();
+        }
+
+        @Override
+        public int size() {
+            Object[] contents = source.contents();
+            return contents != null ? contents.length : set().size();
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            Object[] contents = source.contents();
+            return contents != null ? new ContentsIterator(source, contents, false, this::set) : set().iterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set().contains(o);
+        }
+
+        @Override
+        public boolean add(Object element) {
+            return set().add(element);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return set().remove(o);
+        }
+
+        @Override
+        public void clear() {
+            set().clear();
+        }
+    }
+
+    private static final class LazyMap extends AbstractMap<Object, Object> implements View {
+
+        private final Source source;
+        private final Set<Map.Entry<Object, Object>> entrySet = new EntrySet();
+
+        private LazyMap(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public Source source() {
+            return source;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Object, Object> map() {
+            return (Map<Object, Object>) source.materialize();
+        }
+
+        @Override
+        public int size() {
+            Object[] contents = source.contents();
+            return contents != null ? contents.length / 2 : map().size();
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return map().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map().containsKey(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return map().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return map().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            map().clear();
+        }
+
+        private final class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+
+            @Override
+            public int size() {
+                return LazyMap.this.size();
+            }
+
+            @Override
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                Object[] contents = source.contents();
+                if (contents == null) {
+                    return map().entrySet().iterator();
+                }
+                return (Iterator) new ContentsIterator(source, contents, true, LazyMap.this::map);
+            }
+        }
+    }
+
+    /**
+     * Iterator over the contents of a view, which writes through to the populated copy.
+     */
+    private static final class ContentsIterator implements Iterator<Object> {
+
+        private final Source source;
+        private final Object[] contents;
+        private final boolean entries;
+        private final Supplier<Object> materializer;
+        private int index;
+        private Object lastKey;
+        private boolean removable;
+
+        private ContentsIterator(Source source, Object[] contents, boolean entries, Supplier<Object> materializer) {
+            this.source = source;
+            this.contents = contents;
+            this.entries = entries;
+            this.materializer = materializer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < contents.length;
+        }
+
+        @Override
+        public Object next() {
+            if (index >= contents.length) {
+                throw new NoSuchElementException();
+            }
+            lastKey = source.resolve(contents, index);
+            removable = true;
+            if (!entries) {
+                index++;
+                return lastKey;
+            }
+            Object value = source.resolve(contents, index + 1);
+            index += 2;
+            return new AbstractMap.SimpleEntry<>(lastKey, value) {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object setValue(Object value) {
+                    ((Map<Object, Object>) materializer.get()).put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (!removable) {
+                throw new IllegalStateException();
+            }
+            removable = false;
+            Object copy = materializer.get();
+            if (entries) {
+                ((Map<?, ?>) copy).remove(lastKey);
+            } else {
+                ((Set<?>) copy).remove(lastKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package evgenii.newjob.deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link FieldsCopier} specialised for a single class on first use.
+ * All value fields are folded into one method handle chain which copies them
+ * straight across without boxing, only reference fields go through the reference copier.
+ */
+final class MethodHandleFieldsCopier implements FieldsCopier {
+
+    private static final MethodType VALUES_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * Handle of type {@code (Object copy, Object original) void} copying all value fields.
+     */
+    private final MethodHandle valuesCopier;
+    private final MethodHandle[] valueGetters;
+    private final MethodHandle[] referenceGetters;
+    private final MethodHandle[] referenceSetters;
+
+    private MethodHandleFieldsCopier(MethodHandle valuesCopier, MethodHandle[] valueGetters,
+                                     MethodHandle[] referenceGetters, MethodHandle[] referenceSetters) {
+        this.valuesCopier = valuesCopier;
+        this.valueGetters = valueGetters;
+        this.referenceGetters = referenceGetters;
+        this.referenceSetters = referenceSetters;
+    }
+
+    /**
+     * Generates a copier for the given fields. The fields have to be accessible already.
+     *
+     * @param valueFields     The fields to copy as they are.
+     * @param referenceFields The fields to copy through the reference copier.
+     * @return The generated copier.
+     * @throws IllegalAccessException If a handle for one of the fields cannot be created.
+     */
+    static MethodHandleFieldsCopier generate(Field[] valueFields, Field[] referenceFields) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle valuesCopier = MethodHandles.empty(VALUES_TYPE);
+        MethodHandle[] valueGetters = new MethodHandle[valueFields.length];
+        for (int i = 0; i < valueFields.length; i++) {
+            MethodHandle getter = lookup.unreflectGetter(valueFields[i]);
+            // (copy, original) -> setter(copy, getter(original))
+            MethodHandle fieldCopier = MethodHandles.filterArguments(lookup.unreflectSetter(valueFields[i]), 1,
+                    getter).asType(VALUES_TYPE);
+            valuesCopier = MethodHandles.foldArguments(valuesCopier, fieldCopier);
+            valueGetters[i] = getter.asType(GETTER_TYPE);
+        }
+        MethodHandle[] getters = new MethodHandle[referenceFields.length];
+        MethodHandle[] setters = new MethodHandle[referenceFields.length];
+        for (int i = 0; i < referenceFields.length; i++) {
+            getters[i] = lookup.unreflectGetter(referenceFields[i]).asType(GETTER_TYPE);
+            setters[i] = lookup.unreflectSetter(referenceFields[i]).asType(SETTER_TYPE);
+        }
+        return new MethodHandleFieldsCopier(valuesCopier, valueGetters, getters, setters);
+    }
+
+    @Override
+    public void copyValues(Object original, Object copy) throws Throwable {
+        valuesCopier.invokeExact(copy, original);
+    }
+
+    @Override
+    public int valueCount() {
+        return valueGetters.length;
+    }
+
+    @Override
+    public Object getValue(Object object, int index) throws Throwable {
+        return (Object) valueGetters[index].invokeExact(object);
+    }
+
+    @Override
+    public int referenceCount() {
+        return referenceGetters.length;
+    }
+
+    @Override
+    public Object getReference(Object object, int index) throws Throwable {
+        return (Object) referenceGetters[index].invokeExact(object);
+    }
+
+    @Override
+    public void setReference(Object object, int index, Object value) throws Throwable {
+        referenceSetters[index].invokeExact(object, value);
+    }
+
+    @Override
+    public void copyFields(Object original, Object copy, UnaryOperator<Object> referenceCopier) throws Throwable {
+        valuesCopier.invokeExact(copy, original);
+        for (int i = 0; i < referenceGetters.length; i++) {
+            Object fieldValue = (Object) referenceGetters[i].invokeExact(original);
+            if (fieldValue != null) {
+                referenceSetters[i].invokeExact(copy, referenceCopier.apply(fieldValue));
+            }
+        }
+    }
+}
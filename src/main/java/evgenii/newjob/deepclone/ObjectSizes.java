@@ -0,0 +1,177 @@
+package evgenii.newjob.deepclone;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Estimates of the heap size of single objects, for a 64-bit JVM with compressed references and class pointers.
+ * The size of a plain object is computed once per class from its instance fields, that of an array from its length.
+ * The internals of JDK Strings, big numbers, Collections and Maps cannot be read, their backing arrays, nodes
+ * and entries are estimated from the length of the String, the bit length of the number, or the size of the
+ * container and the layout of the common JDK implementations.
+ * Enum constants and classes are not counted, since they live as long as their class.
+ */
+final class ObjectSizes {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private static final int HASH_NODE = 32;
+    private static final int LINKED_HASH_NODE = 40;
+    private static final int TREE_NODE = 40;
+    private static final int LIST_NODE = 24;
+
+    private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            return shallowSizeOf(type);
+        }
+    };
+
+    private ObjectSizes() {
+    }
+
+    /**
+     * Returns the estimated size of the object alone, including the backing arrays of Strings
+     * and the internal arrays, nodes and entries of Collections and Maps, but none of the referenced objects.
+     *
+     * @param object The object to estimate.
+     * @return The estimated size in bytes.
+     */
+    static long sizeOf(Object object) {
+        if (object instanceof Enum || object instanceof Class) {
+            return 0;
+        }
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            return arraySize(Array.getLength(object), componentSize(clazz.getComponentType()));
+        }
+        long size = SHALLOW_SIZES.get(clazz);
+        if (object instanceof String string) {
+            return size + arraySize(string.length(), isLatin1(string) ? 1 : 2);
+        }
+        if (object instanceof BigInteger integer) {
+            return size + magnitudeSize(integer);
+        }
+        if (object instanceof BigDecimal decimal) {
+            // The unscaled value is only kept as a BigInteger if it does not fit into a long
+            BigInteger unscaled = decimal.unscaledValue();
+            return unscaled.bitLength() < Long.SIZE ? size : size + SHALLOW_SIZES.get(BigInteger.class) + magnitudeSize(unscaled);
+        }
+        if (object instanceof Collection<?> collection) {
+            return size + internalsOf(collection);
+        }
+        if (object instanceof Map<?, ?> map) {
+            return size + internalsOf(map);
+        }
+        return size;
+    }
+
+    /**
+     * The magnitude of a BigInteger is an array of ints.
+     */
+    private static long magnitudeSize(BigInteger integer) {
+        return arraySize((integer.bitLength() + Integer.SIZE - 1) / Integer.SIZE, 4);
+    }
+
+    private static long internalsOf(Collection<?> collection) {
+        int size = collection.size();
+        if (collection instanceof LinkedList || collection instanceof ConcurrentLinkedQueue
+                || collection instanceof ConcurrentLinkedDeque) {
+            return (long) size * LIST_NODE;
+        }
+        if (collection instanceof HashSet) {
+            Class<?> backingMap = collection instanceof LinkedHashSet ? LinkedHashMap.class : HashMap.class;
+            return SHALLOW_SIZES.get(backingMap) + hashTableSize(size,
+                    collection instanceof LinkedHashSet ? LINKED_HASH_NODE : HASH_NODE);
+        }
+        if (collection instanceof SortedSet) {
+            return (long) size * TREE_NODE;
+        }
+        if (collection instanceof Set) {
+            return hashTableSize(size, HASH_NODE);
+        }
+        // Array backed Lists, Deques and Queues, their spare capacity is not known
+        return arraySize(size, REFERENCE);
+    }
+
+    private static long internalsOf(Map<?, ?> map) {
+        int size = map.size();
+        if (map instanceof SortedMap) {
+            return (long) size * TREE_NODE;
+        }
+        return hashTableSize(size, map instanceof LinkedHashMap ? LINKED_HASH_NODE : HASH_NODE);
+    }
+
+    /**
+     * Table sized for the default load factor of 0.75, plus one node per entry.
+     */
+    private static long hashTableSize(int size, int nodeSize) {
+        if (size == 0) {
+            return 0;
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) * 2 - 1);
+        return arraySize(Math.max(16, capacity), REFERENCE) + (long) size * nodeSize;
+    }
+
+    private static long shallowSizeOf(Class<?> clazz) {
+        long size = OBJECT_HEADER;
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += componentSize(field.getType());
+                }
+            }
+        }
+        return align(size);
+    }
+
+    private static int componentSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long arraySize(int length, int componentSize) {
+        return align(ARRAY_HEADER + (long) length * componentSize);
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,54 @@
+package evgenii.newjob.deepclone;
+
+import java.util.Queue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task deep copying a slice of elements in place.
+ * Large slices are split in halves, each leaf slice is copied sequentially
+ * with a context of the executing thread bound to the shared identity table and the shared queue
+ * of containers populated once all branches joined.
+ */
+final class ParallelCopyTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // Tasks only run within the copy that forked them and are never serialized
+    private final transient Object[] elements;
+    private final int from;
+    private final int to;
+    private final transient ConcurrentIdentityTable sharedCopies;
+    private final transient Queue<Object[]> deferredPopulations;
+    private final int threshold;
+    private final transient CopyRecorder recorder;
+
+    ParallelCopyTask(Object[] elements, int from, int to, ConcurrentIdentityTable sharedCopies,
+                     Queue<Object[]> deferredPopulations, int threshold, CopyRecorder recorder) {
+        this.elements = elements;
+        this.from = from;
+        this.to = to;
+        this.sharedCopies = sharedCopies;
+        this.deferredPopulations = deferredPopulations;
+        this.threshold = threshold;
+        this.recorder = recorder;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= threshold) {
+            CopyContext context = CopyContext.acquireParallel(sharedCopies, deferredPopulations, threshold,
+                    recorder == null ? null : recorder.fork());
+            try {
+                for (int i = from; i < to; i++) {
+                    elements[i] = context.copyGraph(elements[i]);
+                }
+            } finally {
+                context.release();
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParallelCopyTask(elements, from, middle, sharedCopies, deferredPopulations, threshold, recorder),
+                new ParallelCopyTask(elements, middle, to, sharedCopies, deferredPopulations, threshold, recorder));
+    }
+}
@@ -0,0 +1,324 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Template object analysed once to stamp out independent deep copies cheaply.
+ * The layout of the template graph is recorded as a flat table of nodes, where every
+ * reference is either the index of another node or a shared immutable value.
+ * A new copy then allocates all nodes and wires them by index, without resolving
+ * types, checking immutability or hashing identities of the visited objects.
+ * Copies are made from a private snapshot of the template, so later changes of the
+ * template do not affect them. A prototype is immutable and can be used by several threads.
+ *
+ * @param <T> The type of the template.
+ */
+public final class Prototype<T> implements Supplier<T> {
+
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY = 1;
+    private static final byte FLAT_ARRAY = 2;
+    private static final byte FLAT_CONTAINER = 3;
+    private static final byte CONTAINER = 4;
+    private static final byte IMMUTABLE_CONTAINER = 5;
+    private static final byte RECORD = 6;
+
+    private final byte[] kinds;
+
+    /**
+     * Objects of the template snapshot, the root at index zero.
+     */
+    private final Object[] sources;
+
+    /**
+     * Copy plans of the plain objects and records, {@code null} for other nodes.
+     */
+    private final ClassCopyPlan[] plans;
+
+    /**
+     * Per node and reference slot the index of the referenced node, or -1 for a shared value.
+     * Slots are reference fields, copied record components, array elements, collection elements,
+     * or alternating map keys and values.
+     */
+    private final int[][] targets;
+
+    /**
+     * Per node and reference slot the shared value used when the target is -1.
+     */
+    private final Object[][] sharedValues;
+
+    /**
+     * Node indices in the order Collections and Maps are populated, elements before their containers.
+     * Immutable collections and records are created in the same order, and the references to them are set afterwards.
+     */
+    private final int[] populationOrder;
+
+    Prototype(T template) {
+        // Taken iteratively like the walk below, so deep templates do not overflow the stack
+        Object snapshot = CopyUtils.deepCopy(template, TraversalMode.ITERATIVE);
+        Map<Object, Integer> indices = new IdentityHashMap<>();
+        List<Object> nodes = new ArrayList<>();
+        List<Object[]> slots = new ArrayList<>();
+        List<Integer> postOrder = new ArrayList<>();
+
+        // Depth-first walk with an explicit stack of {node index, next slot} frames
+        Deque<int[]> frames = new ArrayDeque<>();
+        frames.push(new int[]{discover(snapshot, indices, nodes, slots), 0});
+        while (!frames.isEmpty()) {
+            int[] frame = frames.peek();
+            Object[] nodeSlots = slots.get(frame[0]);
+            if (frame[1] < nodeSlots.length) {
+                Object child = nodeSlots[frame[1]++];
+                if (isNode(child) && !indices.containsKey(child)) {
+                    frames.push(new int[]{discover(child, indices, nodes, slots), 0});
+                }
+            } else {
+                frames.pop();
+                postOrder.add(frame[0]);
+            }
+        }
+
+        int count = nodes.size();
+        this.kinds = new byte[count];
+        this.sources = nodes.toArray();
+        this.plans = new ClassCopyPlan[count];
+        this.targets = new int[count][];
+        this.sharedValues = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            Object source = sources[i];
+            kinds[i] = kindOf(source);
+            if (kinds[i] == OBJECT || kinds[i] == RECORD) {
+                plans[i] = ClassCopyPlan.of(source.getClass());
+            }
+            Object[] nodeSlots = slots.get(i);
+            targets[i] = new int[nodeSlots.length];
+            sharedValues[i] = new Object[nodeSlots.length];
+            for (int slot = 0; slot < nodeSlots.length; slot++) {
+                Object value = nodeSlots[slot];
+                byte kind = CopyPolicy.DEFAULT.kindOf(value);
+                targets[i][slot] = kind == CopyPolicy.COPIED ? indices.get(value) : -1;
+                // Objects of skipped classes are left out like null
+                sharedValues[i][slot] = kind == CopyPolicy.SHARED || kind == CopyPolicy.IMMUTABLE ? value : null;
+            }
+        }
+        this.populationOrder = postOrder.stream()
+                .filter(index -> kinds[index] == CONTAINER || isBuilt(index) || referencesBuiltNode(index))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Creates a new independent deep copy of the template.
+     *
+     * @return The new copy.
+     */
+    @Override
+    public T get() {
+        return stamp(new Object[sources.length]);
+    }
+
+    /**
+     * Creates a batch of new independent deep copies of the template.
+     *
+     * @param count The number of copies to create.
+     * @return The list of the new copies.
+     */
+    public List<T> newCopies(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Number of copies must not be negative: " + count);
+        }
+        List<T> copies = new ArrayList<>(count);
+        Object[] nodeCopies = new Object[sources.length];
+        for (int i = 0; i < count; i++) {
+            copies.add(stamp(nodeCopies));
+        }
+        return copies;
+    }
+
+    /**
+     * Creates one copy, using the given array as scratch space for the copies of all nodes.
+     */
+    @SuppressWarnings("unchecked")
+    private T stamp(Object[] copies) {
+        try {
+            for (int i = 0; i < sources.length; i++) {
+                Object source = sources[i];
+                copies[i] = switch (kinds[i]) {
+                    case FLAT_ARRAY -> ArrayCopies.cloneFlat(source);
+                    case FLAT_CONTAINER, CONTAINER -> ContainerCopier.of(source.getClass()).allocate(source);
+                    case IMMUTABLE_CONTAINER, RECORD -> null;
+                    default -> CopyContext.allocate(source, source.getClass(), plans[i]);
+                };
+            }
+            for (int i = 0; i < sources.length; i++) {
+                if (kinds[i] == OBJECT) {
+                    plans[i].copyValues(sources[i], copies[i]);
+                }
+                if (kinds[i] == OBJECT || kinds[i] == ARRAY) {
+                    wire(i, copies, false);
+                }
+            }
+            for (int i : populationOrder) {
+                if (kinds[i] == RECORD) {
+                    copies[i] = buildRecord(i, copies);
+                } else if (kinds[i] == CONTAINER || kinds[i] == IMMUTABLE_CONTAINER) {
+                    Object[] contents = new Object[targets[i].length];
+                    for (int slot = 0; slot < contents.length; slot++) {
+                        contents[slot] = resolve(i, slot, copies);
+                    }
+                    ContainerCopier containerCopier = ContainerCopier.of(sources[i].getClass());
+                    if (kinds[i] == CONTAINER) {
+                        containerCopier.populate(copies[i], contents);
+                    } else {
+                        copies[i] = containerCopier.build(contents);
+                    }
+                } else {
+                    wire(i, copies, true);
+                }
+            }
+            return (T) copies[0];
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during prototype copy", e);
+        }
+    }
+
+    /**
+     * Creates the copy of a record from the components of its source, with the copied ones replaced by their copies.
+     */
+    private Object buildRecord(int node, Object[] copies) throws Throwable {
+        Object[] components = plans[node].components(sources[node]);
+        for (int i = 0, slot = 0; i < components.length; i++) {
+            if (plans[node].isCopiedComponent(i)) {
+                components[i] = resolve(node, slot++, copies);
+            }
+        }
+        return plans[node].newRecord(components);
+    }
+
+    /**
+     * Sets the reference fields or array elements of a copied node.
+     * References to immutable collections and records can only be set once those are created.
+     */
+    private void wire(int node, Object[] copies, boolean builtNodes) throws Throwable {
+        for (int slot = 0; slot < targets[node].length; slot++) {
+            int target = targets[node][slot];
+            if ((target >= 0 && isBuilt(target)) != builtNodes) {
+                continue;
+            }
+            Object value = resolve(node, slot, copies);
+            if (kinds[node] == OBJECT) {
+                plans[node].setReference(copies[node], slot, value);
+            } else {
+                ((Object[]) copies[node])[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * Checks if the node is created from the copies of its references, instead of being allocated up front.
+     */
+    private boolean isBuilt(int node) {
+        return kinds[node] == IMMUTABLE_CONTAINER || kinds[node] == RECORD;
+    }
+
+    private boolean referencesBuiltNode(int node) {
+        if (kinds[node] != OBJECT && kinds[node] != ARRAY) {
+            return false;
+        }
+        for (int target : targets[node]) {
+            if (target >= 0 && isBuilt(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object resolve(int node, int slot, Object[] copies) {
+        int target = targets[node][slot];
+        return target < 0 ? sharedValues[node][slot] : copies[target];
+    }
+
+    private static int discover(Object object, Map<Object, Integer> indices, List<Object> nodes, List<Object[]> slots) {
+        int index = nodes.size();
+        indices.put(object, index);
+        nodes.add(object);
+        slots.add(slotsOf(object));
+        return index;
+    }
+
+    /**
+     * Checks if the value is a node of its own, or a null, immutable or shared value shared by all copies.
+     */
+    private static boolean isNode(Object value) {
+        return CopyPolicy.DEFAULT.kindOf(value) == CopyPolicy.COPIED;
+    }
+
+    private static byte kindOf(Object object) {
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            return ArrayCopies.isFlat(clazz) ? FLAT_ARRAY : ARRAY;
+        }
+        if (object instanceof Collection || object instanceof Map) {
+            ContainerCopier containerCopier = ContainerCopier.of(clazz);
+            if (containerCopier.isFlat()) {
+                return FLAT_CONTAINER;
+            }
+            return containerCopier.isBuiltFromContents() ? IMMUTABLE_CONTAINER : CONTAINER;
+        }
+        return clazz.isRecord() ? RECORD : OBJECT;
+    }
+
+    /**
+     * Returns the referenced values of the object in the order of its reference slots.
+     */
+    private static Object[] slotsOf(Object object) {
+        switch (kindOf(object)) {
+            case FLAT_ARRAY, FLAT_CONTAINER:
+                return new Object[0];
+            case ARRAY:
+                return ((Object[]) object).clone();
+            case CONTAINER, IMMUTABLE_CONTAINER:
+                return ContainerCopier.contentsOf(object);
+            case RECORD:
+                return copiedComponentsOf(object);
+            default:
+                ClassCopyPlan plan = ClassCopyPlan.of(object.getClass());
+                Object[] references = new Object[plan.referenceCount()];
+                try {
+                    for (int i = 0; i < references.length; i++) {
+                        references[i] = plan.getReference(object, i);
+                    }
+                } catch (Throwable e) {
+                    throw new DeepCopyException("Error during prototype analysis", e);
+                }
+                return references;
+        }
+    }
+
+    private static Object[] copiedComponentsOf(Object record) {
+        ClassCopyPlan plan = ClassCopyPlan.of(record.getClass());
+        try {
+            Object[] components = plan.components(record);
+            Object[] copied = new Object[plan.referenceCount()];
+            for (int i = 0, slot = 0; i < components.length; i++) {
+                if (plan.isCopiedComponent(i)) {
+                    copied[slot++] = components[i];
+                }
+            }
+            return copied;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during prototype analysis", e);
+        }
+    }
+}
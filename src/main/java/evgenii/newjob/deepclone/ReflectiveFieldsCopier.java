@@ -0,0 +1,50 @@
+package evgenii.newjob.deepclone;
+
+import java.lang.reflect.Field;
+
+/**
+ * Fallback {@link FieldsCopier} working through {@link Field#get} and {@link Field#set}.
+ * Used for classes the {@link MethodHandleFieldsCopier} cannot be generated for.
+ */
+final class ReflectiveFieldsCopier implements FieldsCopier {
+
+    private final Field[] valueFields;
+    private final Field[] referenceFields;
+
+    ReflectiveFieldsCopier(Field[] valueFields, Field[] referenceFields) {
+        this.valueFields = valueFields;
+        this.referenceFields = referenceFields;
+    }
+
+    @Override
+    public void copyValues(Object original, Object copy) throws IllegalAccessException {
+        for (Field field : valueFields) {
+            field.set(copy, field.get(original));
+        }
+    }
+
+    @Override
+    public int valueCount() {
+        return valueFields.length;
+    }
+
+    @Override
+    public Object getValue(Object object, int index) throws IllegalAccessException {
+        return valueFields[index].get(object);
+    }
+
+    @Override
+    public int referenceCount() {
+        return referenceFields.length;
+    }
+
+    @Override
+    public Object getReference(Object object, int index) throws IllegalAccessException {
+        return referenceFields[index].get(object);
+    }
+
+    @Override
+    public void setReference(Object object, int index, Object value) throws IllegalAccessException {
+        referenceFields[index].set(object, value);
+    }
+}
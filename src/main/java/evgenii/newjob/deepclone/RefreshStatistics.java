@@ -0,0 +1,11 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Statistics of refreshing a destination graph with {@link CopyUtils#copyInto(Object, Object)}.
+ * Immutable objects shared by the destination are not counted, since nothing is copied for them.
+ *
+ * @param reused    The number of destination objects, arrays, Collections and Maps reused for the refreshed copy.
+ * @param allocated The number of objects, arrays, Collections and Maps allocated where the shape of the source changed.
+ */
+public record RefreshStatistics(long reused, long allocated) {
+}
@@ -0,0 +1,129 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * {@link Copier} of a class copying itself through a copy constructor or {@code clone()}, detected by a
+ * {@link CopierRegistry}. The class makes the copy, usually a shallow one, and the copier completes it
+ * following the {@link ClassCopyPlan}: references the copy still shares with the original are deep copied,
+ * objects the class created for the copy are kept, and fields skipped by the policy are cleared.
+ * Arrays, Collections and Maps the class created usually still hold the original's elements, as with
+ * {@code new ArrayList<>(other.items)}, so their contents are deep copied in place, or the whole container
+ * is replaced by its deep copy if it cannot be changed. Copies of classes whose fields cannot be read, such as
+ * those of the JDK, are kept as the class made them.
+ */
+final class SelfCopier implements Copier<Object> {
+
+    private final MethodHandle selfCopier;
+
+    /**
+     * Plan completing the copies, {@code null} for classes whose fields cannot be read.
+     */
+    private final ClassCopyPlan plan;
+
+    /**
+     * Creates the copier.
+     *
+     * @param selfCopier The handle of type {@code (Object) Object} calling the copy constructor or {@code clone()}.
+     * @param plan       The plan of the class, {@code null} to keep the copies as the class makes them.
+     */
+    SelfCopier(MethodHandle selfCopier, ClassCopyPlan plan) {
+        this.selfCopier = selfCopier;
+        this.plan = plan;
+    }
+
+    @Override
+    public Object copy(Object original, Context context) {
+        try {
+            Object copy = (Object) selfCopier.invokeExact(original);
+            if (copy == null || copy.getClass() != original.getClass()) {
+                throw new DeepCopyException("Copy constructor or clone() of " + original.getClass().getName()
+                        + " returned " + (copy == null ? "null" : "an instance of " + copy.getClass().getName()));
+            }
+            Object registered = context.register(original, copy);
+            if (registered != copy || plan == null) {
+                return registered;
+            }
+            plan.clearSkippedFields(copy);
+            for (int i = 0; i < plan.referenceCount(); i++) {
+                Object value = plan.getReference(copy, i);
+                if (value != null && (value == plan.getReference(original, i) || !copyContents(value, context))) {
+                    plan.setReference(copy, i, LazyContainers.adapt(context.copy(value), plan.referenceType(i)));
+                }
+            }
+            return copy;
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during object copy", e);
+        }
+    }
+
+    /**
+     * Replaces the elements, keys and values of an array, Collection or Map created by the class with their copies.
+     *
+     * @param container The object referenced by the copy, other objects are left as they are.
+     * @param context   The context of the deep copy call.
+     * @return {@code false} if the container is immutable and has to be replaced by its deep copy.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean copyContents(Object container, Context context) {
+        Class<?> type = container.getClass();
+        if (type.isArray()) {
+            if (!ArrayCopies.isFlat(type)) {
+                Object[] elements = (Object[]) container;
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = context.copy(elements[i]);
+                }
+            }
+            return true;
+        }
+        if (!(container instanceof Collection || container instanceof Map)) {
+            return true;
+        }
+        ContainerCopier containerCopier = ContainerCopier.of(type);
+        if (containerCopier.isFlat()) {
+            return true;
+        }
+        if (containerCopier.isBuiltFromContents()) {
+            return false;
+        }
+        Object[] contents = ContainerCopier.contentsOf(container);
+        boolean copied = false;
+        for (int i = 0; i < contents.length; i++) {
+            Object content = context.copy(contents[i]);
+            copied |= content != contents[i];
+            contents[i] = content;
+        }
+        if (!copied) {
+            return true;
+        }
+        try {
+            if (container instanceof List) {
+                // Replaced in place, which fixed size lists support as well
+                ListIterator<Object> elements = ((List<Object>) container).listIterator();
+                for (Object element : contents) {
+                    elements.next();
+                    elements.set(element);
+                }
+            } else {
+                if (container instanceof Map<?, ?> map) {
+                    map.clear();
+                } else {
+                    ((Collection<?>) container).clear();
+                }
+                containerCopier.populate(container, contents);
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            // Unmodifiable views and copy-on-write lists, the copies of the contents are reused by the copy of the container
+            return false;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package evgenii.newjob.deepclone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Point-in-time copy of an object graph in a compact binary form, which materializes
+ * independent deep copies of the graph as often as needed.
+ * The encoded form starts with a table of the classes of the graph and their field layouts,
+ * followed by a table of all objects, arrays, Collections and Maps of the graph, where references
+ * are node indices, so shared and cyclic references come out of every materialization unchanged.
+ * Strings, boxed primitives and enum constants are stored inline, other JDK values whose fields
+ * are not accessible, such as {@code BigDecimal} or {@code LocalDate}, through Java serialization,
+ * as are the comparators of sorted Collections and Maps. Fields and classes annotated with
+ * {@link evgenii.newjob.deepclone.annotation.Skip} are left out, all other fields are stored.
+ * <p>
+ * A snapshot only holds its bytes, which can live on the heap, in a direct buffer or in a memory-mapped
+ * file, and can be passed to another JVM with the same classes, where it is checked against
+ * the loaded classes before it is materialized. A snapshot is immutable and can be used by several threads.
+ * <p>
+ * Materializing a snapshot creates instances of the classes it names without running their constructors and
+ * reads its serialized values with Java serialization, so snapshots must only be wrapped or mapped from trusted
+ * sources. Classes rejected by the JVM-wide serial filter are rejected, and serialized values may only name
+ * the classes recorded for them when the snapshot was written.
+ *
+ * @param <T> The type of the root of the graph.
+ */
+public final class Snapshot<T> {
+
+    private final ByteBuffer bytes;
+    private final SnapshotReader reader;
+
+    private Snapshot(ByteBuffer bytes) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.reader = new SnapshotReader(this.bytes);
+    }
+
+    /**
+     * Encodes the graph reachable from the root into a heap buffer.
+     */
+    static <T> Snapshot<T> of(T graph) {
+        return new Snapshot<>(SnapshotWriter.encode(graph));
+    }
+
+    /**
+     * Wraps the bytes of a snapshot, such as the {@link #buffer()} of a snapshot received from another JVM.
+     * The bytes between the position and the limit of the buffer are used without copying them,
+     * so they must not be changed while the snapshot is in use. The bytes must come from a trusted source.
+     *
+     * @param bytes The encoded snapshot.
+     * @param <T>   The type of the root of the graph.
+     * @return The snapshot.
+     * @throws evgenii.newjob.deepclone.exception.DeepCopyException If the bytes are not a snapshot,
+     *                                                              or its classes do not match the loaded ones.
+     */
+    public static <T> Snapshot<T> wrap(ByteBuffer bytes) {
+        return new Snapshot<>(bytes.slice());
+    }
+
+    /**
+     * Maps a snapshot file written by {@link #writeTo(Path)} into memory, so that the snapshot
+     * does not occupy the heap. The file must not be changed while the snapshot is in use,
+     * and must come from a trusted source.
+     *
+     * @param file The snapshot file.
+     * @param <T>  The type of the root of the graph.
+     * @return The snapshot backed by the mapped file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public static <T> Snapshot<T> map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Snapshot<>(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates a new independent deep copy of the graph.
+     *
+     * @return The copied root.
+     */
+    @SuppressWarnings("unchecked")
+    public T materialize() {
+        return (T) reader.materialize();
+    }
+
+    /**
+     * Returns the number of bytes of the encoded graph.
+     *
+     * @return The size of the snapshot.
+     */
+    public int size() {
+        return bytes.remaining();
+    }
+
+    /**
+     * Returns a read-only view of the encoded graph, for sending the snapshot to another JVM.
+     *
+     * @return The encoded graph.
+     */
+    public ByteBuffer buffer() {
+        return bytes.duplicate();
+    }
+
+    /**
+     * Writes the encoded graph to a file, replacing its contents, to be mapped with {@link #map(Path)}.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeTo(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer source = bytes.duplicate();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+}
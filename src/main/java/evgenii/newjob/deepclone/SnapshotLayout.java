@@ -0,0 +1,217 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary layout of a class in a {@link Snapshot}, resolved once and cached per class.
+ * The layout decides how instances are encoded: plain objects and records field by field,
+ * arrays, Collections and Maps element by element, and instances of JDK classes whose fields
+ * are not accessible through Java serialization. Fields are identified by their declaring class
+ * and name, and carry a type code, the first character of the field type descriptor,
+ * so that a snapshot read by another JVM can be checked against the classes loaded there.
+ */
+final class SnapshotLayout {
+
+    static final byte OBJECT = 0;
+    static final byte RECORD = 1;
+    static final byte ARRAY = 2;
+    static final byte COLLECTION = 3;
+    static final byte MAP = 4;
+    static final byte ENUM_SET = 5;
+    static final byte ENUM_MAP = 6;
+    static final byte SERIALIZED = 7;
+    static final byte ENUM = 8;
+    static final byte SKIPPED = 9;
+
+    /**
+     * Type code of reference fields and arrays, primitives use the code of their descriptor.
+     */
+    static final char REFERENCE = 'L';
+
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    private static final ClassValue<SnapshotLayout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected SnapshotLayout computeValue(Class<?> type) {
+            return new SnapshotLayout(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final byte kind;
+
+    /**
+     * Encoded fields of plain objects, or the components of records in their declaration order.
+     */
+    private final Field[] fields;
+
+    /**
+     * Type codes of the fields, or the type code of the component type of arrays.
+     */
+    private final char[] codes;
+
+    /**
+     * Getters of the fields, adapted to return the primitive type or {@code Object}.
+     */
+    private final MethodHandle[] getters;
+
+    /**
+     * Setters of the fields of plain objects, adapted to take the primitive type or {@code Object}.
+     */
+    private final MethodHandle[] setters;
+
+    private SnapshotLayout(Class<?> type) {
+        this.type = type;
+        this.kind = kindOf(type);
+        try {
+            if (kind == OBJECT) {
+                List<Field> encoded = new ArrayList<>();
+                for (Field field : ClassCopyPlan.instanceFields(type)) {
+                    if (!CopyPolicy.DEFAULT.skipsField(field)) {
+                        encoded.add(field);
+                    }
+                }
+                this.fields = encoded.toArray(NO_FIELDS);
+            } else if (kind == RECORD) {
+                RecordComponent[] components = type.getRecordComponents();
+                this.fields = new Field[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    fields[i] = type.getDeclaredField(components[i].getName());
+                    fields[i].setAccessible(true);
+                }
+            } else {
+                this.fields = NO_FIELDS;
+            }
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.codes = kind == ARRAY ? new char[]{codeOf(type.getComponentType())} : new char[fields.length];
+            this.getters = new MethodHandle[fields.length];
+            this.setters = kind == OBJECT ? new MethodHandle[fields.length] : null;
+            for (int i = 0; i < fields.length; i++) {
+                Class<?> fieldType = fields[i].getType();
+                Class<?> valueType = fieldType.isPrimitive() ? fieldType : Object.class;
+                codes[i] = codeOf(fieldType);
+                getters[i] = lookup.unreflectGetter(fields[i]).asType(MethodType.methodType(valueType, Object.class));
+                if (setters != null) {
+                    setters[i] = lookup.unreflectSetter(fields[i])
+                            .asType(MethodType.methodType(void.class, Object.class, valueType));
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new DeepCopyException("Cannot build a snapshot layout for " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the cached layout of the given class, building it on first use.
+     *
+     * @param type The class to get the layout for.
+     * @return The layout of the class.
+     */
+    static SnapshotLayout of(Class<?> type) {
+        return LAYOUTS.get(type);
+    }
+
+    Class<?> type() {
+        return type;
+    }
+
+    byte kind() {
+        return kind;
+    }
+
+    Field[] fields() {
+        return fields;
+    }
+
+    char code(int index) {
+        return codes[index];
+    }
+
+    MethodHandle getter(int index) {
+        return getters[index];
+    }
+
+    MethodHandle setter(int index) {
+        return setters[index];
+    }
+
+    /**
+     * Creates a plain object to be populated field by field.
+     *
+     * @return The new instance.
+     * @throws ReflectiveOperationException If the constructor invocation fails.
+     */
+    Object newInstance() throws ReflectiveOperationException {
+        return Instantiator.of(type).newInstance();
+    }
+
+    /**
+     * Creates a record from the values of its components.
+     *
+     * @param components The component values, primitives boxed.
+     * @return The new record.
+     * @throws ReflectiveOperationException If the canonical constructor fails.
+     */
+    Object newRecord(Object[] components) throws ReflectiveOperationException {
+        return Instantiator.of(type).newRecord(components);
+    }
+
+    /**
+     * Returns the type code of a field or array component type.
+     *
+     * @param type The declared type.
+     * @return The first character of the descriptor of primitive types, {@link #REFERENCE} for all others.
+     */
+    static char codeOf(Class<?> type) {
+        return type.isPrimitive() ? type.descriptorString().charAt(0) : REFERENCE;
+    }
+
+    private static byte kindOf(Class<?> type) {
+        if (type.isArray()) {
+            return ARRAY;
+        }
+        if (CopyPolicy.DEFAULT.skipsType(type)) {
+            return SKIPPED;
+        }
+        if (Enum.class.isAssignableFrom(type)) {
+            return ENUM;
+        }
+        if (EnumSet.class.isAssignableFrom(type)) {
+            return ENUM_SET;
+        }
+        if (type == EnumMap.class) {
+            return ENUM_MAP;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return COLLECTION;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return MAP;
+        }
+        if (type.isRecord()) {
+            return RECORD;
+        }
+        if (!type.isHidden() && type.getModule().isOpen(type.getPackageName(), SnapshotLayout.class.getModule())) {
+            return OBJECT;
+        }
+        // JDK values such as BigDecimal or LocalDate, and serializable lambdas
+        if (Serializable.class.isAssignableFrom(type)) {
+            return SERIALIZED;
+        }
+        throw new DeepCopyException("Cannot snapshot instances of " + type.getName());
+    }
+}
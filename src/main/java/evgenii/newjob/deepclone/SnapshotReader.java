@@ -0,0 +1,568 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Materializes deep copies from the binary format written by {@link SnapshotWriter}.
+ * The class table is resolved against the loaded classes once, when the reader is created.
+ * Each materialization then allocates all nodes, fills plain objects and arrays, and finally
+ * populates Collections and Maps and creates records and immutable collections in post-order,
+ * elements before their containers, like {@link Prototype} does from its node table.
+ * Every materialization reads through its own view of the buffer, so a reader can be used by several threads.
+ * <p>
+ * Like Java serialization, a materialization creates instances of the classes named by the snapshot without
+ * running their constructors, so snapshots must only be read from trusted sources. As a safeguard, classes of
+ * the class table are only loaded for the kinds the writer emits and must pass the JVM-wide serial filter,
+ * and serialized values may only name the classes the writer recorded for them.
+ */
+final class SnapshotReader {
+
+    /**
+     * Node states of a materialization, the first two are filled field by field or element by element.
+     */
+    private static final byte FILLED_OBJECT = 0;
+    private static final byte FILLED_ARRAY = 1;
+    private static final byte COMPLETE = 2;
+    private static final byte CONTAINER = 3;
+    private static final byte BUILT_CONTAINER = 4;
+    private static final byte BUILT_RECORD = 5;
+
+    /**
+     * Stands for a reference to a record or immutable collection that is not created yet.
+     */
+    private static final Object UNRESOLVED = new Object();
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Layouts of the class table, {@code null} for classes of serialized nodes.
+     */
+    private final SnapshotLayout[] classes;
+
+    /**
+     * Positions of the encoded strings of the string table.
+     */
+    private final int[] stringPositions;
+
+    /**
+     * Filter of the serialized values, accepting only the classes recorded by the writer.
+     */
+    private final ObjectInputFilter serialFilter;
+
+    private final int nodeCount;
+    private final int rootPosition;
+    private final int offsetsPosition;
+    private final int postOrderPosition;
+
+    SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        try {
+            ByteBuffer in = buffer.duplicate();
+            if (in.getInt() != SnapshotWriter.MAGIC) {
+                throw new DeepCopyException("Not a snapshot");
+            }
+            int version = in.getInt();
+            if (version != SnapshotWriter.VERSION) {
+                throw new DeepCopyException("Unsupported snapshot version " + version);
+            }
+            ByteBuffer strings = buffer.duplicate().position(in.getInt());
+            this.stringPositions = new int[strings.getInt()];
+            for (int i = 0; i < stringPositions.length; i++) {
+                stringPositions[i] = strings.position();
+                strings.position(strings.position() + 4 + strings.getInt(strings.position()));
+            }
+            Set<String> serializedClasses = new HashSet<>();
+            for (int i = strings.getInt(); i > 0; i--) {
+                serializedClasses.add(readString(strings));
+            }
+            this.serialFilter = serialFilterOf(serializedClasses);
+            this.classes = new SnapshotLayout[in.getInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = readClass(in);
+            }
+            this.nodeCount = in.getInt();
+            this.rootPosition = in.position();
+            skipValue(in);
+            this.offsetsPosition = in.position();
+            this.postOrderPosition = offsetsPosition + 4 * nodeCount;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new DeepCopyException("Truncated snapshot", e);
+        }
+    }
+
+    /**
+     * Creates a new independent deep copy of the encoded graph.
+     *
+     * @return The copied root.
+     */
+    Object materialize() {
+        try {
+            return new Materialization().run();
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during snapshot materialization", e);
+        }
+    }
+
+    /**
+     * Resolves a class of the class table and checks that the loaded class still has the encoded layout.
+     * Classes are loaded without being initialized, and only for the kinds of classes the writer emits.
+     */
+    private static SnapshotLayout readClass(ByteBuffer in) {
+        String name = readString(in);
+        byte kind = in.get();
+        String[] declaringClasses = new String[0];
+        String[] fieldNames = new String[0];
+        char[] codes = new char[0];
+        if (kind == SnapshotLayout.OBJECT || kind == SnapshotLayout.RECORD) {
+            int fieldCount = in.getInt();
+            declaringClasses = new String[fieldCount];
+            fieldNames = new String[fieldCount];
+            codes = new char[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                declaringClasses[i] = readString(in);
+                fieldNames[i] = readString(in);
+                codes[i] = (char) in.get();
+            }
+        }
+        if (kind == SnapshotLayout.SERIALIZED) {
+            return null;
+        }
+        if (kind < SnapshotLayout.OBJECT || kind > SnapshotLayout.ENUM) {
+            throw new DeepCopyException("Unknown kind " + kind + " of the snapshot class " + name);
+        }
+
+        Class<?> type;
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            type = Class.forName(name, false, loader != null ? loader : SnapshotReader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new DeepCopyException("Cannot load the snapshot class " + name, e);
+        }
+        ObjectInputFilter globalFilter = ObjectInputFilter.Config.getSerialFilter();
+        if (globalFilter != null && globalFilter.checkInput(new ClassCheck(type)) == ObjectInputFilter.Status.REJECTED) {
+            throw new DeepCopyException("Snapshot class " + name + " is rejected by the serial filter");
+        }
+        SnapshotLayout layout = SnapshotLayout.of(type);
+        Field[] fields = layout.fields();
+        boolean matches = layout.kind() == kind && fields.length == fieldNames.length;
+        for (int i = 0; matches && i < fields.length; i++) {
+            matches = fields[i].getDeclaringClass().getName().equals(declaringClasses[i])
+                    && fields[i].getName().equals(fieldNames[i])
+                    && layout.code(i) == codes[i];
+        }
+        if (!matches) {
+            throw new DeepCopyException("Snapshot layout of " + name + " does not match the loaded class");
+        }
+        return layout;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipValue(ByteBuffer in) {
+        switch (in.get()) {
+            case SnapshotWriter.BOOLEAN, SnapshotWriter.BYTE -> in.get();
+            case SnapshotWriter.CHAR, SnapshotWriter.SHORT -> in.getShort();
+            case SnapshotWriter.NODE, SnapshotWriter.STRING, SnapshotWriter.INT, SnapshotWriter.FLOAT -> in.getInt();
+            case SnapshotWriter.LONG, SnapshotWriter.DOUBLE -> in.getLong();
+            case SnapshotWriter.ENUM_CONSTANT -> {
+                in.getInt();
+                in.position(in.position() + in.getInt());
+            }
+            default -> {
+            }
+        }
+    }
+
+    private Object deserialize(ByteBuffer in) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            input.setObjectInputFilter(serialFilter);
+            return input.readObject();
+        }
+    }
+
+    /**
+     * Returns the filter accepting only the given classes and arrays of them or of primitives,
+     * and nothing the JVM-wide serial filter rejects.
+     */
+    private static ObjectInputFilter serialFilterOf(Set<String> serializedClasses) {
+        ObjectInputFilter globalFilter = ObjectInputFilter.Config.getSerialFilter();
+        return info -> {
+            if (globalFilter != null && globalFilter.checkInput(info) == ObjectInputFilter.Status.REJECTED) {
+                return ObjectInputFilter.Status.REJECTED;
+            }
+            Class<?> type = info.serialClass();
+            if (type == null) {
+                return ObjectInputFilter.Status.UNDECIDED;
+            }
+            while (type.isArray() && !serializedClasses.contains(type.getName())) {
+                type = type.getComponentType();
+            }
+            return type.isPrimitive() || serializedClasses.contains(type.getName())
+                    ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+        };
+    }
+
+    /**
+     * A class of the class table checked against the JVM-wide serial filter, as if it was read from a stream.
+     */
+    private record ClassCheck(Class<?> serialClass) implements ObjectInputFilter.FilterInfo {
+
+        @Override
+        public long arrayLength() {
+            return -1;
+        }
+
+        @Override
+        public long depth() {
+            return 1;
+        }
+
+        @Override
+        public long references() {
+            return 0;
+        }
+
+        @Override
+        public long streamBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * Enum classes are only known at runtime, the snapshot guarantees the constants match them.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Collection<Object> newEnumSet(Class<?> enumClass) {
+        return EnumSet.noneOf((Class) enumClass);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Map<Object, Object> newEnumMap(Class<?> enumClass) {
+        return new EnumMap(enumClass);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Object enumConstant(Class<?> enumClass, String name) {
+        return Enum.valueOf((Class) enumClass, name);
+    }
+
+    /**
+     * State of a single materialization.
+     */
+    private final class Materialization {
+
+        private final ByteBuffer in = buffer.duplicate();
+        private final Object[] copies = new Object[nodeCount];
+        private final byte[] states = new byte[nodeCount];
+        private final SnapshotLayout[] layouts = new SnapshotLayout[nodeCount];
+
+        /**
+         * Strings of the string table decoded so far, shared by all references to them like in a deep copy.
+         */
+        private final String[] strings = new String[stringPositions.length];
+
+        /**
+         * Per node the position of its fields, elements or entries, following the node header.
+         */
+        private final int[] payloads = new int[nodeCount];
+
+        /**
+         * Per Collection or Map the number of its elements, or of its keys and values.
+         */
+        private final int[] contentLengths = new int[nodeCount];
+
+        /**
+         * Per filled node whether it references a record or immutable collection, set once those are created.
+         */
+        private final boolean[] deferred = new boolean[nodeCount];
+
+        /**
+         * Whether records and immutable collections are being created, so references to them must resolve.
+         */
+        private boolean inPostOrder;
+
+        private Object run() throws Throwable {
+            for (int i = 0; i < nodeCount; i++) {
+                allocate(i);
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                if (states[i] == FILLED_OBJECT || states[i] == FILLED_ARRAY) {
+                    fill(i);
+                }
+            }
+            inPostOrder = true;
+            for (int i = 0; i < nodeCount; i++) {
+                int node = in.getInt(postOrderPosition + 4 * i);
+                switch (states[node]) {
+                    case CONTAINER, BUILT_CONTAINER -> populate(node);
+                    case BUILT_RECORD -> build(node);
+                    case FILLED_OBJECT, FILLED_ARRAY -> {
+                        if (deferred[node]) {
+                            fill(node);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+            in.position(rootPosition);
+            return readValue();
+        }
+
+        /**
+         * Reads the node header and creates the node, complete for primitive arrays, EnumSets and serialized values.
+         */
+        private void allocate(int node) throws Throwable {
+            in.position(in.getInt(offsetsPosition + 4 * node));
+            SnapshotLayout layout = classes[in.getInt()];
+            layouts[node] = layout;
+            if (layout == null) {
+                copies[node] = deserialize(in);
+                states[node] = COMPLETE;
+                return;
+            }
+            switch (layout.kind()) {
+                case SnapshotLayout.OBJECT -> {
+                    copies[node] = layout.newInstance();
+                    states[node] = FILLED_OBJECT;
+                }
+                case SnapshotLayout.RECORD -> states[node] = BUILT_RECORD;
+                case SnapshotLayout.ARRAY -> {
+                    Object array = Array.newInstance(layout.type().getComponentType(), in.getInt());
+                    copies[node] = array;
+                    states[node] = layout.code(0) == SnapshotLayout.REFERENCE ? FILLED_ARRAY : COMPLETE;
+                    if (states[node] == COMPLETE) {
+                        readPrimitives(array, layout.code(0));
+                    }
+                }
+                case SnapshotLayout.ENUM_SET -> {
+                    Collection<Object> set = newEnumSet(classes[in.getInt()].type());
+                    int size = in.getInt();
+                    for (int i = 0; i < size; i++) {
+                        set.add(readValue());
+                    }
+                    copies[node] = set;
+                    states[node] = COMPLETE;
+                }
+                case SnapshotLayout.ENUM_MAP -> {
+                    int enumClass = in.getInt();
+                    if (enumClass < 0) {
+                        copies[node] = deserialize(in);
+                        states[node] = COMPLETE;
+                    } else {
+                        copies[node] = newEnumMap(classes[enumClass].type());
+                        contentLengths[node] = 2 * in.getInt();
+                        states[node] = CONTAINER;
+                    }
+                }
+                default -> {
+                    int size = in.getInt();
+                    contentLengths[node] = layout.kind() == SnapshotLayout.MAP ? 2 * size : size;
+                    Comparator<Object> comparator = null;
+                    if (in.getInt(in.position()) < 0) {
+                        in.getInt();
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        Comparator<Object> deserialized = (Comparator<Object>) deserialize(in);
+                        comparator = deserialized;
+                    }
+                    ContainerCopier containerCopier = ContainerCopier.of(layout.type());
+                    if (containerCopier.isBuiltFromContents()) {
+                        states[node] = BUILT_CONTAINER;
+                    } else {
+                        copies[node] = containerCopier.allocate(size, comparator);
+                        states[node] = CONTAINER;
+                    }
+                }
+            }
+            payloads[node] = in.position();
+        }
+
+        /**
+         * Sets the fields of a plain object or the elements of an array.
+         * References to records and immutable collections not created yet are left for a second pass.
+         */
+        private void fill(int node) throws Throwable {
+            in.position(payloads[node]);
+            Object copy = copies[node];
+            if (states[node] == FILLED_ARRAY) {
+                Object[] array = (Object[]) copy;
+                for (int i = 0; i < array.length; i++) {
+                    Object value = readValue();
+                    if (value == UNRESOLVED) {
+                        deferred[node] = true;
+                    } else {
+                        array[i] = value;
+                    }
+                }
+                return;
+            }
+            SnapshotLayout layout = layouts[node];
+            for (int i = 0; i < layout.fields().length; i++) {
+                MethodHandle setter = layout.setter(i);
+                switch (layout.code(i)) {
+                    case 'Z' -> setter.invokeExact(copy, in.get() != 0);
+                    case 'B' -> setter.invokeExact(copy, in.get());
+                    case 'C' -> setter.invokeExact(copy, in.getChar());
+                    case 'S' -> setter.invokeExact(copy, in.getShort());
+                    case 'I' -> setter.invokeExact(copy, in.getInt());
+                    case 'J' -> setter.invokeExact(copy, in.getLong());
+                    case 'F' -> setter.invokeExact(copy, in.getFloat());
+                    case 'D' -> setter.invokeExact(copy, in.getDouble());
+                    default -> {
+                        Object value = readValue();
+                        if (value == UNRESOLVED) {
+                            deferred[node] = true;
+                        } else {
+                            setter.invokeExact(copy, value);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void populate(int node) throws Throwable {
+            in.position(payloads[node]);
+            Object[] contents = new Object[contentLengths[node]];
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = readValue();
+            }
+            if (states[node] == BUILT_CONTAINER) {
+                copies[node] = ContainerCopier.of(layouts[node].type()).build(contents);
+            } else {
+                ContainerCopier.of(copies[node].getClass()).populate(copies[node], contents);
+            }
+        }
+
+        private void build(int node) throws Throwable {
+            in.position(payloads[node]);
+            SnapshotLayout layout = layouts[node];
+            Object[] components = new Object[layout.fields().length];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = switch (layout.code(i)) {
+                    case 'Z' -> in.get() != 0;
+                    case 'B' -> in.get();
+                    case 'C' -> in.getChar();
+                    case 'S' -> in.getShort();
+                    case 'I' -> in.getInt();
+                    case 'J' -> in.getLong();
+                    case 'F' -> in.getFloat();
+                    case 'D' -> in.getDouble();
+                    default -> readValue();
+                };
+            }
+            copies[node] = layout.newRecord(components);
+        }
+
+
+        private Object readValue() {
+            byte tag = in.get();
+            return switch (tag) {
+                case SnapshotWriter.NULL -> null;
+                case SnapshotWriter.NODE -> {
+                    int node = in.getInt();
+                    Object copy = copies[node];
+                    if (copy == null && (states[node] == BUILT_CONTAINER || states[node] == BUILT_RECORD)) {
+                        // Created in post-order, so only a reference cycle reaches one not created yet
+                        if (inPostOrder) {
+                            throw cycleThroughImmutable();
+                        }
+                        yield UNRESOLVED;
+                    }
+                    yield copy;
+                }
+                case SnapshotWriter.STRING -> string(in.getInt());
+                case SnapshotWriter.BOOLEAN -> in.get() != 0;
+                case SnapshotWriter.BYTE -> in.get();
+                case SnapshotWriter.CHAR -> in.getChar();
+                case SnapshotWriter.SHORT -> in.getShort();
+                case SnapshotWriter.INT -> in.getInt();
+                case SnapshotWriter.LONG -> in.getLong();
+                case SnapshotWriter.FLOAT -> in.getFloat();
+                case SnapshotWriter.DOUBLE -> in.getDouble();
+                case SnapshotWriter.ENUM_CONSTANT -> enumConstant(classes[in.getInt()].type(), readString(in));
+                default -> throw new DeepCopyException("Corrupted snapshot, unknown value tag " + tag);
+            };
+        }
+
+        private String string(int index) {
+            String string = strings[index];
+            if (string == null) {
+                string = readString(in.duplicate().position(stringPositions[index]));
+                strings[index] = string;
+            }
+            return string;
+        }
+
+        private void readPrimitives(Object array, char code) {
+            int length = Array.getLength(array);
+            switch (code) {
+                case 'Z' -> {
+                    boolean[] booleans = (boolean[]) array;
+                    for (int i = 0; i < length; i++) {
+                        booleans[i] = in.get() != 0;
+                    }
+                }
+                case 'B' -> in.get((byte[]) array);
+                case 'C' -> {
+                    in.asCharBuffer().get((char[]) array);
+                    skip(2 * length);
+                }
+                case 'S' -> {
+                    in.asShortBuffer().get((short[]) array);
+                    skip(2 * length);
+                }
+                case 'I' -> {
+                    in.asIntBuffer().get((int[]) array);
+                    skip(4 * length);
+                }
+                case 'J' -> {
+                    in.asLongBuffer().get((long[]) array);
+                    skip(8 * length);
+                }
+                case 'F' -> {
+                    in.asFloatBuffer().get((float[]) array);
+                    skip(4 * length);
+                }
+                default -> {
+                    in.asDoubleBuffer().get((double[]) array);
+                    skip(8 * length);
+                }
+            }
+        }
+
+        private void skip(int bytes) {
+            in.position(in.position() + bytes);
+        }
+
+        private DeepCopyException cycleThroughImmutable() {
+            return new DeepCopyException("Cyclic reference through a record or an immutable collection");
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package evgenii.newjob.deepclone;
+
+import evgenii.newjob.deepclone.exception.DeepCopyException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes an object graph into the binary format of a {@link Snapshot}.
+ * The graph is first walked depth-first with an explicit stack, which assigns every object,
+ * array, Collection and Map an index in the node table, keyed by identity like the copies
+ * of a deep copy, so that shared and cyclic references are encoded as the same index.
+ * Boxed primitives and enum constants are encoded inline where they are referenced.
+ * <p>
+ * The format, all numbers big-endian:
+ * <pre>
+ * header:  magic, version, offset of the string table
+ * classes: count, per class its name, kind and field layout
+ * nodes:   count, root value, offset of every node, node indices in post-order
+ * payload: per node its class index followed by its fields, elements or entries
+ * strings: count, per distinct string its UTF-8 bytes
+ * serial:  count, per class written by Java serialization its name
+ * </pre>
+ * Strings are referenced by their index in the string table, so equal strings are stored once.
+ * The classes of serialized values and comparators, including those of their internals, are recorded,
+ * so the reader can reject serialized streams naming any other class.
+ */
+final class SnapshotWriter {
+
+    static final int MAGIC = 0x44435331;
+    static final int VERSION = 2;
+
+    static final byte NULL = 0;
+    static final byte NODE = 1;
+    static final byte STRING = 2;
+    static final byte BOOLEAN = 3;
+    static final byte BYTE = 4;
+    static final byte CHAR = 5;
+    static final byte SHORT = 6;
+    static final byte INT = 7;
+    static final byte LONG = 8;
+    static final byte FLOAT = 9;
+    static final byte DOUBLE = 10;
+    static final byte ENUM_CONSTANT = 11;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final IdentityTable indices = new IdentityTable();
+    private final List<Object> nodes = new ArrayList<>();
+    private final List<SnapshotLayout> nodeLayouts = new ArrayList<>();
+    private final List<Object[]> slots = new ArrayList<>();
+    private final Map<Class<?>, Integer> classIndices = new HashMap<>();
+    private final List<SnapshotLayout> classes = new ArrayList<>();
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Set<String> serializedClasses = new LinkedHashSet<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    private SnapshotWriter() {
+    }
+
+    /**
+     * Encodes the graph reachable from the root.
+     *
+     * @param root The root of the graph.
+     * @return The buffer holding the encoded graph, exactly as large as the encoded form.
+     */
+    static ByteBuffer encode(Object root) {
+        try {
+            return new SnapshotWriter().write(root);
+        } catch (DeepCopyException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeepCopyException("Error during snapshot encoding", e);
+        }
+    }
+
+    private ByteBuffer write(Object root) throws Throwable {
+        int[] postOrder = discoverAll(root);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        int stringsPosition = buffer.position();
+        buffer.putInt(0);
+        writeInt(classes.size());
+        for (SnapshotLayout layout : classes) {
+            writeClass(layout);
+        }
+        writeInt(nodes.size());
+        writeValue(root);
+        int offsetsPosition = buffer.position();
+        ensure(8L * nodes.size());
+        buffer.position(offsetsPosition + 4 * nodes.size());
+        for (int index : postOrder) {
+            buffer.putInt(index);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            buffer.putInt(offsetsPosition + 4 * i, buffer.position());
+            writeNode(i);
+        }
+        buffer.putInt(stringsPosition, buffer.position());
+        writeInt(strings.size());
+        for (String string : strings) {
+            writeString(string);
+        }
+        writeInt(serializedClasses.size());
+        for (String name : serializedClasses) {
+            writeString(name);
+        }
+
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Assigns all nodes their index and returns the node indices in post-order, elements before their containers.
+     */
+    private int[] discoverAll(Object root) throws Throwable {
+        if (!isNode(root)) {
+            classIndexOfValue(root);
+            return new int[0];
+        }
+        int[] postOrder = new int[16];
+        int count = 0;
+        // Depth-first walk with an explicit stack of {node index, next slot} frames
+        Deque<int[]> frames = new ArrayDeque<>();
+        frames.push(new int[]{discover(root), 0});
+        while (!frames.isEmpty()) {
+            int[] frame = frames.peek();
+            Object[] nodeSlots = slots.get(frame[0]);
+            if (frame[1] < nodeSlots.length) {
+                Object child = nodeSlots[frame[1]++];
+                if (isNode(child)) {
+                    if (indices.get(child) == null) {
+                        frames.push(new int[]{discover(child), 0});
+                    }
+                } else {
+                    classIndexOfValue(child);
+                }
+            } else {
+                frames.pop();
+                if (count == postOrder.length) {
+                    postOrder = Arrays.copyOf(postOrder, count * 2);
+                }
+                postOrder[count++] = frame[0];
+            }
+        }
+        return Arrays.copyOf(postOrder, count);
+    }
+
+    private int discover(Object node) throws Throwable {
+        int index = nodes.size();
+        indices.put(node, index);
+        SnapshotLayout layout = SnapshotLayout.of(node.getClass());
+        classIndex(layout);
+        nodes.add(node);
+        nodeLayouts.add(layout);
+        slots.add(slotsOf(node, layout));
+        return index;
+    }
+
+    /**
+     * Returns the referenced values of the node, in the order they are encoded.
+     */
+    private Object[] slotsOf(Object node, SnapshotLayout layout) throws Throwable {
+        switch (layout.kind()) {
+            case SnapshotLayout.OBJECT, SnapshotLayout.RECORD:
+                List<Object> references = new ArrayList<>();
+                for (int i = 0; i < layout.fields().length; i++) {
+                    if (layout.code(i) == SnapshotLayout.REFERENCE) {
+                        references.add((Object) layout.getter(i).invokeExact(node));
+                    }
+                }
+                return references.toArray();
+            case SnapshotLayout.ARRAY:
+                return node instanceof Object[] array ? array.clone() : new Object[0];
+            case SnapshotLayout.COLLECTION, SnapshotLayout.MAP, SnapshotLayout.ENUM_SET, SnapshotLayout.ENUM_MAP:
+                if (layout.kind() == SnapshotLayout.ENUM_SET) {
+                    classIndex(SnapshotLayout.of(enumTypeOf((EnumSet<?>) node)));
+                }
+                if (layout.kind() == SnapshotLayout.ENUM_MAP && !((EnumMap<?, ?>) node).isEmpty()) {
+                    classIndexOfValue(((EnumMap<?, ?>) node).keySet().iterator().next());
+                }
+                return ContainerCopier.contentsOf(node);
+            default:
+                return new Object[0];
+        }
+    }
+
+    private static boolean isNode(Object value) {
+        return !isInline(value) && CopyPolicy.DEFAULT.kindOf(value) != CopyPolicy.SKIPPED;
+    }
+
+    private static boolean isInline(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Boolean || value instanceof Character || value instanceof Byte
+                || value instanceof Short || value instanceof Float || value instanceof Enum;
+    }
+
+    /**
+     * Registers the enum class of an inline value, other inline values need no class.
+     */
+    private void classIndexOfValue(Object value) {
+        if (value instanceof Enum<?> constant) {
+            classIndex(SnapshotLayout.of(constant.getDeclaringClass()));
+        }
+    }
+
+    private int classIndex(SnapshotLayout layout) {
+        Integer index = classIndices.get(layout.type());
+        if (index == null) {
+            index = classes.size();
+            classIndices.put(layout.type(), index);
+            classes.add(layout);
+        }
+        return index;
+    }
+
+    private void writeClass(SnapshotLayout layout) {
+        writeString(layout.type().getName());
+        ensure(1);
+        buffer.put(layout.kind());
+        if (layout.kind() == SnapshotLayout.OBJECT || layout.kind() == SnapshotLayout.RECORD) {
+            Field[] fields = layout.fields();
+            writeInt(fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                writeString(fields[i].getDeclaringClass().getName());
+                writeString(fields[i].getName());
+                ensure(1);
+                buffer.put((byte) layout.code(i));
+            }
+        }
+    }
+
+    private void writeNode(int index) throws Throwable {
+        Object node = nodes.get(index);
+        SnapshotLayout layout = nodeLayouts.get(index);
+        writeInt(classIndices.get(layout.type()));
+        switch (layout.kind()) {
+            case SnapshotLayout.OBJECT, SnapshotLayout.RECORD -> {
+                Object[] references = slots.get(index);
+                int reference = 0;
+                for (int i = 0; i < layout.fields().length; i++) {
+                    if (layout.code(i) == SnapshotLayout.REFERENCE) {
+                        writeValue(references[reference++]);
+                    } else {
+                        writeField(node, layout, i);
+                    }
+                }
+            }
+            case SnapshotLayout.ARRAY -> writeArray(node, layout.code(0), index);
+            case SnapshotLayout.COLLECTION, SnapshotLayout.MAP -> {
+                Object[] contents = slots.get(index);
+                writeInt(layout.kind() == SnapshotLayout.MAP ? contents.length / 2 : contents.length);
+                Comparator<Object> comparator = ContainerCopier.comparatorOf(node);
+                if (comparator == null) {
+                    writeInt(-1);
+                } else {
+                    writeBytes(serialize(comparator));
+                }
+                writeValues(contents);
+            }
+            case SnapshotLayout.ENUM_SET -> {
+                writeInt(classIndices.get(enumTypeOf((EnumSet<?>) node)));
+                writeInt(slots.get(index).length);
+                writeValues(slots.get(index));
+            }
+            case SnapshotLayout.ENUM_MAP -> {
+                Object[] contents = slots.get(index);
+                if (contents.length == 0) {
+                    // The enum type of an empty EnumMap is only kept by its serialized form
+                    writeInt(-1);
+                    writeBytes(serialize(node));
+                } else {
+                    writeInt(classIndices.get(((Enum<?>) contents[0]).getDeclaringClass()));
+                    writeInt(contents.length / 2);
+                    writeValues(contents);
+                }
+            }
+            default -> writeBytes(serialize(node));
+        }
+    }
+
+    private void writeField(Object node, SnapshotLayout layout, int index) throws Throwable {
+        MethodHandle getter = layout.getter(index);
+        ensure(8);
+        switch (layout.code(index)) {
+            case 'Z' -> buffer.put((boolean) getter.invokeExact(node) ? (byte) 1 : (byte) 0);
+            case 'B' -> buffer.put((byte) getter.invokeExact(node));
+            case 'C' -> buffer.putChar((char) getter.invokeExact(node));
+            case 'S' -> buffer.putShort((short) getter.invokeExact(node));
+            case 'I' -> buffer.putInt((int) getter.invokeExact(node));
+            case 'J' -> buffer.putLong((long) getter.invokeExact(node));
+            case 'F' -> buffer.putFloat((float) getter.invokeExact(node));
+            default -> buffer.putDouble((double) getter.invokeExact(node));
+        }
+    }
+
+    /**
+     * Writes the length and the elements of an array, primitive arrays in bulk.
+     */
+    private void writeArray(Object array, char code, int index) {
+        int length = Array.getLength(array);
+        writeInt(length);
+        switch (code) {
+            case 'Z' -> {
+                ensure(length);
+                for (boolean element : (boolean[]) array) {
+                    buffer.put(element ? (byte) 1 : (byte) 0);
+                }
+            }
+            case 'B' -> {
+                ensure(length);
+                buffer.put((byte[]) array);
+            }
+            case 'C' -> {
+                ensure(2L * length);
+                buffer.asCharBuffer().put((char[]) array);
+                skip(2 * length);
+            }
+            case 'S' -> {
+                ensure(2L * length);
+                buffer.asShortBuffer().put((short[]) array);
+                skip(2 * length);
+            }
+            case 'I' -> {
+                ensure(4L * length);
+                buffer.asIntBuffer().put((int[]) array);
+                skip(4 * length);
+            }
+            case 'J' -> {
+                ensure(8L * length);
+                buffer.asLongBuffer().put((long[]) array);
+                skip(8 * length);
+            }
+            case 'F' -> {
+                ensure(4L * length);
+                buffer.asFloatBuffer().put((float[]) array);
+                skip(4 * length);
+            }
+            case 'D' -> {
+                ensure(8L * length);
+                buffer.asDoubleBuffer().put((double[]) array);
+                skip(8 * length);
+            }
+            default -> writeValues(slots.get(index));
+        }
+    }
+
+    private void writeValues(Object[] values) {
+        for (Object value : values) {
+            writeValue(value);
+        }
+    }
+
+    /**
+     * Writes a reference as a tag followed by the node index or the inline value.
+     */
+    private void writeValue(Object value) {
+        ensure(9);
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (value instanceof String string) {
+            Integer index = stringIndices.get(string);
+            if (index == null) {
+                index = strings.size();
+                stringIndices.put(string, index);
+                strings.add(string);
+            }
+            buffer.put(STRING).putInt(index);
+        } else if (value instanceof Integer integer) {
+            buffer.put(INT).putInt(integer);
+        } else if (value instanceof Long longValue) {
+            buffer.put(LONG).putLong(longValue);
+        } else if (value instanceof Double doubleValue) {
+            buffer.put(DOUBLE).putDouble(doubleValue);
+        } else if (value instanceof Boolean booleanValue) {
+            buffer.put(BOOLEAN).put(booleanValue ? (byte) 1 : (byte) 0);
+        } else if (value instanceof Character character) {
+            buffer.put(CHAR).putChar(character);
+        } else if (value instanceof Byte byteValue) {
+            buffer.put(BYTE).put(byteValue);
+        } else if (value instanceof Short shortValue) {
+            buffer.put(SHORT).putShort(shortValue);
+        } else if (value instanceof Float floatValue) {
+            buffer.put(FLOAT).putFloat(floatValue);
+        } else if (value instanceof Enum<?> constant) {
+            buffer.put(ENUM_CONSTANT).putInt(classIndices.get(constant.getDeclaringClass()));
+            writeString(constant.name());
+        } else {
+            Object index = indices.get(value);
+            // Instances of skipped classes are not nodes
+            if (index == null) {
+                buffer.put(NULL);
+            } else {
+                buffer.put(NODE).putInt((Integer) index);
+            }
+        }
+    }
+
+    private void writeString(String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void skip(int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    /**
+     * Grows the buffer to hold the given number of further bytes.
+     */
+    private void ensure(long bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        long required = buffer.position() + bytes;
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new DeepCopyException("Snapshot exceeds the maximal size of 2 GB");
+        }
+        int capacity = (int) Math.min(Math.max(required, 2L * buffer.capacity()), Integer.MAX_VALUE - 8);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        grown.put(buffer.flip());
+        buffer = grown;
+    }
+
+    /**
+     * Returns the enum type of an EnumSet, which an empty set only reveals through its complement.
+     */
+    private static Class<?> enumTypeOf(EnumSet<?> set) {
+        EnumSet<?> nonEmpty = set.isEmpty() ? EnumSet.complementOf(set) : set;
+        if (nonEmpty.isEmpty()) {
+            throw new DeepCopyException("Cannot snapshot an EnumSet of an enum without constants");
+        }
+        return nonEmpty.iterator().next().getDeclaringClass();
+    }
+
+    /**
+     * Serializes a value, recording its class, which a replacement written in its place resolves to again,
+     * and the class of every class descriptor written to the stream.
+     */
+    private byte[] serialize(Object value) {
+        serializedClasses.add(value.getClass().getName());
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes) {
+                @Override
+                protected void annotateClass(Class<?> type) {
+                    serializedClasses.add(type.getName());
+                }
+            }) {
+                output.writeObject(value);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DeepCopyException("Cannot snapshot " + value.getClass().getName(), e);
+        }
+    }
+}
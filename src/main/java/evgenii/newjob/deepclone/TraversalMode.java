@@ -0,0 +1,32 @@
+package evgenii.newjob.deepclone;
+
+/**
+ * Strategy of walking the object graph during a deep copy.
+ */
+public enum TraversalMode {
+
+    /**
+     * Copies referenced objects by recursive calls, one Java stack frame per reference level.
+     * Fastest for graphs of moderate depth.
+     */
+    RECURSIVE,
+
+    /**
+     * Allocates the copy of each object first and pushes its pending fields, elements and entries
+     * to an explicit work stack, so the copy depth is limited only by the heap. An object reached again
+     * before its fields are copied is completed first, so containers are populated with complete copies.
+     */
+    ITERATIVE,
+
+    /**
+     * Copies plain objects recursively, and copies nested Lists, Sets and Maps into copy-on-write views.
+     * A view takes the contents of the original as a plain array, copies the plain objects and records among
+     * them only when they are first read through the view, and builds the copy of the original's type,
+     * with its hashing or sorting, only on the first write or keyed lookup. Suited for read-mostly copies.
+     * Nested containers are taken when the copy is made, so later changes of the original's containers never
+     * reach the copy, but an object not read yet is copied in the state it has at its first read.
+     * Views implement only the List, Set or Map interface, so fields and arrays of a concrete container type,
+     * as well as a root container, receive the populated copy of the original's type instead.
+     */
+    LAZY
+}
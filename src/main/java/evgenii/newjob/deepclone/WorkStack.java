@@ -0,0 +1,110 @@
+package evgenii.newjob.deepclone;
+
+import java.util.Arrays;
+
+/**
+ * Stack of pending operations for the {@link TraversalMode#ITERATIVE} traversal, the {@link GraphWalker}
+ * and the {@link GraphRefresher}.
+ * Operations are stored in parallel arrays, so pushing an operation does not allocate
+ * and the stack is reused between copy calls.
+ */
+final class WorkStack {
+
+    /**
+     * Copy the fields, array elements or collection contents of the source into the allocated target.
+     */
+    static final byte FILL = 0;
+
+    /**
+     * Add the copied contents held in the source array to the target Collection or Map.
+     */
+    static final byte POPULATE = 1;
+
+    /**
+     * Walk the references of the source, which is visited already.
+     */
+    static final byte VISIT = 2;
+
+    /**
+     * Compare the contents of the source with those of the target, which are paired already.
+     */
+    static final byte COMPARE = 3;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private byte[] operations = new byte[DEFAULT_CAPACITY];
+    private Object[] sources = new Object[DEFAULT_CAPACITY];
+    private Object[] targets = new Object[DEFAULT_CAPACITY];
+    private int[] depths = new int[DEFAULT_CAPACITY];
+    private int size;
+
+    /**
+     * Pushes an operation.
+     *
+     * @param operation The code of the operation.
+     * @param source    The object to read from.
+     * @param target    The object to write to.
+     * @param depth     The depth of the objects the operation copies.
+     */
+    void push(byte operation, Object source, Object target, int depth) {
+        if (size == operations.length) {
+            int capacity = size << 1;
+            operations = Arrays.copyOf(operations, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+        operations[size] = operation;
+        sources[size] = source;
+        targets[size] = target;
+        depths[size] = depth;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes the top operation, which stays readable through {@link #source()}, {@link #target()}
+     * and {@link #depth()} until the next push.
+     *
+     * @return The code of the removed operation.
+     */
+    byte pop() {
+        return operations[--size];
+    }
+
+    Object source() {
+        Object source = sources[size];
+        sources[size] = null;
+        return source;
+    }
+
+    Object target() {
+        Object target = targets[size];
+        targets[size] = null;
+        return target;
+    }
+
+    int depth() {
+        return depths[size];
+    }
+
+    /**
+     * Drops all pending operations, keeping the arrays unless they grew unusually large.
+     */
+    void clear() {
+        if (operations.length > MAX_RETAINED_CAPACITY) {
+            operations = new byte[DEFAULT_CAPACITY];
+            sources = new Object[DEFAULT_CAPACITY];
+            targets = new Object[DEFAULT_CAPACITY];
+            depths = new int[DEFAULT_CAPACITY];
+        } else {
+            Arrays.fill(sources, 0, size, null);
+            Arrays.fill(targets, 0, size, null);
+        }
+        size = 0;
+    }
+}
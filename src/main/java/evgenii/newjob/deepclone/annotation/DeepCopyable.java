@@ -0,0 +1,28 @@
+package evgenii.newjob.deepclone.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class for which the annotation processor of the {@code processor} project generates
+ * a {@link evgenii.newjob.deepclone.Copier} at compile time, named after the class with a {@code Copier}
+ * suffix, nested class names joined by underscores, in the same package. Recursive deep copies
+ * find the generated copier and use it instead of copying the fields reflectively.
+ * <p>
+ * The copier reads and writes non-private fields directly and private fields through their
+ * {@code getX}, {@code isX} and {@code setX} methods, and creates the copy with the no-argument
+ * constructor or a constructor whose parameters are named like fields. Unlike reflective copies, which create
+ * instances without running constructors, the generated copier runs that constructor, field initializers included,
+ * for every copy. Fields annotated with
+ * {@link Skip} and transient fields are left out, fields annotated with {@link Shared} are shared.
+ * Classes with fields that can neither be accessed directly nor through methods fail to compile.
+ * The annotation is not inherited, subclasses are copied reflectively unless annotated themselves.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DeepCopyable {
+}
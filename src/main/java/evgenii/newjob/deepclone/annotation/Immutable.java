@@ -0,0 +1,18 @@
+package evgenii.newjob.deepclone.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances never change after construction.
+ * Deep copies share instances of such classes by reference instead of copying them.
+ * The annotation is trusted as it is, the fields of the class are not checked.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable {
+}
@@ -0,0 +1,18 @@
+package evgenii.newjob.deepclone.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field whose referenced object is shared by deep copies instead of being copied,
+ * or a class whose instances are shared wherever they are referenced.
+ * Intended for references to caches, connection pools and other services of a domain object.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+public @interface Shared {
+}
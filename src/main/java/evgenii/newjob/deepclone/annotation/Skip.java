@@ -0,0 +1,19 @@
+package evgenii.newjob.deepclone.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field which is not copied by deep copies, or a class whose instances are replaced
+ * by {@code null} wherever they are referenced.
+ * Copies are created without running constructors or field initializers, so a skipped field of a copy
+ * is {@code null}, zero or {@code false}, and a skipped record component is passed as such to the constructor.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+public @interface Skip {
+}
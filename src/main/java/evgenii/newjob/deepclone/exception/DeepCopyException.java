@@ -1,7 +1,13 @@
 package evgenii.newjob.deepclone.exception;
 
 public class DeepCopyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     public DeepCopyException(String message) {
         super(message);
     }
+
+    public DeepCopyException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
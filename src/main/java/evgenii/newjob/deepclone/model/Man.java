@@ -1,8 +1,14 @@
 package evgenii.newjob.deepclone.model;
 
+import evgenii.newjob.deepclone.annotation.DeepCopyable;
+
+import java.io.Serializable;
 import java.util.List;
 
-public class Man {
+@DeepCopyable
+public class Man implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private int age;
     private List<String> favoriteBooks;
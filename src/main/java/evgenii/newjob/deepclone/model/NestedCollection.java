@@ -1,12 +1,15 @@
 package evgenii.newjob.deepclone.model;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class NestedCollection {
+public class NestedCollection implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private List<Collection> list = new ArrayList<>();
     private Map<String, Collection> collectionMap = new HashMap<>();
 
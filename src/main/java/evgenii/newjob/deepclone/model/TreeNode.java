@@ -1,10 +1,12 @@
 package evgenii.newjob.deepclone.model;
 
-
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-public class TreeNode {
+public class TreeNode implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final String value;
     private final List<TreeNode> children;
 
@@ -1,21 +1,74 @@
 package evgenii.newjob.assignment;
 
 
+import evgenii.newjob.deepclone.CopierRegistry;
+import evgenii.newjob.deepclone.CopyListener;
+import evgenii.newjob.deepclone.CopyPolicy;
+import evgenii.newjob.deepclone.CopyStatistics;
 import evgenii.newjob.deepclone.CopyUtils;
+import evgenii.newjob.deepclone.CumulativeCopyStatistics;
+import evgenii.newjob.deepclone.ImmutableTypes;
+import evgenii.newjob.deepclone.InternTable;
+import evgenii.newjob.deepclone.Prototype;
+import evgenii.newjob.deepclone.RefreshStatistics;
+import evgenii.newjob.deepclone.Snapshot;
+import evgenii.newjob.deepclone.TraversalMode;
+import evgenii.newjob.deepclone.annotation.DeepCopyable;
+import evgenii.newjob.deepclone.annotation.Immutable;
+import evgenii.newjob.deepclone.annotation.Shared;
+import evgenii.newjob.deepclone.annotation.Skip;
+import evgenii.newjob.deepclone.exception.DeepCopyException;
 import evgenii.newjob.deepclone.model.Man;
 import evgenii.newjob.deepclone.model.NestedCollection;
 import evgenii.newjob.deepclone.model.TreeNode;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class CopyUtilsTest {
 
@@ -89,4 +142,1113 @@ class CopyUtilsTest {
         assertEquals(original.getCollectionList(), copied.getCollectionList());
         assertEquals(original.getCollectionMap(), copied.getCollectionMap());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testIterativeDeepCopyWithCyclicDependency() {
+        TreeNode root = new TreeNode("root");
+        TreeNode child = new TreeNode("child");
+        root.addChild(child);
+        child.addChild(root);
+
+        TreeNode copiedRoot = CopyUtils.deepCopy(root, TraversalMode.ITERATIVE);
+
+        assertNotSame(root, copiedRoot);
+        assertEquals(root.getValue(), copiedRoot.getValue());
+        TreeNode copiedChild = copiedRoot.getChildren().getFirst();
+        assertNotSame(child, copiedChild);
+        assertEquals(child.getValue(), copiedChild.getValue());
+        assertSame(copiedRoot, copiedChild.getChildren().getFirst());
+    }
+
+    @Test
+    void testIterativeDeepCopyOfVeryDeepGraph() {
+        int depth = 100_000;
+        TreeNode root = new TreeNode("0");
+        TreeNode last = root;
+        for (int i = 1; i < depth; i++) {
+            TreeNode next = new TreeNode(String.valueOf(i));
+            last.addChild(next);
+            last = next;
+        }
+
+        TreeNode copiedRoot = CopyUtils.deepCopy(root, TraversalMode.ITERATIVE);
+
+        int copiedDepth = 0;
+        TreeNode original = root;
+        for (TreeNode copied = copiedRoot; copied != null; copiedDepth++) {
+            assertNotSame(original, copied);
+            assertEquals(original.getValue(), copied.getValue());
+            copied = copied.getChildren().isEmpty() ? null : copied.getChildren().getFirst();
+            original = original.getChildren().isEmpty() ? null : original.getChildren().getFirst();
+        }
+        assertEquals(depth, copiedDepth, "The whole chain should be copied without overflowing the stack.");
+    }
+
+    @Test
+    void testIterativeDeepCopyHashesCompleteElements() {
+        Sku sku = new Sku("A-1");
+        Object[] original = {sku, new HashSet<>(Set.of(sku)), Map.of(sku, 1)};
+
+        Object[] copied = CopyUtils.deepCopy(original, TraversalMode.ITERATIVE);
+
+        assertNotSame(sku, copied[0]);
+        assertTrue(((Set<?>) copied[1]).contains(copied[0]), "Elements reached earlier should be filled before hashing.");
+        assertEquals(1, ((Map<?, ?>) copied[2]).get(new Sku("A-1")));
+    }
+
+    @Test
+    void testIterativeDeepCopyNestedCollection() {
+        NestedCollection original = new NestedCollection();
+        original.getCollectionList().add(Arrays.asList("One", "Two", "Three"));
+        original.getCollectionList().add(new HashSet<>(Arrays.asList(1, 2, 3)));
+        original.getCollectionMap().put("List", new ArrayList<>(Arrays.asList("A", "B", "C")));
+        original.getCollectionMap().put("Set", new HashSet<>(Arrays.asList(4, 5, 6)));
+
+        NestedCollection copied = CopyUtils.deepCopy(original, TraversalMode.ITERATIVE);
+
+        assertNotSame(original.getCollectionList(), copied.getCollectionList());
+        assertNotSame(original.getCollectionMap(), copied.getCollectionMap());
+        assertEquals(original.getCollectionList(), copied.getCollectionList());
+        assertEquals(original.getCollectionMap(), copied.getCollectionMap());
+    }
+
+    @Test
+    void testLazyDeepCopyMan() {
+        Man original = new Man("John Doe", 30, new ArrayList<>(Arrays.asList("Moby Dick", "War and Peace")));
+        Man copied = CopyUtils.deepCopy(original, TraversalMode.LAZY);
+
+        original.setName("Jane Doe");
+        original.getFavoriteBooks().add("Pride and Prejudice");
+
+        assertEquals("John Doe", copied.getName());
+        assertEquals(List.of("Moby Dick", "War and Peace"), copied.getFavoriteBooks());
+
+        copied.getFavoriteBooks().add("Ulysses");
+        assertEquals(List.of("Moby Dick", "War and Peace", "Ulysses"), copied.getFavoriteBooks());
+        assertEquals(3, original.getFavoriteBooks().size(), "Writes to the copy should not reach the original.");
+    }
+
+    @Test
+    void testLazyDeepCopyNestedCollection() {
+        NestedCollection original = new NestedCollection();
+        original.getCollectionList().add(new HashSet<>(List.of(1, 2, 3)));
+        original.getCollectionMap().put("List", new ArrayList<>(List.of("A", "B")));
+
+        NestedCollection copied = CopyUtils.deepCopy(original, TraversalMode.LAZY);
+        ((List<String>) original.getCollectionMap().get("List")).add("C");
+
+        assertEquals(List.of(new HashSet<>(List.of(1, 2, 3))), copied.getCollectionList());
+        assertEquals(List.of("A", "B"), copied.getCollectionMap().get("List"));
+        assertNotSame(original.getCollectionMap().get("List"), copied.getCollectionMap().get("List"));
+    }
+
+    @Test
+    void testLazyDeepCopyDefersCopyingElements() {
+        Playlist playlist = new Playlist("Lazy");
+        Track track = new Track("Intro", new ArrayList<>(List.of("live")));
+        playlist.tracks.add(track);
+
+        Playlist copied = CopyUtils.deepCopy(playlist, TraversalMode.LAZY);
+        track.tags().add("remastered");
+        Track copiedTrack = copied.tracks.getFirst();
+        assertNotSame(track, copiedTrack);
+        assertEquals(List.of("live", "remastered"), copiedTrack.tags(), "Elements should be copied on their first read.");
+        assertSame(copiedTrack, copied.tracks.getFirst(), "Every read should resolve to the same copy.");
+        assertTrue(copied.tracks instanceof RandomAccess);
+
+        playlist.tracks = new LinkedList<>(playlist.tracks);
+        assertFalse(CopyUtils.deepCopy(playlist, TraversalMode.LAZY).tracks instanceof RandomAccess,
+                "Views of linked lists should not claim fast positional access.");
+    }
+
+    @Test
+    void testLazyDeepCopyIsReadableByConcurrentThreads() throws Exception {
+        Set<String> tags = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            tags.add("tag-" + i);
+        }
+        Map<String, Set<String>> original = new HashMap<>(Map.of("tags", tags));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 50; round++) {
+                Set<String> copied = CopyUtils.deepCopy(original, TraversalMode.LAZY).get("tags");
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    int offset = thread;
+                    // Keyed lookups populate the copy while other threads iterate the view
+                    results.add(executor.submit(() -> copied.size() == 1000 && copied.contains("tag-" + offset)
+                            && copied.stream().allMatch(tag -> tag.startsWith("tag-"))));
+                }
+                for (Future<Boolean> result : results) {
+                    assertTrue(result.get(), "Concurrent reads of a view should see all contents.");
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testDeepCopyCopiesSuperclassFields() {
+        Employee original = new Employee("Jane Roe", 41, new ArrayList<>(Arrays.asList("Dune")), "Engineering");
+
+        Employee copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertEquals("Engineering", copied.getDepartment());
+        assertEquals(original.getName(), copied.getName(), "Inherited fields should be copied.");
+        assertEquals(original.getAge(), copied.getAge(), "Inherited primitive fields should be copied.");
+        assertNotSame(original.getFavoriteBooks(), copied.getFavoriteBooks());
+        assertEquals(original.getFavoriteBooks(), copied.getFavoriteBooks());
+    }
+
+    @Test
+    void testDeepCopyCopiesPrimitiveFields() {
+        Measurement original = new Measurement(42);
+        original.value = 3.14d;
+        original.timestamp = 1_700_000_000_000L;
+        original.unit = 'm';
+        original.valid = true;
+
+        Measurement copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertEquals(42, copied.id, "Final primitive fields should be copied.");
+        assertEquals(3.14d, copied.value);
+        assertEquals(1_700_000_000_000L, copied.timestamp);
+        assertEquals('m', copied.unit);
+        assertEquals(true, copied.valid);
+    }
+
+    @Test
+    void testDeepCopyArrays() {
+        double[] numbers = new double[1_000_000];
+        Arrays.setAll(numbers, i -> i * 0.5d);
+        String[] titles = {"Moby Dick", null, "War and Peace"};
+        int[][] matrix = {{1, 2, 3}, {4, 5}, null};
+
+        double[] copiedNumbers = CopyUtils.deepCopy(numbers);
+        String[] copiedTitles = CopyUtils.deepCopy(titles);
+        int[][] copiedMatrix = CopyUtils.deepCopy(matrix);
+
+        assertNotSame(numbers, copiedNumbers);
+        assertArrayEquals(numbers, copiedNumbers);
+        assertNotSame(titles, copiedTitles);
+        assertArrayEquals(titles, copiedTitles);
+        assertNotSame(matrix, copiedMatrix);
+        assertNotSame(matrix[0], copiedMatrix[0], "Inner arrays should be copied as well.");
+        assertArrayEquals(matrix, copiedMatrix);
+
+        matrix[0][0] = 42;
+        assertEquals(1, copiedMatrix[0][0], "The copied matrix should not reflect changes to the original.");
+    }
+
+    @Test
+    void testDeepCopySharesImmutableObjects() {
+        Invoice original = new Invoice();
+        original.amount = new BigDecimal("199.99");
+        original.issued = LocalDate.of(2024, 3, 1);
+        original.status = Status.PAID;
+        original.line = new InvoiceLine("Moby Dick", 2);
+        original.currency = new Currency("EUR");
+        original.notes = new ArrayList<>(Arrays.asList("urgent"));
+
+        Invoice copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertSame(original.amount, copied.amount, "Immutable JDK types should be shared.");
+        assertSame(original.issued, copied.issued, "Immutable JDK types should be shared.");
+        assertSame(original.status, copied.status, "Enums should be shared.");
+        assertSame(original.line, copied.line, "Records with immutable components should be shared.");
+        assertSame(original.currency, copied.currency, "Annotated immutable types should be shared.");
+        assertNotSame(original.notes, copied.notes, "Mutable fields should still be copied.");
+        assertTrue(ImmutableTypes.isImmutable(InvoiceLine.class));
+        assertFalse(ImmutableTypes.isImmutable(Invoice.class));
+    }
+
+    @Test
+    void testDeepCopySharesRegisteredImmutableTypes() {
+        // Registration is global, so the type is local to this test
+        class Token {
+            private String value;
+        }
+        ImmutableTypes.register(Token.class);
+        Token original = new Token();
+        original.value = "secret";
+
+        assertSame(original, CopyUtils.deepCopy(original));
+    }
+
+    @Test
+    void testConcurrentDeepCopiesAreIndependent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < 32; thread++) {
+                String prefix = "thread-" + thread + "-";
+                results.add(executor.submit(() -> {
+                    List<Man> men = new ArrayList<>();
+                    for (int i = 0; i < 500; i++) {
+                        men.add(new Man(prefix + i, i, new ArrayList<>(Arrays.asList("Book " + i))));
+                    }
+                    // Shared reference inside a single graph must still resolve to a single copy
+                    men.add(men.getFirst());
+
+                    List<Man> copied = CopyUtils.deepCopy(men);
+
+                    boolean consistent = copied.size() == men.size() && copied.getLast() == copied.getFirst();
+                    for (int i = 0; i < 500 && consistent; i++) {
+                        consistent = copied.get(i) != men.get(i)
+                                && copied.get(i).getName().equals(prefix + i)
+                                && copied.get(i).getAge() == i;
+                    }
+                    return consistent;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(), "Concurrent deep copies should not affect each other.");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelDeepCopyKeepsSharedAndCyclicReferences() {
+        Man shared = new Man("Shared", 50, new ArrayList<>(Arrays.asList("Ulysses")));
+        List<Object> original = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            original.add(i % 100 == 0 ? shared : new Man("Man " + i, i, new ArrayList<>(Arrays.asList("Book " + i))));
+        }
+        original.add(original);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Object> copied = CopyUtils.deepCopyParallel(original, pool, 256);
+
+            assertEquals(original.size(), copied.size());
+            assertSame(copied, copied.get(20_000), "Cyclic reference should point to the copy itself.");
+            Man copiedShared = (Man) copied.getFirst();
+            assertNotSame(shared, copiedShared);
+            for (int i = 0; i < 20_000; i += 100) {
+                assertSame(copiedShared, copied.get(i), "Shared reference should resolve to a single copy.");
+            }
+            Man copiedMan = (Man) copied.get(12_345);
+            assertNotSame(original.get(12_345), copiedMan);
+            assertEquals("Man 12345", copiedMan.getName());
+            assertEquals(List.of("Book 12345"), copiedMan.getFavoriteBooks());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelDeepCopyHashesCompleteElements() {
+        List<Sku> skus = new ArrayList<>();
+        List<Set<Sku>> ranges = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            skus.add(new Sku("SKU-" + i));
+            ranges.add(Set.of(skus.get(i)));
+        }
+        List<Object> original = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            Basket basket = new Basket();
+            basket.skus.add(skus.get(i % 64));
+            basket.skus.add(skus.get(i * 7 % 64));
+            original.add(basket);
+            original.add(ranges.get(i * 13 % 64));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 10; round++) {
+                List<Object> copied = CopyUtils.deepCopyParallel(original, pool, 64);
+
+                Map<Set<Sku>, Set<Sku>> copiedRanges = new IdentityHashMap<>();
+                for (int i = 0; i < original.size(); i += 2) {
+                    Basket basket = (Basket) copied.get(i);
+                    for (Sku sku : basket.skus) {
+                        assertTrue(basket.skus.contains(sku), "Elements should be hashed once they are complete.");
+                    }
+                    @SuppressWarnings("unchecked")
+                    Set<Sku> range = (Set<Sku>) copied.get(i + 1);
+                    assertTrue(range.contains(range.iterator().next()), "Elements should be hashed once they are complete.");
+                    assertSame(range, copiedRanges.computeIfAbsent(ranges.get(i / 2 * 13 % 64), key -> range),
+                            "A shared immutable set should resolve to a single copy.");
+                }
+                assertEquals(64, copiedRanges.size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testPrototypeCreatesIndependentCopies() {
+        TreeNode root = new TreeNode("root");
+        TreeNode child = new TreeNode("child");
+        root.addChild(child);
+        child.addChild(root);
+
+        Prototype<TreeNode> prototype = CopyUtils.prototype(root);
+        List<TreeNode> copies = prototype.newCopies(3);
+        copies.add(prototype.get());
+        root.addChild(new TreeNode("added later"));
+
+        assertEquals(4, copies.size());
+        for (TreeNode copiedRoot : copies) {
+            assertNotSame(root, copiedRoot);
+            assertEquals("root", copiedRoot.getValue());
+            assertEquals(1, copiedRoot.getChildren().size(), "Copies should not reflect later changes of the template.");
+            TreeNode copiedChild = copiedRoot.getChildren().getFirst();
+            assertEquals("child", copiedChild.getValue());
+            assertSame(copiedRoot, copiedChild.getChildren().getFirst());
+        }
+        assertNotSame(copies.get(0), copies.get(1));
+        assertNotSame(copies.get(0).getChildren(), copies.get(1).getChildren());
+    }
+
+    @Test
+    void testPrototypeOfVeryDeepTemplate() {
+        int depth = 200_000;
+        TreeNode root = new TreeNode("0");
+        TreeNode last = root;
+        for (int i = 1; i < depth; i++) {
+            TreeNode next = new TreeNode(String.valueOf(i));
+            last.addChild(next);
+            last = next;
+        }
+
+        TreeNode copied = CopyUtils.prototype(root).get();
+        TreeNode original = root;
+        for (int i = 1; i < depth; i++) {
+            assertNotSame(original, copied);
+            copied = copied.getChildren().getFirst();
+            original = original.getChildren().getFirst();
+        }
+        assertEquals(last.getValue(), copied.getValue(), "Deep templates should not overflow the stack.");
+    }
+
+    @Test
+    void testDeepCopyPreservesCollectionTypes() {
+        TreeMap<String, List<String>> byName = new TreeMap<>(Comparator.reverseOrder());
+        byName.put("a", new ArrayList<>(List.of("x")));
+        byName.put("b", new ArrayList<>(List.of("y")));
+        LinkedHashSet<String> ordered = new LinkedHashSet<>(List.of("c", "a", "b"));
+        EnumMap<Status, List<String>> byStatus = new EnumMap<>(Status.class);
+        byStatus.put(Status.PAID, new ArrayList<>(List.of("z")));
+        List<Object> original = new ArrayList<>(List.of(byName, ordered, new ArrayDeque<>(List.of(1, 2)),
+                EnumSet.of(Status.OPEN), byStatus, List.of(new ArrayList<>(List.of("w"))), Map.of("k", "v")));
+
+        List<Object> copied = CopyUtils.deepCopy(original);
+
+        assertEquals(original.subList(0, 2), copied.subList(0, 2));
+        for (int i = 0; i < original.size(); i++) {
+            assertSame(original.get(i).getClass(), copied.get(i).getClass(), "Copy should keep the collection type.");
+        }
+        TreeMap<String, List<String>> copiedByName = (TreeMap<String, List<String>>) copied.get(0);
+        assertSame(byName.comparator(), copiedByName.comparator());
+        assertEquals(List.of("b", "a"), new ArrayList<>(copiedByName.keySet()));
+        assertNotSame(byName.get("a"), copiedByName.get("a"));
+        assertEquals(List.of("c", "a", "b"), new ArrayList<>((LinkedHashSet<String>) copied.get(1)));
+        assertEquals(List.of(1, 2), new ArrayList<>((ArrayDeque<Integer>) copied.get(2)));
+        assertNotSame(byStatus.get(Status.PAID), ((EnumMap<Status, List<String>>) copied.get(4)).get(Status.PAID));
+        List<List<String>> immutableList = (List<List<String>>) copied.get(5);
+        assertNotSame(original.get(5), immutableList);
+        assertEquals(List.of("w"), immutableList.getFirst());
+        assertSame(original.get(6), copied.get(6), "Immutable map of immutable values should be shared.");
+    }
+
+    @Test
+    void testDeepCopyOfCycleThroughImmutableCollection() {
+        Box box = new Box();
+        box.boxes = List.of(box);
+        box.byName = Map.of("self", box);
+
+        for (TraversalMode mode : List.of(TraversalMode.RECURSIVE, TraversalMode.ITERATIVE)) {
+            List<Box> copied = CopyUtils.deepCopy(box.boxes, mode);
+            Box copiedBox = copied.getFirst();
+            assertNotSame(box, copiedBox);
+            assertTrue(copied instanceof ArrayList, "A cycle should fall back to a mutable copy.");
+            assertSame(copied, copiedBox.boxes, "The cycle through the immutable list should be preserved.");
+            assertSame(copiedBox, copiedBox.byName.get("self"));
+        }
+    }
+
+    @Test
+    void testDeepCopyReportsStatisticsToListeners() {
+        TreeNode root = new TreeNode("root");
+        TreeNode child = new TreeNode("child");
+        root.addChild(child);
+        child.addChild(root);
+        List<CopyStatistics> reported = new ArrayList<>();
+        CopyListener listener = reported::add;
+        CumulativeCopyStatistics cumulative = new CumulativeCopyStatistics();
+
+        CopyUtils.addListener(listener);
+        CopyUtils.addListener(cumulative);
+        try {
+            CopyUtils.deepCopy(root);
+            CopyUtils.deepCopy(root, TraversalMode.ITERATIVE);
+        } finally {
+            CopyUtils.removeListener(listener);
+            CopyUtils.removeListener(cumulative);
+        }
+        CopyUtils.deepCopy(root);
+
+        assertEquals(2, reported.size(), "Only calls made while the listener was registered should be reported.");
+        CopyStatistics statistics = reported.getFirst();
+        assertSame(TreeNode.class, statistics.rootType());
+        assertEquals(2, statistics.objects());
+        assertEquals(2, statistics.collections());
+        assertEquals(1, statistics.identityHits(), "The cyclic reference should resolve to the existing copy.");
+        assertEquals(Long.valueOf(2), statistics.copiesByClass().get(TreeNode.class));
+        assertTrue(statistics.estimatedBytes() > 0);
+        assertEquals(statistics, new CopyStatistics(statistics.rootType(), 1, 2, 0, 2, 0, 1,
+                statistics.estimatedBytes(), statistics.durationNanos(), statistics.copiesByClass()));
+
+        CopyStatistics total = cumulative.snapshot();
+        assertEquals(2, total.calls());
+        assertEquals(8, total.copies());
+        assertEquals(Long.valueOf(4), total.copiesByClass().get(TreeNode.class));
+    }
+
+    @Test
+    void testDeepCopyPolicySharesAndSkipsFields() {
+        Order original = new Order();
+        original.items.add("Book");
+        original.catalog.put("Book", "A book");
+        original.summary = new ArrayList<>(List.of("1 item"));
+        original.note = "Fragile";
+        original.session = new ThreadLocal<>();
+
+        Order copied = CopyUtils.deepCopy(original);
+        assertSame(original.catalog, copied.catalog, "Annotated fields should be shared.");
+        assertNull(copied.note, "Annotated fields should be skipped.");
+        assertNotSame(original.summary, copied.summary);
+
+        CopyPolicy policy = CopyPolicy.builder()
+                .skipTransientFields()
+                .skipTypes(ThreadLocal.class)
+                .shareFields(field -> field.getName().equals("items"))
+                .build();
+        copied = CopyUtils.deepCopy(original, policy);
+        assertSame(original.items, copied.items);
+        assertSame(original.catalog, copied.catalog);
+        assertNull(copied.summary, "Transient fields should be skipped.");
+        assertNull(copied.session, "Instances of skipped types should be dropped.");
+    }
+
+    @Test
+    void testDeepCopyPolicyLimitsDepthAndObjects() {
+        TreeNode root = new TreeNode("root");
+        TreeNode child = new TreeNode("child");
+        TreeNode grandchild = new TreeNode("grandchild");
+        root.addChild(child);
+        child.addChild(grandchild);
+
+        TreeNode shallow = CopyUtils.deepCopy(root, CopyPolicy.builder().maxDepth(0).build());
+        assertNotSame(root, shallow);
+        assertSame(root.getChildren(), shallow.getChildren(), "References beyond the maximal depth should be shared.");
+
+        TreeNode limited = CopyUtils.deepCopy(root, TraversalMode.ITERATIVE, CopyPolicy.builder().maxDepth(2).build());
+        assertNotSame(child, limited.getChildren().getFirst());
+        assertSame(child.getChildren(), limited.getChildren().getFirst().getChildren());
+
+        // The grandchild is first reached below the limit, then directly from the root
+        root.addChild(grandchild);
+        TreeNode mixed = CopyUtils.deepCopy(root, CopyPolicy.builder().maxDepth(3).build());
+        assertSame(grandchild, mixed.getChildren().getFirst().getChildren().getFirst());
+        assertSame(grandchild, mixed.getChildren().get(1), "An object shared at the limit should not be copied elsewhere.");
+        root.getChildren().remove(grandchild);
+
+        CopyPolicy budget = CopyPolicy.builder().maxObjects(5).build();
+        assertThrows(DeepCopyException.class, () -> CopyUtils.deepCopy(root, budget));
+        assertEquals("grandchild", CopyUtils.deepCopy(grandchild, budget).getValue());
+    }
+
+    @Test
+    void testSnapshotMaterializesIndependentCopies() throws IOException {
+        TreeNode root = new TreeNode("root");
+        TreeNode child = new TreeNode("child");
+        root.addChild(child);
+        root.addChild(child);
+        child.addChild(root);
+
+        Snapshot<TreeNode> snapshot = CopyUtils.snapshot(root);
+        TreeNode first = snapshot.materialize();
+        TreeNode second = snapshot.materialize();
+        assertNotSame(first, second);
+        assertNotSame(first.getChildren(), second.getChildren());
+        assertSame(first.getChildren().get(0), first.getChildren().get(1), "Shared references should be preserved.");
+        assertSame(first, first.getChildren().get(0).getChildren().getFirst(), "Cycles should be preserved.");
+
+        Invoice invoice = new Invoice();
+        invoice.amount = new BigDecimal("19.99");
+        invoice.issued = LocalDate.of(2024, 3, 1);
+        invoice.status = Status.PAID;
+        invoice.line = new InvoiceLine("Book", 2);
+        invoice.notes = new ArrayList<>(List.of("Gift"));
+        Path file = Files.createTempFile("invoice", ".snapshot");
+        try {
+            CopyUtils.snapshot(invoice).writeTo(file);
+            Invoice copied = Snapshot.<Invoice>map(file).materialize();
+            assertEquals(invoice.amount, copied.amount);
+            assertEquals(invoice.issued, copied.issued);
+            assertSame(Status.PAID, copied.status);
+            assertEquals(invoice.line, copied.line);
+            assertEquals(invoice.notes, copied.notes);
+            assertNotSame(invoice.notes, copied.notes);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testSnapshotDeserializesOnlyRecordedClasses() {
+        TreeSet<String> sorted = new TreeSet<>(Comparator.reverseOrder());
+        sorted.addAll(List.of("a", "b"));
+        List<Object> graph = List.of(sorted, new BigDecimal("19.99"));
+        ByteBuffer bytes = CopyUtils.snapshot(graph).buffer();
+        List<Object> copied = Snapshot.<List<Object>>wrap(bytes.duplicate()).materialize();
+        assertEquals(graph, copied);
+        assertEquals("b", ((TreeSet<?>) copied.getFirst()).first());
+
+        byte[] tampered = new byte[bytes.remaining()];
+        bytes.duplicate().get(tampered);
+        byte[] name = "java.math.BigDecimal".getBytes(StandardCharsets.UTF_8);
+        int recorded = tampered.length - name.length;
+        while (!Arrays.equals(tampered, recorded, recorded + name.length, name, 0, name.length)) {
+            recorded--;
+        }
+        tampered[recorded + name.length - 1] = 'X';
+        Snapshot<Object> snapshot = Snapshot.wrap(ByteBuffer.wrap(tampered));
+        DeepCopyException failure = assertThrows(DeepCopyException.class, snapshot::materialize);
+        assertTrue(failure.getCause() instanceof InvalidClassException,
+                "Serialized values should not name classes the writer did not record.");
+    }
+
+    @Test
+    void testDeepCopyRunsNoConstructorsExceptOfRecords() {
+        Account account = new Account("ACC-1");
+        int created = Account.created;
+        Account copiedAccount = CopyUtils.deepCopy(account);
+        assertEquals(created, Account.created, "Constructors should not run for copies.");
+        assertEquals("ACC-1", copiedAccount.id);
+        assertNotSame(account.history, copiedAccount.history);
+
+        Shipment shipment = new Shipment("Berlin", new ArrayList<>(List.of("Book")), 2);
+        for (TraversalMode mode : TraversalMode.values()) {
+            Shipment copied = CopyUtils.deepCopy(shipment, mode);
+            assertEquals(shipment, copied);
+            assertNotSame(shipment, copied);
+            assertNotSame(shipment.items(), copied.items(), "Mutable record components should be copied.");
+        }
+        Shipment stamped = CopyUtils.prototype(shipment).get();
+        assertEquals(shipment, stamped);
+        assertNotSame(shipment.items(), stamped.items());
+    }
+
+    @Test
+    void testDeepCopyUsesGeneratedCopiers() throws ClassNotFoundException {
+        assertNotNull(Class.forName("evgenii.newjob.deepclone.model.ManCopier"), "Copiers should be generated at compile time.");
+        assertNotNull(Class.forName("evgenii.newjob.assignment.CopyUtilsTest_PlaylistCopier"));
+
+        Man man = new Man("John", 30, new ArrayList<>(List.of("Dune")));
+        Man copiedMan = CopyUtils.deepCopy(man);
+        assertEquals("John", copiedMan.getName());
+        assertEquals(30, copiedMan.getAge());
+        assertEquals(man.getFavoriteBooks(), copiedMan.getFavoriteBooks());
+        assertNotSame(man.getFavoriteBooks(), copiedMan.getFavoriteBooks());
+
+        Playlist playlist = new Playlist("Road trip");
+        playlist.setPlays(3);
+        playlist.tracks.add(new Track("Intro", new ArrayList<>(List.of("live"))));
+        playlist.next = playlist;
+        playlist.cover = new byte[]{1, 2};
+        int created = Playlist.created;
+        Playlist copied = CopyUtils.deepCopy(playlist);
+        assertEquals(created + 1, Playlist.created, "The generated copier should have created the copy.");
+        assertEquals("Road trip", copied.title);
+        assertEquals(3, copied.getPlays());
+        assertSame(copied, copied.next, "Cycles through generated copiers should be preserved.");
+        assertEquals(playlist.tracks, copied.tracks);
+        assertNotSame(playlist.tracks.get(0).tags(), copied.tracks.get(0).tags());
+        assertNull(copied.cover, "Skipped fields should be left out.");
+    }
+
+    @Test
+    void testDeduplicatingDeepCopyInternsEqualValues() {
+        List<String> books = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            books.add(new String("Moby Dick"));
+        }
+        Man first = new Man(new String("John"), 30, books);
+        Man second = new Man(new String("John"), 40, new ArrayList<>(List.of(new String("Moby Dick"))));
+
+        InternTable table = new InternTable(100);
+        Man firstCopy = CopyUtils.deepCopy(first, table);
+        Man secondCopy = CopyUtils.deepCopy(second, table);
+        assertEquals(books, firstCopy.getFavoriteBooks());
+        assertSame(firstCopy.getFavoriteBooks().get(0), firstCopy.getFavoriteBooks().get(2), "Equal values should be interned.");
+        assertSame(firstCopy.getFavoriteBooks().get(0), secondCopy.getFavoriteBooks().get(0), "Shared tables should intern across calls.");
+        assertSame(firstCopy.getName(), secondCopy.getName());
+        assertEquals(4, table.duplicates());
+        assertTrue(table.savedBytes() > 0);
+
+        String duplicate = new String("Moby Dick");
+        long savedBytes = table.savedBytes();
+        CopyUtils.deepCopy(new String[]{duplicate, duplicate}, table);
+        assertEquals(5, table.duplicates(), "A duplicate referenced twice should be counted once.");
+        long savedPerInstance = table.savedBytes() - savedBytes;
+        CopyUtils.deepCopy(new String[]{new String("Moby Dick")}, table);
+        assertEquals(savedPerInstance, table.savedBytes() - savedBytes - savedPerInstance);
+
+        InternTable bounded = new InternTable(1);
+        String[] codes = {new String("A"), new String("B"), new String("B")};
+        String[] copiedCodes = CopyUtils.deepCopy(codes, bounded);
+        assertArrayEquals(codes, copiedCodes);
+        assertEquals(1, bounded.size());
+        assertNotSame(copiedCodes[1], copiedCodes[2], "Values beyond the bound should not be interned.");
+    }
+
+    @Test
+    void testCopyIntoReusesDestinationObjects() {
+        Invoice invoice = new Invoice();
+        invoice.amount = new BigDecimal("5.00");
+        invoice.notes = new ArrayList<>(List.of("Paid"));
+        Measurement measurement = new Measurement(7);
+        measurement.value = 1.5;
+        Shipment shipment = new Shipment("Berlin", new ArrayList<>(List.of("Book")), 1);
+        Object[] source = {invoice, measurement, new int[]{1, 2}, List.of(new TreeNode("leaf")), shipment};
+
+        Object[] destination = CopyUtils.deepCopy(source);
+        Invoice copiedInvoice = (Invoice) destination[0];
+        List<String> copiedNotes = copiedInvoice.notes;
+        Shipment copiedShipment = (Shipment) destination[4];
+        measurement.value = 2.5;
+        ((int[]) source[2])[1] = 3;
+        invoice.notes.add("Archived");
+
+        RefreshStatistics statistics = CopyUtils.copyInto(source, destination);
+        assertSame(copiedInvoice, destination[0], "Objects of the same class should be reused.");
+        assertSame(copiedNotes, copiedInvoice.notes);
+        assertEquals(List.of("Paid", "Archived"), copiedInvoice.notes);
+        assertNotSame(invoice.notes, copiedInvoice.notes);
+        assertEquals(2.5, ((Measurement) destination[1]).value);
+        assertArrayEquals(new int[]{1, 3}, (int[]) destination[2]);
+        assertSame(copiedShipment, destination[4], "Unchanged records should be reused.");
+        assertEquals(0, statistics.allocated(), "Nothing should be allocated while the shape is unchanged.");
+        assertTrue(statistics.reused() >= 8);
+
+        source[2] = new int[]{4, 5, 6};
+        source[4] = new Shipment("Paris", shipment.items(), 2);
+        statistics = CopyUtils.copyInto(source, destination);
+        assertArrayEquals(new int[]{4, 5, 6}, (int[]) destination[2]);
+        assertEquals(source[4], destination[4]);
+        assertSame(copiedShipment.items(), ((Shipment) destination[4]).items());
+        assertEquals(2, statistics.allocated(), "Only the resized array and the changed record should be allocated.");
+        assertThrows(IllegalArgumentException.class, () -> CopyUtils.copyInto(source, new Object[1]));
+    }
+
+    @Test
+    void testCopyIntoRefreshesDeepGraphsAndCyclesThroughImmutableCollections() {
+        int depth = 200_000;
+        TreeNode root = new TreeNode("0");
+        TreeNode last = root;
+        for (int i = 1; i < depth; i++) {
+            TreeNode next = new TreeNode(String.valueOf(i));
+            last.addChild(next);
+            last = next;
+        }
+        TreeNode destination = CopyUtils.deepCopy(root, TraversalMode.ITERATIVE);
+        last.addChild(new TreeNode("end"));
+
+        RefreshStatistics statistics = CopyUtils.copyInto(root, destination);
+        assertEquals(2, statistics.allocated(), "Only the new node and its children should be allocated.");
+        TreeNode copied = destination;
+        for (int i = 0; i < depth; i++) {
+            copied = copied.getChildren().getFirst();
+        }
+        assertEquals("end", copied.getValue(), "The whole chain should be refreshed without overflowing the stack.");
+
+        List<Object> inner = new ArrayList<>();
+        List<Object> immutable = List.of(inner);
+        inner.add(immutable);
+        Object[] source = {inner};
+        Object[] cyclic = CopyUtils.deepCopy(source);
+        CopyUtils.copyInto(source, cyclic);
+        List<?> copiedInner = (List<?>) cyclic[0];
+        assertSame(copiedInner, ((List<?>) copiedInner.getFirst()).getFirst(),
+                "Cycles through immutable collections should be refreshed through a stand-in.");
+    }
+
+    @Test
+    void testDeepEqualsHashCodeAndSizeOfWalkGraphs() {
+        Playlist playlist = new Playlist("Road");
+        playlist.tracks.add(new Track("Intro", new ArrayList<>(List.of("live"))));
+        playlist.next = playlist;
+        playlist.cover = new byte[]{1};
+        Measurement first = new Measurement(1);
+        first.value = 1.5;
+        Map<String, Object> graph = new HashMap<>(Map.of("playlist", playlist, "first", first,
+                "measurements", new HashSet<>(List.of(first, new Measurement(2)))));
+
+        Map<String, Object> copy = CopyUtils.deepCopy(graph);
+        assertNotEquals(graph, copy, "Copied classes compare by identity.");
+        assertTrue(CopyUtils.deepEquals(graph, copy), "A copy should be deeply equal to its original.");
+        assertEquals(CopyUtils.deepHashCode(graph), CopyUtils.deepHashCode(copy));
+        assertEquals(CopyUtils.deepSizeOf(graph), CopyUtils.deepSizeOf(copy));
+
+        ((Measurement) copy.get("first")).value = 2.5;
+        assertFalse(CopyUtils.deepEquals(graph, copy));
+        Measurement detached = new Measurement(1);
+        detached.value = 1.5;
+        copy.put("first", detached);
+        assertFalse(CopyUtils.deepEquals(graph, copy), "Shared references should correspond.");
+
+        assertEquals(40, CopyUtils.deepSizeOf(first));
+        assertEquals(CopyUtils.deepSizeOf(new Object[]{first}), CopyUtils.deepSizeOf(new Object[]{first, first}),
+                "Shared objects should be counted once.");
+        assertEquals(0, CopyUtils.deepSizeOf(null));
+    }
+
+    @Test
+    void testDeepEqualsWalksImmutableObjectsOutsideTheJdk() {
+        assertTrue(CopyUtils.deepEquals(new Point(1, 2), new Point(1, 2)),
+                "Immutable objects without equals should be compared by their fields.");
+        assertFalse(CopyUtils.deepEquals(new Point(1, 2), new Point(2, 1)));
+        assertEquals(CopyUtils.deepHashCode(new Point(1, 2)), CopyUtils.deepHashCode(new Point(1, 2)));
+        assertTrue(CopyUtils.deepEquals(List.of(BigDecimal.ONE, LocalDate.EPOCH), List.of(new BigDecimal("1"), LocalDate.EPOCH)));
+
+        BigInteger huge = BigInteger.ONE.shiftLeft(8_000);
+        assertTrue(CopyUtils.deepSizeOf(huge) > 1_000, "The magnitude of a BigInteger should be counted.");
+    }
+
+    @Test
+    void testDeepCopyLeavesSkippedContentsOutOfContainersRejectingNulls() {
+        CopyPolicy policy = CopyPolicy.builder().skipTypes(Sku.class).build();
+        Sku sku = new Sku("A-1");
+        Map<Object, Object> concurrent = new ConcurrentHashMap<>(Map.of("kept", 1, sku, 2));
+        Map<Object, Object> table = new Hashtable<>(Map.of("gone", sku, "kept", 3));
+        Object[] graph = {Set.of("kept", sku), Map.of("kept", 1, "gone", sku), concurrent, table,
+                new ArrayDeque<>(List.of(sku, "kept"))};
+
+        for (TraversalMode mode : List.of(TraversalMode.RECURSIVE, TraversalMode.ITERATIVE)) {
+            Object[] copy = CopyUtils.deepCopy(graph, mode, policy);
+            assertEquals(Set.of("kept"), copy[0], "Skipped elements should be left out of Set.of copies.");
+            assertEquals(Map.of("kept", 1), copy[1], "Entries with skipped values should be left out of Map.of copies.");
+            assertEquals(Map.of("kept", 1), copy[2]);
+            assertEquals(Map.of("kept", 3), copy[3]);
+            assertEquals(List.of("kept"), List.copyOf((ArrayDeque<?>) copy[4]));
+        }
+    }
+
+    @Test
+    void testDeepCopyUsesCopiersOfJdkAndImmutableClasses() {
+        AtomicInteger pointCopies = new AtomicInteger();
+        CopyPolicy policy = CopyPolicy.builder().copiers(CopierRegistry.builder()
+                .register(AtomicInteger.class, (counter, context) -> new AtomicInteger(counter.get()))
+                .register(StringBuilder.class, (builder, context) -> new StringBuilder(builder))
+                .register(Point.class, (point, context) -> {
+                    pointCopies.incrementAndGet();
+                    return new Point(point.x, point.y);
+                })
+                .detectCloneable()
+                .build()).build();
+        Date date = new Date(0);
+        Object[] graph = {new AtomicInteger(5), new StringBuilder("draft"), date, new Point(1, 2)};
+
+        Object[] copy = CopyUtils.deepCopy(graph, policy);
+        assertNotSame(graph[0], copy[0]);
+        assertEquals(5, ((AtomicInteger) copy[0]).get());
+        assertNotSame(graph[1], copy[1]);
+        assertEquals("draft", copy[1].toString());
+        assertNotSame(date, copy[2], "clone() of JDK classes should be detected.");
+        assertEquals(date, copy[2]);
+        assertNotSame(graph[3], copy[3], "Copiers of immutable classes should take precedence over sharing them.");
+        assertEquals(1, pointCopies.get());
+    }
+
+    @Test
+    void testDeepCopyUsesRegisteredAndDetectedCopiers() {
+        AtomicInteger measurementCopies = new AtomicInteger();
+        AtomicInteger shapeCopies = new AtomicInteger();
+        CopierRegistry registry = CopierRegistry.builder()
+                .register(Measurement.class, (measurement, context) -> {
+                    measurementCopies.incrementAndGet();
+                    Measurement copy = new Measurement(measurement.id);
+                    copy.value = measurement.value;
+                    return copy;
+                })
+                .registerHierarchy(Shape.class, (shape, context) -> {
+                    shapeCopies.incrementAndGet();
+                    return new Circle(((Circle) shape).radius);
+                })
+                .detectCopyConstructors()
+                .detectCloneable()
+                .build();
+        CopyPolicy policy = CopyPolicy.builder().copiers(registry).build();
+
+        Route route = new Route("Ring", new ArrayList<>(List.of("North", "South")));
+        route.back = route;
+        route.cache = "cached";
+        route.segments.add(new int[]{1, 2});
+        route.grid = new int[][]{{3}};
+        Matrix matrix = new Matrix(new double[]{1, 2}, new ArrayList<>(List.of("x")));
+        Measurement measurement = new Measurement(3);
+        measurement.value = 0.5;
+        Object[] graph = {route, matrix, measurement, measurement, new Circle(2)};
+        int routeCopies = Route.copies;
+
+        Object[] copy = CopyUtils.deepCopy(graph, policy);
+        Route copiedRoute = (Route) copy[0];
+        assertEquals(routeCopies + 1, Route.copies, "The copy constructor should be detected.");
+        assertSame(copiedRoute, copiedRoute.back, "Copiers should resolve cycles through the copy context.");
+        assertNotSame(route.stops, copiedRoute.stops, "References the copy constructor shares should be deep copied.");
+        assertEquals(route.stops, copiedRoute.stops);
+        assertNull(copiedRoute.cache);
+        assertNotSame(route.segments.getFirst(), copiedRoute.segments.getFirst(),
+                "Contents of containers made by a shallow copy constructor should be deep copied.");
+        assertArrayEquals(route.segments.getFirst(), copiedRoute.segments.getFirst());
+        assertNotSame(route.grid[0], copiedRoute.grid[0]);
+        assertArrayEquals(route.grid[0], copiedRoute.grid[0]);
+        Matrix copiedMatrix = (Matrix) copy[1];
+        assertSame(Matrix.lastClonedValues, copiedMatrix.values, "Objects created by clone() should be kept.");
+        assertArrayEquals(matrix.values, copiedMatrix.values);
+        assertNotSame(matrix.labels, copiedMatrix.labels);
+        assertSame(copy[2], copy[3]);
+        assertEquals(1, measurementCopies.get());
+        assertEquals(0.5, ((Measurement) copy[2]).value);
+        assertEquals(2, ((Circle) copy[4]).radius);
+        assertNotSame(graph[4], copy[4]);
+        assertEquals(1, shapeCopies.get(), "Copiers registered for a hierarchy should be used.");
+
+        CopyUtils.deepCopy(graph, TraversalMode.ITERATIVE, policy);
+        assertEquals(routeCopies + 2, Route.copies, "Every traversal should use registered copiers.");
+
+        CopyPolicy basketPolicy = CopyPolicy.builder().copiers(CopierRegistry.builder()
+                .register(Basket.class, (basket, context) -> {
+                    Basket basketCopy = context.register(basket, new Basket());
+                    for (Sku sku : basket.skus) {
+                        basketCopy.skus.add(context.copy(sku));
+                    }
+                    return basketCopy;
+                })
+                .build()).build();
+        Basket basket = new Basket();
+        Sku sku = new Sku("B-2");
+        basket.skus.add(sku);
+        Object[] copiedBasket = CopyUtils.deepCopy(new Object[]{sku, basket}, TraversalMode.ITERATIVE, basketPolicy);
+        assertTrue(((Basket) copiedBasket[1]).skus.contains(copiedBasket[0]), "Copiers should receive complete copies.");
+    }
+
+    static class Employee extends Man {
+        private final String department;
+
+        Employee(String name, int age, List<String> favoriteBooks, String department) {
+            super(name, age, favoriteBooks);
+            this.department = department;
+        }
+
+        String getDepartment() {
+            return department;
+        }
+    }
+
+    static class Measurement {
+        private final int id;
+        private double value;
+        private long timestamp;
+        private char unit;
+        private boolean valid;
+
+        Measurement(int id) {
+            this.id = id;
+        }
+    }
+
+    static class Sku {
+        private String code;
+
+        Sku(String code) {
+            this.code = code;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Sku sku && Objects.equals(code, sku.code);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(code);
+        }
+    }
+
+    static final class Point {
+        private final int x;
+        private final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Basket {
+        private final Set<Sku> skus = new HashSet<>();
+    }
+
+    static class Order {
+        private final List<String> items = new ArrayList<>();
+        @Shared
+        private final Map<String, String> catalog = new HashMap<>();
+        private transient List<String> summary;
+        @Skip
+        private String note;
+        private ThreadLocal<String> session;
+    }
+
+    static class Account {
+        static int created;
+
+        private final String id;
+        private final List<String> history = new ArrayList<>();
+
+        Account(String id) {
+            if (id == null || id.isEmpty()) {
+                throw new IllegalArgumentException("Account id is required");
+            }
+            this.id = id;
+            created++;
+        }
+    }
+
+    record Shipment(String destination, List<String> items, int parcels) {
+    }
+
+    @DeepCopyable
+    static class Playlist {
+        /**
+         * Constructor calls, which only generated copiers make, reflective copies allocate without them.
+         */
+        static int created;
+
+        final String title;
+        List<Track> tracks = new ArrayList<>();
+        Playlist next;
+        @Skip
+        byte[] cover;
+        private int plays;
+
+        Playlist(String title) {
+            this.title = title;
+            created++;
+        }
+
+        int getPlays() {
+            return plays;
+        }
+
+        void setPlays(int plays) {
+            this.plays = plays;
+        }
+    }
+
+    @DeepCopyable
+    record Track(String title, List<String> tags) {
+    }
+
+    enum Status {
+        OPEN, PAID
+    }
+
+    record InvoiceLine(String title, int quantity) {
+    }
+
+    @Immutable
+    static class Currency {
+        private final String code;
+
+        Currency(String code) {
+            this.code = code;
+        }
+    }
+
+    static class Invoice {
+        private BigDecimal amount;
+        private LocalDate issued;
+        private Status status;
+        private InvoiceLine line;
+        private Currency currency;
+        private List<String> notes;
+    }
+
+    static class Box {
+        List<Box> boxes;
+        Map<String, Box> byName;
+    }
+
+    static class Route {
+        static int copies;
+
+        final String name;
+        List<String> stops;
+        List<int[]> segments = new ArrayList<>();
+        int[][] grid = new int[0][];
+        Route back;
+        @Skip
+        String cache;
+
+        Route(String name, List<String> stops) {
+            this.name = name;
+            this.stops = stops;
+        }
+
+        public Route(Route other) {
+            this.name = other.name;
+            this.stops = other.stops;
+            this.segments = new ArrayList<>(other.segments);
+            this.grid = other.grid.clone();
+            this.back = other.back;
+            this.cache = other.cache;
+            copies++;
+        }
+    }
+
+    static class Matrix implements Cloneable {
+        static double[] lastClonedValues;
+
+        double[] values;
+        List<String> labels;
+
+        Matrix(double[] values, List<String> labels) {
+            this.values = values;
+            this.labels = labels;
+        }
+
+        @Override
+        public Matrix clone() {
+            try {
+                Matrix copy = (Matrix) super.clone();
+                copy.values = Arrays.copyOf(values, values.length);
+                lastClonedValues = copy.values;
+                return copy;
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    interface Shape {
+    }
+
+    static class Circle implements Shape {
+        double radius;
+
+        Circle(double radius) {
+            this.radius = radius;
+        }
+    }
+}